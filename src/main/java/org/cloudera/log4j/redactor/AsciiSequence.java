@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A CharSequence view of a range of bytes that are all ASCII, so that
+ * regular expressions can run over encoded text without decoding it into
+ * a String first. For ASCII, every byte is exactly one char of the same
+ * value. The view is reused: {@link #set} points it at a new range.
+ */
+final class AsciiSequence implements CharSequence {
+  private byte[] bytes;
+  private int offset;
+  private int length;
+
+  AsciiSequence set(byte[] bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+    return this;
+  }
+
+  /**
+   * @return true if all of the bytes in the given range are ASCII.
+   */
+  static boolean isAscii(byte[] bytes, int offset, int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      if (bytes[i] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if all of the characters of the string are ASCII.
+   */
+  static boolean isAscii(CharSequence chars) {
+    for (int i = 0, n = chars.length(); i < n; i++) {
+      if (chars.charAt(i) >= 128) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if ((index < 0) || (index >= length)) {
+      throw new IndexOutOfBoundsException("index " + index);
+    }
+    return (char) bytes[offset + index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if ((start < 0) || (end > length) || (start > end)) {
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end);
+    }
+    return new String(bytes, offset + start, end - start,
+        StandardCharsets.US_ASCII);
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The search of a rule in a compiled policy, for the searches that match a
+ * fixed number of characters, each either a literal or a class: "\d{4}",
+ * "[0-9a-f]{32}" or "ssn:\d\d\d-\d\d-\d\d\d\d". Such a search is compiled
+ * into one test per position, a character compare or a lookup in a bitmap
+ * of the class over the Basic Multilingual Plane, which finds the same
+ * matches as the Pattern without its node graph and backtracking.
+ * <p/>
+ * The bitmap of a class is made by asking the Pattern of the class about
+ * every character, so it agrees with the Pattern by construction. Text
+ * with surrogates, where the Pattern works on code points, is left to the
+ * Pattern of the rule.
+ */
+final class CompiledSearch extends SpanReplacer {
+  // The longest search that is compiled
+  private static final int MAX_LENGTH = 256;
+  private static final int BMP = 0x10000;
+
+  // The bitmaps of the classes, by the text of the class
+  private static final ConcurrentMap<String, long[]> CLASSES =
+      new ConcurrentHashMap<String, long[]>();
+
+  // The character at each position, for the literal positions
+  private final char[] chars;
+  // The bitmap of the class at each position, or null for a literal
+  private final long[][] sets;
+
+  private CompiledSearch(char[] chars, long[][] sets, String replacement) {
+    super(replacement);
+    this.chars = chars;
+    this.sets = sets;
+  }
+
+  /**
+   * @param search A case sensitive search
+   * @param replacement The plain text that replaces the matches
+   * @return The compiled search, or null if the search can't be compiled.
+   */
+  static CompiledSearch compile(String search, String replacement) {
+    if (search.contains("(?") || search.contains("\\Q")) {
+      return null;
+    }
+    RegexTree.Node root = RegexTree.parse(Pattern.compile(search));
+    List<RegexTree.Node> positions = new ArrayList<RegexTree.Node>();
+    if ((root == null) || !flatten(root, positions) || positions.isEmpty()) {
+      return null;
+    }
+    char[] chars = new char[positions.size()];
+    long[][] sets = new long[positions.size()][];
+    for (int k = 0; k < chars.length; k++) {
+      RegexTree.Node node = positions.get(k);
+      String text = search.substring(node.start, node.end);
+      if (node instanceof RegexTree.Literal) {
+        char c = ((RegexTree.Literal) node).c;
+        if (Character.isSurrogate(c) || !matchesOnly(text, c)) {
+          return null;
+        }
+        chars[k] = c;
+      } else {
+        if (text.equals("\\R") || text.equals("\\X")) {
+          // They can match more than one character
+          return null;
+        }
+        sets[k] = bitmap(text);
+      }
+    }
+    return new CompiledSearch(chars, sets, replacement);
+  }
+
+  /**
+   * Add the positions of a fixed length node to the list.
+   * @return false if the node doesn't match a fixed number of characters,
+   *     or is too long.
+   */
+  private static boolean flatten(RegexTree.Node node,
+                                 List<RegexTree.Node> positions) {
+    if (positions.size() > MAX_LENGTH) {
+      return false;
+    }
+    if (node instanceof RegexTree.Literal) {
+      if (((RegexTree.Literal) node).caseInsensitive) {
+        return false;
+      }
+      positions.add(node);
+      return true;
+    }
+    if (node instanceof RegexTree.CharSet) {
+      positions.add(node);
+      return true;
+    }
+    if (node instanceof RegexTree.Group) {
+      return flatten(((RegexTree.Group) node).body, positions);
+    }
+    if (node instanceof RegexTree.Sequence) {
+      for (RegexTree.Node item : ((RegexTree.Sequence) node).items) {
+        if (!flatten(item, positions)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (node instanceof RegexTree.Repeat) {
+      RegexTree.Repeat repeat = (RegexTree.Repeat) node;
+      if (repeat.min != repeat.max) {
+        return false;
+      }
+      for (int i = 0; i < repeat.min; i++) {
+        if (!flatten(repeat.body, positions)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the expression matches the character and nothing else
+   *     we could mistake for it.
+   */
+  private static boolean matchesOnly(String text, char c) {
+    try {
+      return Pattern.compile(text).matcher(String.valueOf(c)).matches();
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  private static long[] bitmap(String text) {
+    long[] bits = CLASSES.get(text);
+    if (bits != null) {
+      return bits;
+    }
+    bits = new long[BMP / 64];
+    StringBuilder one = new StringBuilder("x");
+    Matcher m = Pattern.compile(text).matcher(one);
+    for (int c = 0; c < BMP; c++) {
+      if (Character.isSurrogate((char) c)) {
+        continue;
+      }
+      one.setCharAt(0, (char) c);
+      m.reset(one);
+      if (m.matches()) {
+        bits[c >>> 6] |= 1L << c;
+      }
+    }
+    CLASSES.putIfAbsent(text, bits);
+    return bits;
+  }
+
+  @Override
+  long next(CharSequence s, int from) {
+    int length = chars.length;
+    for (int i = from, end = s.length() - length; i <= end; i++) {
+      int k = 0;
+      while (k < length) {
+        char c = s.charAt(i + k);
+        if (Character.isSurrogate(c)) {
+          return UNSUPPORTED;
+        }
+        long[] set = sets[k];
+        if ((set == null) ? (c != chars[k])
+            : ((set[c >>> 6] & (1L << c)) == 0)) {
+          break;
+        }
+        k++;
+      }
+      if (k == length) {
+        return ((long) i << 32) | (i + length);
+      }
+    }
+    return NONE;
+  }
+}
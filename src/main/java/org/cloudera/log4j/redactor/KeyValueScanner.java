@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.List;
+
+/**
+ * The scanner of the rules with "valuesOf": it splits a line such as
+ * "user=bob password=secret", "Authorization: Basic xyz" or
+ * "jdbc:mysql://db/x?user=bob&amp;password=secret" into key/value pairs in
+ * one pass, and replaces the values of the given keys.
+ * <p/>
+ * A key is a run of letters, digits, '.', '_' and '-', followed by '=' or
+ * ':' (with optional blanks around it). Its value is either quoted with "
+ * or ', in which case the text between the quotes is replaced, or runs up
+ * to the first of the value delimiters. The value of another key is
+ * scanned for pairs too, so that "url=jdbc:x;password=secret" has its
+ * password replaced. Keys are looked up in a hash table, without
+ * allocating anything.
+ */
+final class KeyValueScanner extends SpanReplacer {
+  // The keys, in lower case unless the lookup is case sensitive, by hash
+  private final String[] table;
+  private final boolean caseSensitive;
+  private final String delimiters;
+
+  KeyValueScanner(List<String> keys, boolean caseSensitive, String delimiters,
+                  String replacement) {
+    super(replacement);
+    this.caseSensitive = caseSensitive;
+    this.delimiters = delimiters;
+    int size = Integer.highestOneBit(Math.max(keys.size(), 2) * 4);
+    table = new String[size];
+    for (String key : keys) {
+      String k = caseSensitive ? key : lower(key);
+      int slot = hash(k, 0, k.length()) & (size - 1);
+      while ((table[slot] != null) && !table[slot].equals(k)) {
+        slot = (slot + 1) & (size - 1);
+      }
+      table[slot] = k;
+    }
+  }
+
+  /**
+   * @return true if c can be part of a key.
+   */
+  static boolean isKeyChar(char c) {
+    return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) ||
+        ((c >= '0') && (c <= '9')) || (c == '.') || (c == '_') || (c == '-');
+  }
+
+  private static String lower(String key) {
+    StringBuilder sb = new StringBuilder(key.length());
+    for (int i = 0; i < key.length(); i++) {
+      sb.append(lower(key.charAt(i)));
+    }
+    return sb.toString();
+  }
+
+  // Keys are ASCII
+  private static char lower(char c) {
+    return ((c >= 'A') && (c <= 'Z')) ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  private int hash(CharSequence s, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + (caseSensitive ? s.charAt(i) : lower(s.charAt(i)));
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private boolean isKey(CharSequence s, int start, int end) {
+    int slot = hash(s, start, end) & (table.length - 1);
+    for (String key = table[slot]; key != null;
+         slot = (slot + 1) & (table.length - 1), key = table[slot]) {
+      if (key.length() != end - start) {
+        continue;
+      }
+      int i = 0;
+      while ((i < key.length()) && (key.charAt(i) == (caseSensitive
+          ? s.charAt(start + i) : lower(s.charAt(start + i))))) {
+        i++;
+      }
+      if (i == key.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int skipBlanks(CharSequence s, int i) {
+    while ((i < s.length()) && ((s.charAt(i) == ' ') || (s.charAt(i) == '\t'))) {
+      i++;
+    }
+    return i;
+  }
+
+  @Override
+  long next(CharSequence s, int from) {
+    int n = s.length();
+    int i = from;
+    while (i < n) {
+      if (!isKeyChar(s.charAt(i))) {
+        i++;
+        continue;
+      }
+      int keyStart = i;
+      while ((i < n) && isKeyChar(s.charAt(i))) {
+        i++;
+      }
+      int keyEnd = i;
+      int j = skipBlanks(s, i);
+      if ((j == n) || ((s.charAt(j) != '=') && (s.charAt(j) != ':'))) {
+        continue;
+      }
+      int valueStart = skipBlanks(s, j + 1);
+      int valueEnd;
+      if ((valueStart < n) && ((s.charAt(valueStart) == '"') ||
+          (s.charAt(valueStart) == '\''))) {
+        char quote = s.charAt(valueStart);
+        valueEnd = valueStart + 1;
+        while ((valueEnd < n) && (s.charAt(valueEnd) != quote)) {
+          valueEnd++;
+        }
+        if (valueEnd < n) {
+          valueStart++;
+        }
+      } else {
+        valueEnd = valueStart;
+        while ((valueEnd < n) &&
+            (delimiters.indexOf(s.charAt(valueEnd)) < 0)) {
+          valueEnd++;
+        }
+      }
+      if ((valueEnd > valueStart) && isKey(s, keyStart, keyEnd)) {
+        return ((long) valueStart << 32) | valueEnd;
+      }
+      // Other values may hold pairs of their own
+      i = valueStart;
+    }
+    return NONE;
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The literals and replacements of consecutive literal rules, applied in a
+ * single pass over the message: at each position, the first literal (in
+ * policy order) found there is replaced, and the scan goes on after it.
+ * {@link PolicyOptimizer} only fuses rules for which this gives the same
+ * result as applying them one after the other. Literals and replacements
+ * are ASCII, so the bytes of ASCII text can be redacted as they are.
+ */
+final class LiteralSet {
+  private static final int ASCII = 128;
+
+  private final String[] literals;
+  private final String[] replacements;
+  private final byte[][] asciiReplacements;
+  // The indexes of the literals starting with each ASCII character, in
+  // policy order
+  private final int[][] byFirstChar = new int[ASCII][];
+  private final int minLength;
+
+  LiteralSet(List<String> literals, List<String> replacements) {
+    this.literals = literals.toArray(new String[0]);
+    this.replacements = replacements.toArray(new String[0]);
+    asciiReplacements = new byte[this.replacements.length][];
+    int min = Integer.MAX_VALUE;
+    List<List<Integer>> lists = new ArrayList<List<Integer>>();
+    for (int c = 0; c < ASCII; c++) {
+      lists.add(null);
+    }
+    for (int i = 0; i < this.literals.length; i++) {
+      String literal = this.literals[i];
+      min = Math.min(min, literal.length());
+      char first = literal.charAt(0);
+      if (lists.get(first) == null) {
+        lists.set(first, new ArrayList<Integer>());
+      }
+      lists.get(first).add(i);
+      asciiReplacements[i] =
+          this.replacements[i].getBytes(StandardCharsets.US_ASCII);
+    }
+    for (int c = 0; c < ASCII; c++) {
+      List<Integer> list = lists.get(c);
+      if (list != null) {
+        byFirstChar[c] = new int[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+          byFirstChar[c][i] = list.get(i);
+        }
+      }
+    }
+    minLength = min;
+  }
+
+  /**
+   * @return The number of literals.
+   */
+  int size() {
+    return literals.length;
+  }
+
+  /**
+   * @return The index of the literal found at position pos, or -1.
+   */
+  private int literalAt(CharSequence msg, int pos) {
+    char c = msg.charAt(pos);
+    int[] candidates = (c < ASCII) ? byFirstChar[c] : null;
+    if (candidates == null) {
+      return -1;
+    }
+    for (int candidate : candidates) {
+      String literal = literals[candidate];
+      int length = literal.length();
+      if (pos + length > msg.length()) {
+        continue;
+      }
+      int k = 1;
+      while ((k < length) && (msg.charAt(pos + k) == literal.charAt(k))) {
+        k++;
+      }
+      if (k == length) {
+        return candidate;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if any of the literals is in the message.
+   */
+  boolean foundIn(CharSequence msg) {
+    for (int pos = 0, end = msg.length() - minLength; pos <= end; pos++) {
+      if (literalAt(msg, pos) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replace the literals in the message, writing the result to out.
+   * @return true if any of the literals is in the message, in which case
+   *     out holds the result.
+   */
+  boolean replace(CharSequence msg, StringBuilder out) {
+    boolean found = false;
+    int last = 0;
+    int pos = 0;
+    int end = msg.length() - minLength;
+    while (pos <= end) {
+      int literal = literalAt(msg, pos);
+      if (literal < 0) {
+        pos++;
+        continue;
+      }
+      out.append(msg, last, pos).append(replacements[literal]);
+      pos += literals[literal].length();
+      last = pos;
+      found = true;
+    }
+    if (found) {
+      out.append(msg, last, msg.length());
+    }
+    return found;
+  }
+
+  /**
+   * Replace the literals in ASCII text, writing the result to out.
+   * @param view A view of the text
+   * @return The length of the result, or -1 if none of the literals is in
+   *     the text and nothing was written.
+   */
+  int replace(AsciiSequence view, byte[] src, int srcOffset,
+              RedactionBuffer out) {
+    int length = view.length();
+    byte[] dst = null;
+    int written = 0;
+    int last = 0;
+    int pos = 0;
+    int end = length - minLength;
+    while (pos <= end) {
+      int found = literalAt(view, pos);
+      if (found < 0) {
+        pos++;
+        continue;
+      }
+      if (dst == null) {
+        out.beginWrite(length);
+      }
+      byte[] replacement = asciiReplacements[found];
+      dst = out.ensureCapacity(written, pos - last + replacement.length);
+      System.arraycopy(src, srcOffset + last, dst, written, pos - last);
+      written += pos - last;
+      System.arraycopy(replacement, 0, dst, written, replacement.length);
+      written += replacement.length;
+      pos += literals[found].length();
+      last = pos;
+    }
+    if (dst == null) {
+      return -1;
+    }
+    dst = out.ensureCapacity(written, length - last);
+    System.arraycopy(src, srcOffset + last, dst, written, length - last);
+    written += length - last;
+    out.commitWrite(written);
+    return written;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+/**
+ * The message being redacted once a rule has changed it: the text as the
+ * rules so far left it, which the later rules match against, and the
+ * scratch space the next rule writes its result to. The two are swapped
+ * after each change, the way {@link RedactionBuffer} does for bytes, so
+ * that a message changed by several rules becomes a String only once, at
+ * the end. Pooled by the policy; not thread safe.
+ */
+final class MessageBuffer {
+  private static final int INITIAL_SIZE = 256;
+  // Buffers that grew larger than this, for a huge message, aren't pooled
+  private static final int MAX_POOLED_SIZE = 1 << 16;
+
+  private StringBuilder text = new StringBuilder(INITIAL_SIZE);
+  private StringBuilder scratch = new StringBuilder(INITIAL_SIZE);
+
+  /**
+   * @return The empty scratch space, which becomes the text when the write
+   *     is committed.
+   */
+  StringBuilder beginWrite() {
+    scratch.setLength(0);
+    return scratch;
+  }
+
+  /**
+   * The scratch space holds the outcome of the last write: swap it with
+   * the text.
+   * @return The new text.
+   */
+  CharSequence commitWrite() {
+    StringBuilder tmp = text;
+    text = scratch;
+    scratch = tmp;
+    return text;
+  }
+
+  /**
+   * @return true if the buffer is small enough to be pooled.
+   */
+  boolean isPoolable() {
+    return (text.capacity() <= MAX_POOLED_SIZE) &&
+        (scratch.capacity() <= MAX_POOLED_SIZE);
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The policies of many tenants, such as the customers of a multi-tenant
+ * service: the policy of tenant "acme" is the file "acme.json" in the
+ * policy directory. Policies are loaded the first time they are asked for
+ * and kept in a bounded cache, so that services with thousands of tenants
+ * neither load all their policies at startup nor keep them all in memory.
+ * <p/>
+ * The default policy applies to unknown tenants (no tenant, a name that
+ * isn't a plain file name, or no policy file) and to tenants whose policy
+ * fails to load; it should be at least as strict as the tenant policies.
+ * The names without a policy file are kept apart, in a set of the same
+ * bound that is simply cleared when full: tenant names may come from
+ * request data, and a stream of made up ones must neither evict the
+ * loaded policies nor look for a file on every message. A tenant without
+ * a policy file, or whose policy failed to load, is looked at again after
+ * a minute, so that a policy added or fixed later is picked up.
+ * <p/>
+ * The cache is a concurrent map, so lookups of cached policies don't lock.
+ * When it is full, a hand goes round the policies (the "clock"
+ * approximation of least recently used): it takes the mark off those used
+ * since it last went by, and evicts the first one that wasn't. A policy is
+ * loaded under the lock of its entry, so only the threads that want that
+ * policy wait for it.
+ */
+public final class PolicyCache {
+  /** The default maximum number of cached policies. */
+  public static final int DEFAULT_MAX_POLICIES = 1000;
+
+  // Tenant names must be plain file names, not paths
+  private static final Pattern TENANT = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+  // How long a missing or broken policy stays the default policy
+  private static final long RETRY_MILLIS = 60 * 1000;
+
+  private final File directory;
+  private final int maxPolicies;
+  private final StringRedactor defaultRedactor;
+  private final long retryNanos;
+  private final ConcurrentMap<String, Entry> policies =
+      new ConcurrentHashMap<String, Entry>();
+  // The tenants without a policy file, with when to look for it again
+  private final ConcurrentMap<String, Long> unknown =
+      new ConcurrentHashMap<String, Long>();
+  // The hand of the clock, under the lock of the cache
+  private Iterator<Entry> hand;
+
+  /**
+   * @param directory The directory holding the tenant policies
+   * @param maxPolicies The most policies to keep loaded
+   * @param defaultRedactor The default policy
+   */
+  public PolicyCache(String directory, int maxPolicies,
+                     StringRedactor defaultRedactor) {
+    this(directory, maxPolicies, defaultRedactor, RETRY_MILLIS);
+  }
+
+  /**
+   * @param retryMillis How long a missing or broken policy stays the
+   *     default policy
+   */
+  PolicyCache(String directory, int maxPolicies,
+              StringRedactor defaultRedactor, long retryMillis) {
+    if (maxPolicies < 1) {
+      throw new IllegalArgumentException("The maximum number of policies " +
+          "must be positive");
+    }
+    this.directory = new File(directory);
+    if (!this.directory.isDirectory()) {
+      throw new IllegalArgumentException("No policy directory " + directory);
+    }
+    this.maxPolicies = maxPolicies;
+    this.defaultRedactor = defaultRedactor;
+    this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryMillis);
+  }
+
+  /**
+   * @param tenant The tenant, or null if unknown
+   * @return The policy of the tenant, or the default one.
+   */
+  public StringRedactor get(String tenant) {
+    if ((tenant == null) || !TENANT.matcher(tenant).matches()) {
+      return defaultRedactor;
+    }
+    Entry entry = policies.get(tenant);
+    if (entry == null) {
+      Long retryAt = unknown.get(tenant);
+      if ((retryAt != null) && (System.nanoTime() - retryAt < 0)) {
+        return defaultRedactor;
+      }
+      File file = new File(directory, tenant + ".json");
+      if (!file.isFile()) {
+        if (unknown.size() >= maxPolicies) {
+          unknown.clear();
+        }
+        unknown.put(tenant, System.nanoTime() + retryNanos);
+        return defaultRedactor;
+      }
+      if (retryAt != null) {
+        unknown.remove(tenant);
+      }
+      if (policies.size() >= maxPolicies) {
+        evict();
+      }
+      Entry created = new Entry(file);
+      entry = policies.putIfAbsent(tenant, created);
+      if (entry == null) {
+        entry = created;
+      }
+    }
+    entry.used = true;
+    return entry.redactor();
+  }
+
+  /**
+   * @return The number of policies in the cache.
+   */
+  public int size() {
+    return policies.size();
+  }
+
+  private void evict() {
+    synchronized (this) {
+      // One round takes all the marks off, unless other threads keep
+      // using the policies: after two, the hand evicts the one it is on
+      for (int steps = 2 * policies.size(); policies.size() >= maxPolicies;
+           steps--) {
+        if ((hand == null) || !hand.hasNext()) {
+          hand = policies.values().iterator();
+          if (!hand.hasNext()) {
+            return;
+          }
+        }
+        Entry entry = hand.next();
+        if (entry.used && (steps > 0)) {
+          entry.used = false;
+        } else {
+          hand.remove();
+        }
+      }
+    }
+  }
+
+  private final class Entry {
+    volatile boolean used;
+    private final File file;
+    private volatile StringRedactor redactor;
+    // If the policy failed to load, when to load it again
+    private volatile boolean failed;
+    private volatile long retryAt;
+
+    Entry(File file) {
+      this.file = file;
+    }
+
+    StringRedactor redactor() {
+      StringRedactor r = redactor;
+      if ((r == null) || isRetryDue()) {
+        synchronized (this) {
+          r = redactor;
+          if ((r == null) || isRetryDue()) {
+            r = load();
+            redactor = r;
+          }
+        }
+      }
+      return r;
+    }
+
+    private boolean isRetryDue() {
+      return failed && (System.nanoTime() - retryAt >= 0);
+    }
+
+    private StringRedactor load() {
+      failed = false;
+      if (file.isFile()) {
+        try {
+          return StringRedactor.createFromJsonFile(file.getPath());
+        } catch (IOException e) {
+          // A broken policy must not turn redaction off for the tenant,
+          // which gets the default one until the retry
+        } catch (RuntimeException e) {
+          // The same for a policy with invalid rules
+        }
+      }
+      retryAt = System.nanoTime() + retryNanos;
+      failed = true;
+      return defaultRedactor;
+    }
+  }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import org.cloudera.log4j.redactor.StringRedactor.RedactionRule;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Static checks of a redaction policy for rules that will be slow: rules
+ * whose search can backtrack exponentially, unbounded wildcards, expensive
+ * rules without a trigger and rules that can never match because an
+ * earlier rule redacts the same text. Each finding carries an estimate of
+ * how the cost of the rule grows with the length of the message.
+ * <p/>
+ * The checks are heuristics over the structure of the regular expressions,
+ * so they can both miss problems and flag expressions that are fine in
+ * practice; they are meant for reviewing policies before deploying them.
+ * From the command line:
+ * <pre>
+ *   java -cp logredactor.jar org.cloudera.log4j.redactor.PolicyLinter \
+ *       [--fail-on=LINEAR|QUADRATIC|EXPONENTIAL] rules.json...
+ * </pre>
+ * prints the findings and exits with 1 if any finding is at least as
+ * expensive as --fail-on (default LINEAR, i.e. any finding), or with 2 if a
+ * policy can't be loaded.
+ */
+public final class PolicyLinter {
+
+  /** How the cost of a rule grows with the length of the message. */
+  public enum Cost {
+    LINEAR,
+    QUADRATIC,
+    EXPONENTIAL
+  }
+
+  /** The kinds of problems the linter looks for. */
+  public enum Check {
+    /** A repetition of something that itself repeats, as in "(a+)+". */
+    NESTED_QUANTIFIER,
+    /** A repetition of alternatives that can match the same text. */
+    OVERLAPPING_ALTERNATION,
+    /** ".*" or ".+", which scan to the end of the line. */
+    UNBOUNDED_WILDCARD,
+    /** An expensive search that runs on every message. */
+    MISSING_TRIGGER,
+    /** A rule whose matches are all redacted by an earlier rule. */
+    SHADOWED_RULE
+  }
+
+  /** One problem with one rule. */
+  public static final class Finding {
+    private final int ruleIndex;
+    private final String description;
+    private final Check check;
+    private final Cost cost;
+    private final String message;
+
+    Finding(int ruleIndex, String description, Check check, Cost cost,
+            String message) {
+      this.ruleIndex = ruleIndex;
+      this.description = description;
+      this.check = check;
+      this.cost = cost;
+      this.message = message;
+    }
+
+    /**
+     * @return The index of the rule in the policy, from 0. Groups and the
+     *     rules in them are counted in order, each group right before its
+     *     rules.
+     */
+    public int getRuleIndex() {
+      return ruleIndex;
+    }
+
+    /**
+     * @return The description of the rule, or null if it has none.
+     */
+    public String getDescription() {
+      return description;
+    }
+
+    public Check getCheck() {
+      return check;
+    }
+
+    public Cost getCost() {
+      return cost;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("rule #").append(ruleIndex + 1);
+      if (description != null) {
+        sb.append(" (").append(description).append(')');
+      }
+      return sb.append(": ").append(check).append(" [").append(cost)
+          .append("] ").append(message).toString();
+    }
+  }
+
+  private PolicyLinter() {}
+
+  /**
+   * Check the rules of a policy.
+   * @param redactor The policy to check
+   * @return The findings, ordered by rule.
+   */
+  public static List<Finding> lint(StringRedactor redactor) {
+    List<RedactionRule> rules = redactor.getRules();
+    List<Finding> findings = new ArrayList<Finding>();
+    for (int i = 0; i < rules.size(); i++) {
+      lintRule(i, rules.get(i), findings);
+      for (int j = 0; j < i; j++) {
+        if (shadows(rules.get(j), rules.get(i))) {
+          findings.add(new Finding(i, rules.get(i).getDescription(),
+              Check.SHADOWED_RULE, Cost.LINEAR, "rule #" + (j + 1) +
+              " has the same search and a scope at least as broad, so this " +
+              "rule only ever scans messages in which there is nothing " +
+              "left to redact"));
+          break;
+        }
+      }
+    }
+    return findings;
+  }
+
+  /**
+   * Check the rules of the policy in a file.
+   * @param fileName The name of the policy file
+   * @return The findings, ordered by rule.
+   * @throws IOException if the policy can't be read or is invalid.
+   */
+  public static List<Finding> lintFile(String fileName) throws IOException {
+    return lint(StringRedactor.createFromJsonFile(fileName));
+  }
+
+  private static void lintRule(int index, RedactionRule rule,
+                               List<Finding> findings) {
+    if (rule.getSearch() == null) {
+      // A group without a search, or a rule with valuesOf
+      return;
+    }
+    int flags = rule.isCaseSensitive() ? 0 : Pattern.CASE_INSENSITIVE;
+    RegexTree.Node root = RegexTree.parse(Pattern.compile(rule.getSearch(), flags));
+    if (root == null) {
+      return;
+    }
+    String search = rule.getSearch();
+    int first = findings.size();
+    checkRepeats(index, rule, search, root, root, false, findings);
+
+    // A rule is triggered if it has a trigger of its own, an implied one
+    // from the literal text every match contains, or if one of the
+    // groups it is in has either
+    boolean hasTrigger = hasTrigger(rule);
+    for (RedactionRule group : rule.getGroups()) {
+      hasTrigger |= hasTrigger(group);
+    }
+    if (!hasTrigger && !rule.isKeyRule() && !rule.isGroup() &&
+        ((findings.size() > first) || hasUnboundedRepeat(root))) {
+      findings.add(new Finding(index, rule.getDescription(),
+          Check.MISSING_TRIGGER, Cost.LINEAR, "the search has unbounded " +
+          "repetition, no trigger and no literal text to derive one from, " +
+          "so it runs on every message"));
+    }
+  }
+
+  private static boolean hasTrigger(RedactionRule rule) {
+    return ((rule.getTrigger() != null) && !rule.getTrigger().isEmpty()) ||
+        (rule.getImpliedTrigger() != null);
+  }
+
+  /**
+   * Look for repetitions that can backtrack a lot, and for wildcards.
+   */
+  private static void checkRepeats(int index, RedactionRule rule,
+                                   String search, RegexTree.Node root,
+                                   RegexTree.Node node, boolean atomic,
+                                   List<Finding> findings) {
+    if (node instanceof RegexTree.Repeat) {
+      RegexTree.Repeat repeat = (RegexTree.Repeat) node;
+      boolean backtracks = repeat.isUnbounded() && !repeat.possessive && !atomic;
+      String text = search.substring(node.start, node.end);
+      if (backtracks && hasUnboundedRepeat(repeat.body)) {
+        findings.add(new Finding(index, rule.getDescription(),
+            Check.NESTED_QUANTIFIER, Cost.EXPONENTIAL, "\"" + text +
+            "\" repeats something that itself repeats, so text that almost " +
+            "matches can be split up in exponentially many ways; use a " +
+            "possessive quantifier or an atomic group"));
+        return;
+      }
+      RegexTree.Node body = unwrap(repeat.body);
+      if (backtracks && (body instanceof RegexTree.Alternation) &&
+          alternativesOverlap((RegexTree.Alternation) body)) {
+        findings.add(new Finding(index, rule.getDescription(),
+            Check.OVERLAPPING_ALTERNATION, Cost.EXPONENTIAL, "\"" + text +
+            "\" repeats alternatives that can start with the same " +
+            "character, so text that almost matches can be split up in " +
+            "exponentially many ways"));
+        return;
+      }
+      if (repeat.isUnbounded() && (body instanceof RegexTree.CharSet) &&
+          ((RegexTree.CharSet) body).wildcard) {
+        List<RegexTree.Node> items = RegexTree.items(root);
+        boolean trailing = items.get(items.size() - 1) == node;
+        findings.add(new Finding(index, rule.getDescription(),
+            Check.UNBOUNDED_WILDCARD, trailing ? Cost.LINEAR : Cost.QUADRATIC,
+            "\"" + text + "\" matches everything up to " +
+            "the end of the line" + (trailing ? "" : " and then backtracks, " +
+            "for every place the search starts") + "; prefer a bounded or " +
+            "narrower class such as \\S+ or [^&\\s]*"));
+      }
+      checkRepeats(index, rule, search, root, repeat.body, atomic, findings);
+    } else if (node instanceof RegexTree.Group) {
+      RegexTree.Group group = (RegexTree.Group) node;
+      checkRepeats(index, rule, search, root, group.body,
+          atomic || group.atomic, findings);
+    } else if (node instanceof RegexTree.Sequence) {
+      for (RegexTree.Node item : ((RegexTree.Sequence) node).items) {
+        checkRepeats(index, rule, search, root, item, atomic, findings);
+      }
+    } else if (node instanceof RegexTree.Alternation) {
+      for (RegexTree.Node item : ((RegexTree.Alternation) node).alternatives) {
+        checkRepeats(index, rule, search, root, item, atomic, findings);
+      }
+    }
+  }
+
+  private static RegexTree.Node unwrap(RegexTree.Node node) {
+    while (node instanceof RegexTree.Group) {
+      node = ((RegexTree.Group) node).body;
+    }
+    return node;
+  }
+
+  private static boolean hasUnboundedRepeat(RegexTree.Node node) {
+    if (node instanceof RegexTree.Repeat) {
+      RegexTree.Repeat repeat = (RegexTree.Repeat) node;
+      return (repeat.isUnbounded() && !repeat.possessive) ||
+          hasUnboundedRepeat(repeat.body);
+    }
+    if (node instanceof RegexTree.Group) {
+      RegexTree.Group group = (RegexTree.Group) node;
+      return !group.atomic && hasUnboundedRepeat(group.body);
+    }
+    for (RegexTree.Node child : children(node)) {
+      if (hasUnboundedRepeat(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<RegexTree.Node> children(RegexTree.Node node) {
+    if (node instanceof RegexTree.Sequence) {
+      return ((RegexTree.Sequence) node).items;
+    }
+    if (node instanceof RegexTree.Alternation) {
+      return ((RegexTree.Alternation) node).alternatives;
+    }
+    return Collections.emptyList();
+  }
+
+  private static boolean alternativesOverlap(RegexTree.Alternation alternation) {
+    List<RegexTree.Node> alternatives = alternation.alternatives;
+    List<RegexTree.CharSet> firsts = new ArrayList<RegexTree.CharSet>();
+    for (RegexTree.Node alternative : alternatives) {
+      RegexTree.CharSet first = RegexTree.firstChars(alternative);
+      for (RegexTree.CharSet other : firsts) {
+        if (first.intersects(other)) {
+          return true;
+        }
+      }
+      firsts.add(first);
+    }
+    return false;
+  }
+
+  /**
+   * @return true if every match of later is redacted by earlier before
+   *     later gets to see it: same search, and a scope at least as broad,
+   *     including the scope of its groups.
+   */
+  static boolean shadows(RedactionRule earlier, RedactionRule later) {
+    if (earlier.isGroup() || later.isGroup() || earlier.isKeyValueRule() ||
+        later.isKeyValueRule() ||
+        !later.getGroups().containsAll(earlier.getGroups()) ||
+        !earlier.getSearch().equals(later.getSearch()) ||
+        (earlier.isCaseSensitive() != later.isCaseSensitive()) ||
+        (earlier.isKeyRule() != later.isKeyRule())) {
+      return false;
+    }
+    boolean caseSensitive = earlier.isCaseSensitive();
+    return covers(earlier.getKeys(), later.getKeys(), caseSensitive) &&
+        covers(earlier.getPaths(), later.getPaths(), true) &&
+        covers(earlier.getLoggers(), later.getLoggers(), true) &&
+        covers(earlier.getLevels(), later.getLevels(), false) &&
+        triggerCovers(earlier.getTrigger(), later.getTrigger(), caseSensitive);
+  }
+
+  /**
+   * @return true if the scope list broad (null meaning "everything")
+   *     includes all of narrow.
+   */
+  private static boolean covers(List<String> broad, List<String> narrow,
+                                boolean caseSensitive) {
+    if (broad == null) {
+      return true;
+    }
+    if (narrow == null) {
+      return false;
+    }
+    return normalize(broad, caseSensitive)
+        .containsAll(normalize(narrow, caseSensitive));
+  }
+
+  private static List<String> normalize(List<String> values,
+                                        boolean caseSensitive) {
+    if (caseSensitive) {
+      return values;
+    }
+    List<String> lower = new ArrayList<String>(values.size());
+    for (String value : values) {
+      lower.add(value.toLowerCase(Locale.ROOT));
+    }
+    return lower;
+  }
+
+  /**
+   * @return true if every message containing the later trigger also
+   *     contains the earlier one.
+   */
+  private static boolean triggerCovers(String earlier, String later,
+                                       boolean caseSensitive) {
+    if ((earlier == null) || earlier.isEmpty()) {
+      return true;
+    }
+    if ((later == null) || later.isEmpty()) {
+      return false;
+    }
+    if (caseSensitive) {
+      return later.contains(earlier);
+    }
+    return later.toLowerCase(Locale.ROOT)
+        .contains(earlier.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Lint policy files from the command line; see the class comment.
+   */
+  public static void main(String[] args) {
+    System.exit(run(args, System.out, System.err));
+  }
+
+  static int run(String[] args, PrintStream out, PrintStream err) {
+    Cost failOn = Cost.LINEAR;
+    List<String> files = new ArrayList<String>();
+    for (String arg : args) {
+      if (arg.startsWith("--fail-on=")) {
+        try {
+          failOn = Cost.valueOf(arg.substring("--fail-on=".length())
+              .toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+          err.println("Unknown cost class in " + arg);
+          return 2;
+        }
+      } else {
+        files.add(arg);
+      }
+    }
+    if (files.isEmpty()) {
+      err.println("Usage: PolicyLinter [--fail-on=LINEAR|QUADRATIC|" +
+          "EXPONENTIAL] rules.json...");
+      return 2;
+    }
+    int status = 0;
+    for (String file : files) {
+      List<Finding> findings;
+      try {
+        findings = lintFile(file);
+      } catch (IOException e) {
+        err.println(file + ": " + e.getMessage());
+        status = 2;
+        continue;
+      }
+      for (Finding finding : findings) {
+        out.println(file + ": " + finding);
+        if ((finding.getCost().compareTo(failOn) >= 0) && (status == 0)) {
+          status = 1;
+        }
+      }
+    }
+    return status;
+  }
+}
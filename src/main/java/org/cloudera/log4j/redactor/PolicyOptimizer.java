@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.cloudera.log4j.redactor.StringRedactor.RedactionRule;
+
+/**
+ * Rewrites the message rules of a policy into rules that are cheaper to
+ * apply and redact every message exactly as the rules of the policy would
+ * (in every degraded mode of a budget, too). Two rewrites are done, both
+ * only when they can be proven not to change the result:
+ * <ul>
+ * <li>A rule is dropped when an earlier rule with the same search and a
+ * scope at least as broad has already replaced every match, and neither
+ * that rule's replacement nor those of the rules in between can make a new
+ * one: their replacements are plain text without any of the characters
+ * the search can match.</li>
+ * <li>Runs of consecutive rules that replace a plain literal with plain
+ * text in the same scope are fused into one rule that replaces all the
+ * literals in a single pass over the message, provided that no literal can
+ * hide an earlier one (by containing it, or by overlapping its start) and
+ * no replacement can make or break a later literal.</li>
+ * </ul>
+ * The rules of a policy as written are kept for everything else (such as
+ * {@link StringRedactor#getRules()}, the linter and the warm up).
+ */
+final class PolicyOptimizer {
+  private static final int ASCII = 128;
+
+  private PolicyOptimizer() {}
+
+  /**
+   * @param rules The message rules, in policy order
+   * @return The rules to apply instead.
+   */
+  static List<RedactionRule> optimize(List<RedactionRule> rules) {
+    return fuseLiterals(dropRedundant(rules));
+  }
+
+  private static List<RedactionRule> dropRedundant(List<RedactionRule> rules) {
+    List<RedactionRule> kept = new ArrayList<RedactionRule>();
+    for (RedactionRule rule : rules) {
+      if (!isRedundant(kept, rule)) {
+        kept.add(rule);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * @return true if the rule can never match after the earlier rules.
+   */
+  private static boolean isRedundant(List<RedactionRule> earlier,
+                                     RedactionRule rule) {
+    if (rule.isKeyValueRule() || !rule.isCaseSensitive() ||
+        hasExplicitTrigger(rule)) {
+      return false;
+    }
+    RegexTree.Node root = RegexTree.parse(Pattern.compile(rule.getSearch()));
+    if ((root == null) || RegexTree.canBeEmpty(root)) {
+      return false;
+    }
+    RegexTree.CharSet chars = RegexTree.allChars(root);
+    if (chars == null) {
+      return false;
+    }
+    // Going back from the rule, as long as the rules in between can't
+    // make a match
+    for (int i = earlier.size() - 1; i >= 0; i--) {
+      RedactionRule previous = earlier.get(i);
+      String replacement = previous.getLiteralReplacement();
+      if ((replacement == null) || replacement.isEmpty() ||
+          contains(chars, replacement)) {
+        return false;
+      }
+      if (PolicyLinter.shadows(previous, rule) &&
+          !hasExplicitTrigger(previous) &&
+          (previous.getMaxMatches() == Integer.MAX_VALUE)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasExplicitTrigger(RedactionRule rule) {
+    return (rule.getTrigger() != null) && !rule.getTrigger().isEmpty();
+  }
+
+  /**
+   * @return true if the text has a character of the set.
+   */
+  private static boolean contains(RegexTree.CharSet chars, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if ((c < ASCII) ? chars.ascii.get(c) : chars.nonAscii) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<RedactionRule> fuseLiterals(List<RedactionRule> rules) {
+    List<RedactionRule> fused = new ArrayList<RedactionRule>();
+    List<RedactionRule> run = new ArrayList<RedactionRule>();
+    List<String> literals = new ArrayList<String>();
+    List<String> replacements = new ArrayList<String>();
+    for (RedactionRule rule : rules) {
+      String literal = fusableLiteral(rule);
+      String replacement = rule.getLiteralReplacement();
+      if ((literal != null) && !run.isEmpty() &&
+          sameScope(run.get(0), rule) &&
+          fits(literals, replacements, literal, replacement)) {
+        run.add(rule);
+        literals.add(literal);
+        replacements.add(replacement);
+        continue;
+      }
+      flush(fused, run, literals, replacements);
+      if (literal != null) {
+        run.add(rule);
+        literals.add(literal);
+        replacements.add(replacement);
+      } else {
+        fused.add(rule);
+      }
+    }
+    flush(fused, run, literals, replacements);
+    return fused;
+  }
+
+  private static void flush(List<RedactionRule> fused, List<RedactionRule> run,
+                            List<String> literals, List<String> replacements) {
+    if (run.size() > 1) {
+      fused.add(RedactionRule.fuse(run,
+          new LiteralSet(literals, replacements)));
+    } else {
+      fused.addAll(run);
+    }
+    run.clear();
+    literals.clear();
+    replacements.clear();
+  }
+
+  /**
+   * @return The literal the rule replaces, if it is a plain ASCII literal
+   *     replaced with plain ASCII text every time it is found, else null.
+   */
+  private static String fusableLiteral(RedactionRule rule) {
+    String replacement = rule.getLiteralReplacement();
+    if (rule.isKeyValueRule() || !rule.isCaseSensitive() ||
+        hasExplicitTrigger(rule) || rule.isTerminal() || (rule.getMaxMatches() != Integer.MAX_VALUE) ||
+        (replacement == null) || !isAscii(replacement)) {
+      return null;
+    }
+    RegexTree.Node root = RegexTree.parse(Pattern.compile(rule.getSearch()));
+    String literal = (root == null) ? null : RegexTree.literal(root);
+    return ((literal != null) && isAscii(literal)) ? literal : null;
+  }
+
+  private static boolean isAscii(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) >= ASCII) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameScope(RedactionRule a, RedactionRule b) {
+    return same(a.getLoggers(), b.getLoggers()) &&
+        same(a.getLevels(), b.getLevels()) &&
+        a.getGroups().equals(b.getGroups());
+  }
+
+  private static boolean same(List<String> a, List<String> b) {
+    return (a == null) ? (b == null) : a.equals(b);
+  }
+
+  /**
+   * @return true if replacing the literal after those of the run gives the
+   *     same result as replacing them all in one pass.
+   */
+  private static boolean fits(List<String> literals, List<String> replacements,
+                              String literal, String replacement) {
+    for (int i = 0; i < literals.size(); i++) {
+      String earlier = literals.get(i);
+      // The single pass would find it before the earlier literal
+      if (literal.contains(earlier) || overlapsStart(literal, earlier)) {
+        return false;
+      }
+      // The earlier replacement could make or break an occurrence
+      String made = replacements.get(i);
+      if (literal.contains(made) || made.contains(literal) ||
+          overlapsStart(literal, made) || overlapsStart(made, literal)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if a proper suffix of a is a prefix of b.
+   */
+  private static boolean overlapsStart(String a, String b) {
+    for (int k = 1; (k < a.length()) && (k <= b.length()); k++) {
+      if (a.regionMatches(a.length() - k, b, 0, k)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Turns matched text into a stable token: the hex encoded HMAC-SHA256 of
+ * the text under the policy key, truncated to the configured length. The
+ * same text always gives the same token, so events stay correlatable
+ * without revealing the text.
+ * <p/>
+ * Computing an HMAC costs far more than the regex match that found the
+ * text, and hot logs repeat the same few values over and over, so recent
+ * text to token pairs are kept in a small cache. The cache is a fixed
+ * size table indexed by the hash of the text where a new pair simply
+ * overwrites whatever was in its slot: bounded, and lock free. Entries are
+ * immutable, so a reader sees either a complete old or new pair.
+ */
+final class Pseudonymizer {
+  static final String ALGORITHM = "HmacSHA256";
+  static final int MAX_TOKEN_LENGTH = 64;
+  private static final int CACHE_SIZE = 1024;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final SecretKeySpec key;
+  private final int tokenLength;
+  private final Entry[] cache = new Entry[CACHE_SIZE];
+  private final StripedPool<Mac> macPool;
+
+  private static final class Entry {
+    private final String text;
+    private final String token;
+
+    Entry(String text, String token) {
+      this.text = text;
+      this.token = token;
+    }
+  }
+
+  Pseudonymizer(String key, int tokenLength)
+      throws RedactionPolicyParseException {
+    this.key = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    this.tokenLength = tokenLength;
+    // Fail now rather than when logging if the JVM can't do this.
+    final Mac prototype = newMac(this.key);
+    macPool = new StripedPool<Mac>(new StripedPool.Factory<Mac>() {
+      @Override
+      public Mac create() {
+        try {
+          return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+          return newMacUnchecked(Pseudonymizer.this.key);
+        }
+      }
+    });
+  }
+
+  private static Mac newMac(SecretKeySpec key)
+      throws RedactionPolicyParseException {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new RedactionPolicyParseException("Cannot pseudonymize with " +
+          ALGORITHM, e);
+    }
+  }
+
+  private static Mac newMacUnchecked(SecretKeySpec key) {
+    try {
+      return newMac(key);
+    } catch (RedactionPolicyParseException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return The token for the given text.
+   */
+  String tokenFor(String text) {
+    int h = text.hashCode();
+    int slot = (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+    Entry entry = cache[slot];
+    if ((entry != null) && entry.text.equals(text)) {
+      return entry.token;
+    }
+    String token = computeToken(text);
+    cache[slot] = new Entry(text, token);
+    return token;
+  }
+
+  private String computeToken(String text) {
+    Mac mac = macPool.acquire();
+    byte[] digest;
+    try {
+      digest = mac.doFinal(text.getBytes(StandardCharsets.UTF_8));
+    } finally {
+      macPool.release(mac);
+    }
+    char[] token = new char[tokenLength];
+    for (int i = 0; i < tokenLength; i++) {
+      int b = digest[i >> 1];
+      token[i] = HEX[((i & 1) == 0) ? ((b >> 4) & 0xf) : (b & 0xf)];
+    }
+    return new String(token);
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An OutputStream that redacts what is written to it before passing it on,
+ * record by record. A record ends with the delimiter byte ('\n' by
+ * default), or when it reaches the maximum record size, so memory stays
+ * bounded whatever is written; in UTF-8, a record is cut before a
+ * character that doesn't fit, rather than in the middle of it. Rules only
+ * match within a record.
+ * <p/>
+ * Records are redacted as soon as they are complete. Records that arrive
+ * whole in one write() are redacted straight from the caller's array;
+ * only the pieces of records split across writes are buffered. flush()
+ * flushes the complete records, but keeps an incomplete one buffered, since
+ * passing on part of a record could leak text a rule would have redacted
+ * once the rest arrived; close() passes on whatever is left.
+ * <p/>
+ * The charset must encode the delimiter as that single byte and never use
+ * the byte inside other characters, as UTF-8, US-ASCII and the ISO-8859
+ * charsets do. For example, to redact what third party code prints:
+ * <pre>
+ *   System.setOut(new PrintStream(new RedactingOutputStream(
+ *       new FileOutputStream(FileDescriptor.out), redactor,
+ *       StandardCharsets.UTF_8), true, "UTF-8"));
+ * </pre>
+ */
+public class RedactingOutputStream extends FilterOutputStream {
+  /** The default maximum size of a record, in bytes. */
+  public static final int DEFAULT_MAX_RECORD_SIZE = 64 * 1024;
+
+  private static final int INITIAL_SIZE = 256;
+
+  private final StringRedactor redactor;
+  private final Charset charset;
+  private final boolean utf8;
+  private final byte delimiter;
+  private final int maxRecordSize;
+  private final RedactionBuffer redacted = new RedactionBuffer();
+  private byte[] pending = new byte[INITIAL_SIZE];
+  private int pendingLength;
+  private boolean closed;
+
+  /**
+   * Redact line by line, with lines of at most
+   * {@link #DEFAULT_MAX_RECORD_SIZE} bytes.
+   * @param out The stream to write the redacted text to
+   * @param redactor The policy
+   * @param charset The charset of the text
+   */
+  public RedactingOutputStream(OutputStream out, StringRedactor redactor,
+                               Charset charset) {
+    this(out, redactor, charset, (byte) '\n', DEFAULT_MAX_RECORD_SIZE);
+  }
+
+  /**
+   * @param out The stream to write the redacted text to
+   * @param redactor The policy
+   * @param charset The charset of the text
+   * @param delimiter The byte that ends a record
+   * @param maxRecordSize The size at which a record without a delimiter is
+   *     redacted and passed on anyway
+   */
+  public RedactingOutputStream(OutputStream out, StringRedactor redactor,
+                               Charset charset, byte delimiter,
+                               int maxRecordSize) {
+    super(out);
+    if (maxRecordSize < 1) {
+      throw new IllegalArgumentException("The maximum record size must be " +
+          "positive");
+    }
+    byte[] encoded = new String(new byte[]{delimiter}, charset).getBytes(charset);
+    if ((encoded.length != 1) || (encoded[0] != delimiter)) {
+      throw new IllegalArgumentException("The delimiter must be a single " +
+          "byte character in " + charset);
+    }
+    this.redactor = redactor;
+    this.charset = charset;
+    this.utf8 = StandardCharsets.UTF_8.equals(charset);
+    this.delimiter = delimiter;
+    this.maxRecordSize = maxRecordSize;
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    ensureOpen();
+    if ((byte) b == delimiter) {
+      emitPending();
+      out.write(b);
+      return;
+    }
+    if (pendingLength == pending.length) {
+      pending = Arrays.copyOf(pending, Math.min(pending.length * 2,
+          maxRecordSize));
+    }
+    pending[pendingLength++] = (byte) b;
+    if (pendingLength == maxRecordSize) {
+      emitCut();
+    }
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if ((off < 0) || (len < 0) || (len > b.length - off)) {
+      throw new IndexOutOfBoundsException();
+    }
+    final int end = off + len;
+    int start = off;
+    while (start < end) {
+      int limit = Math.min(end, start + maxRecordSize - pendingLength);
+      int i = start;
+      while ((i < limit) && (b[i] != delimiter)) {
+        i++;
+      }
+      if (i < limit) {
+        // A complete record, ending with a delimiter
+        if (pendingLength == 0) {
+          emit(b, start, i - start);
+        } else {
+          append(b, start, i - start);
+          emitPending();
+        }
+        out.write(delimiter);
+        start = i + 1;
+      } else if (pendingLength + (limit - start) == maxRecordSize) {
+        // A record cut at the maximum size; what follows the cut starts
+        // the next one
+        if (pendingLength == 0) {
+          int cut = utf8 ? cut(b, start, limit) : limit;
+          emit(b, start, cut - start);
+          start = cut;
+        } else {
+          append(b, start, limit - start);
+          emitCut();
+          start = limit;
+        }
+      } else {
+        // The start of a record that continues in a later write
+        append(b, start, limit - start);
+        start = limit;
+      }
+    }
+  }
+
+  /**
+   * Flush the records written so far. An incomplete last record stays
+   * buffered until it is completed or the stream is closed.
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    ensureOpen();
+    out.flush();
+  }
+
+  /**
+   * Redact and pass on an incomplete last record, then close the
+   * underlying stream.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      emitPending();
+      out.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private void append(byte[] b, int off, int len) {
+    if (pendingLength + len > pending.length) {
+      pending = Arrays.copyOf(pending, Math.min(maxRecordSize,
+          Math.max(pendingLength + len, pending.length * 2)));
+    }
+    System.arraycopy(b, off, pending, pendingLength, len);
+    pendingLength += len;
+  }
+
+  /**
+   * Pass on a full pending record, up to where it can be cut, and keep the
+   * rest as the start of the next one.
+   */
+  private void emitCut() throws IOException {
+    int cut = utf8 ? cut(pending, 0, pendingLength) : pendingLength;
+    emit(pending, 0, cut);
+    System.arraycopy(pending, cut, pending, 0, pendingLength - cut);
+    pendingLength -= cut;
+  }
+
+  /**
+   * Where to cut UTF-8 text that goes on after the end: before its last
+   * character if that one doesn't end by the end, so that no character is
+   * split in two, unless it is all there is.
+   * @return The end of the text to take.
+   */
+  static int cut(byte[] b, int off, int end) {
+    for (int i = end - 1; (i >= off) && (i >= end - 4); i--) {
+      int c = b[i] & 0xFF;
+      if (c < 0x80) {
+        return end;
+      }
+      if (c >= 0xC0) {
+        // The first byte of a character
+        int length = (c >= 0xF0) ? 4 : (c >= 0xE0) ? 3 : 2;
+        return ((i + length > end) && (i > off)) ? i : end;
+      }
+    }
+    return end;
+  }
+
+  private void emitPending() throws IOException {
+    if (pendingLength > 0) {
+      emit(pending, 0, pendingLength);
+      pendingLength = 0;
+    }
+  }
+
+  private void emit(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return;
+    }
+    if (redactor.redact(b, off, len, charset, null, null, redacted)) {
+      out.write(redacted.array(), 0, redacted.length());
+    } else {
+      out.write(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A Writer that redacts what is written to it before passing it on, record
+ * by record. A record ends with the delimiter ('\n' by default), or when it
+ * reaches the maximum record size, so memory stays bounded whatever is
+ * written. Rules only match within a record.
+ * <p/>
+ * Flushing and closing work like they do for {@link RedactingOutputStream}:
+ * flush() keeps an incomplete last record buffered, close() passes it on.
+ */
+public class RedactingWriter extends Writer {
+  /** The default maximum size of a record, in characters. */
+  public static final int DEFAULT_MAX_RECORD_SIZE = 64 * 1024;
+
+  private final Writer out;
+  private final StringRedactor redactor;
+  private final char delimiter;
+  private final int maxRecordSize;
+  private final StringBuilder pending = new StringBuilder();
+  private boolean closed;
+
+  /**
+   * Redact line by line, with lines of at most
+   * {@link #DEFAULT_MAX_RECORD_SIZE} characters.
+   * @param out The writer to write the redacted text to
+   * @param redactor The policy
+   */
+  public RedactingWriter(Writer out, StringRedactor redactor) {
+    this(out, redactor, '\n', DEFAULT_MAX_RECORD_SIZE);
+  }
+
+  /**
+   * @param out The writer to write the redacted text to
+   * @param redactor The policy
+   * @param delimiter The character that ends a record
+   * @param maxRecordSize The size at which a record without a delimiter is
+   *     redacted and passed on anyway
+   */
+  public RedactingWriter(Writer out, StringRedactor redactor, char delimiter,
+                         int maxRecordSize) {
+    super(out);
+    if (maxRecordSize < 1) {
+      throw new IllegalArgumentException("The maximum record size must be " +
+          "positive");
+    }
+    this.out = out;
+    this.redactor = redactor;
+    this.delimiter = delimiter;
+    this.maxRecordSize = maxRecordSize;
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    synchronized (lock) {
+      ensureOpen();
+      if ((char) c == delimiter) {
+        emitPending();
+        out.write(c);
+        return;
+      }
+      pending.append((char) c);
+      if (pending.length() == maxRecordSize) {
+        emitPending();
+      }
+    }
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    if ((off < 0) || (len < 0) || (len > cbuf.length - off)) {
+      throw new IndexOutOfBoundsException();
+    }
+    synchronized (lock) {
+      ensureOpen();
+      final int end = off + len;
+      int start = off;
+      while (start < end) {
+        int limit = Math.min(end, start + maxRecordSize - pending.length());
+        int i = start;
+        while ((i < limit) && (cbuf[i] != delimiter)) {
+          i++;
+        }
+        boolean complete = (i < limit) ||
+            (pending.length() + (limit - start) == maxRecordSize);
+        if (!complete) {
+          pending.append(cbuf, start, limit - start);
+        } else if (pending.length() == 0) {
+          emit(new String(cbuf, start, i - start));
+        } else {
+          pending.append(cbuf, start, i - start);
+          emitPending();
+        }
+        if (i < limit) {
+          out.write(delimiter);
+          start = i + 1;
+        } else {
+          start = limit;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    if ((off < 0) || (len < 0) || (len > str.length() - off)) {
+      throw new IndexOutOfBoundsException();
+    }
+    synchronized (lock) {
+      ensureOpen();
+      final int end = off + len;
+      int start = off;
+      while (start < end) {
+        int limit = Math.min(end, start + maxRecordSize - pending.length());
+        // Not indexOf(), which would look past the limit, over and over
+        // for a long write without a delimiter
+        int i = start;
+        while ((i < limit) && (str.charAt(i) != delimiter)) {
+          i++;
+        }
+        boolean complete = (i < limit) ||
+            (pending.length() + (limit - start) == maxRecordSize);
+        if (!complete) {
+          pending.append(str, start, limit);
+        } else if (pending.length() == 0) {
+          emit(str.substring(start, i));
+        } else {
+          pending.append(str, start, i);
+          emitPending();
+        }
+        if (i < limit) {
+          out.write(delimiter);
+          start = i + 1;
+        } else {
+          start = limit;
+        }
+      }
+    }
+  }
+
+  /**
+   * Flush the records written so far. An incomplete last record stays
+   * buffered until it is completed or the writer is closed.
+   */
+  @Override
+  public void flush() throws IOException {
+    synchronized (lock) {
+      ensureOpen();
+      out.flush();
+    }
+  }
+
+  /**
+   * Redact and pass on an incomplete last record, then close the
+   * underlying writer.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        emitPending();
+        out.flush();
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private void emitPending() throws IOException {
+    if (pending.length() > 0) {
+      emit(pending.toString());
+      pending.setLength(0);
+    }
+  }
+
+  private void emit(String record) throws IOException {
+    if (!record.isEmpty()) {
+      out.write(redactor.redact(record));
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The "budget" section of a policy: a limit on the CPU time redaction may
+ * take, and what to do instead when it is exceeded, such as during a storm
+ * of log messages.
+ * <p/>
+ * The time spent redacting is added up per window (a second by default)
+ * in striped counters, which cost next to nothing on the logging threads.
+ * The first message after the end of a window closes it: if the window
+ * went over the budget, the redactor switches to the degraded mode for the
+ * next one. While degraded, the cost of the messages is estimated from the
+ * average cost of a message in the last normal window, and the redactor
+ * switches back once a window's estimate fits the budget again.
+ * <p/>
+ * The degraded modes are:
+ * <ul>
+ * <li>"mask": a message that any rule in scope is triggered by (a rule
+ * without a trigger is triggered by anything) is replaced with the mask
+ * text, without running any regular expression;</li>
+ * <li>"triggersOnly": only the rules with a trigger, given or derived from
+ * their search, are applied, so the rules that scan every message are
+ * skipped and what they would have redacted is left as is;</li>
+ * <li>"dropBelow": messages below "level" are replaced with the mask text,
+ * the others are redacted as usual.</li>
+ * </ul>
+ * The getters are meant for metrics.
+ */
+public final class RedactionBudget {
+  enum Mode {
+    MASK, TRIGGERS_ONLY, DROP_BELOW
+  }
+
+  private static final String[] LEVELS = {
+      "TRACE", "DEBUG", "INFO", "WARN", "ERROR", "FATAL"
+  };
+
+  private long nanosPerSecond;
+  private double cpuShare;
+  private String degradedMode = "mask";
+  private String level;
+  private String mask = "REDACTED";
+  private long windowMillis = 1000;
+
+  private Mode mode;
+  private int levelRank;
+  private long windowNanos;
+  private final LongAdder spent = new LongAdder();
+  private final LongAdder messages = new LongAdder();
+  private final AtomicLong windowEnd = new AtomicLong();
+  private volatile boolean degraded;
+  private volatile double nanosPerMessage;
+  private final AtomicLong degradations = new AtomicLong();
+  private final AtomicLong recoveries = new AtomicLong();
+  private final LongAdder degradedMessages = new LongAdder();
+
+  public void setNanosPerSecond(long nanosPerSecond) {
+    this.nanosPerSecond = nanosPerSecond;
+  }
+
+  public void setCpuShare(double cpuShare) {
+    this.cpuShare = cpuShare;
+  }
+
+  public void setDegradedMode(String degradedMode) {
+    this.degradedMode = degradedMode;
+  }
+
+  public void setLevel(String level) {
+    this.level = level;
+  }
+
+  public void setMask(String mask) {
+    this.mask = mask;
+  }
+
+  public void setWindowMillis(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  void validate() throws RedactionPolicyParseException {
+    if ((nanosPerSecond > 0) == (cpuShare > 0)) {
+      throw new RedactionPolicyParseException("A budget needs either a " +
+          "positive nanosPerSecond or a positive cpuShare.");
+    }
+    if (cpuShare > 0) {
+      if (cpuShare > 1) {
+        throw new RedactionPolicyParseException("The cpuShare of a budget " +
+            "cannot be more than 1.");
+      }
+      nanosPerSecond = (long) (cpuShare *
+          Runtime.getRuntime().availableProcessors() * 1e9);
+    }
+    if (windowMillis < 1) {
+      throw new RedactionPolicyParseException("The windowMillis of a " +
+          "budget must be positive.");
+    }
+    windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    // System.nanoTime() can be anything, negative too: the first window
+    // starts now
+    windowEnd.set(System.nanoTime() + windowNanos);
+    if ("mask".equals(degradedMode)) {
+      mode = Mode.MASK;
+    } else if ("triggersOnly".equals(degradedMode)) {
+      mode = Mode.TRIGGERS_ONLY;
+    } else if ("dropBelow".equals(degradedMode)) {
+      mode = Mode.DROP_BELOW;
+      levelRank = rank(level);
+      if (levelRank < 0) {
+        throw new RedactionPolicyParseException("The dropBelow mode needs " +
+            "a level, one of TRACE, DEBUG, INFO, WARN, ERROR or FATAL.");
+      }
+    } else {
+      throw new RedactionPolicyParseException("Unknown degraded mode " +
+          degradedMode + ", expected mask, triggersOnly or dropBelow.");
+    }
+    if (mask == null) {
+      throw new RedactionPolicyParseException("The mask of a budget cannot " +
+          "be null.");
+    }
+  }
+
+  /**
+   * @return The position of the level among the log4j levels, or -1 if
+   *     it isn't one of them.
+   */
+  private static int rank(String level) {
+    if (level != null) {
+      String upper = level.toUpperCase(Locale.ROOT);
+      for (int i = 0; i < LEVELS.length; i++) {
+        if (LEVELS[i].equals(upper)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Account for a message about to be redacted, closing the current window
+   * if it is over.
+   * @param now The current System.nanoTime()
+   * @return true if the message should be redacted in the degraded mode.
+   */
+  boolean enter(long now) {
+    long end = windowEnd.get();
+    if ((now - end >= 0) && windowEnd.compareAndSet(end, now + windowNanos)) {
+      closeWindow(now - end + windowNanos);
+    }
+    messages.increment();
+    boolean degradedNow = degraded;
+    if (degradedNow) {
+      degradedMessages.increment();
+    }
+    return degradedNow;
+  }
+
+  /**
+   * Account for the time a redaction took.
+   */
+  void spent(long nanos) {
+    spent.add(nanos);
+  }
+
+  private void closeWindow(long elapsed) {
+    long used = spent.sumThenReset();
+    long count = messages.sumThenReset();
+    double allowed = nanosPerSecond * (elapsed / 1e9);
+    if (!degraded) {
+      if (count > 0) {
+        nanosPerMessage = (double) used / count;
+      }
+      if (used > allowed) {
+        degraded = true;
+        degradations.incrementAndGet();
+      }
+    } else if (count * nanosPerMessage <= allowed) {
+      degraded = false;
+      recoveries.incrementAndGet();
+    }
+  }
+
+  Mode getMode() {
+    return mode;
+  }
+
+  String getMask() {
+    return mask;
+  }
+
+  /**
+   * @return true if a message logged at this level is below the level of
+   *     the dropBelow mode. Unknown levels aren't.
+   */
+  boolean isBelowLevel(String level) {
+    int rank = rank(level);
+    return (rank >= 0) && (rank < levelRank);
+  }
+
+  /**
+   * @return The budget, in nanoseconds of redaction per second.
+   */
+  public long getNanosPerSecond() {
+    return nanosPerSecond;
+  }
+
+  /**
+   * @return true if messages are currently redacted in the degraded mode.
+   */
+  public boolean isDegraded() {
+    return degraded;
+  }
+
+  /**
+   * @return How many times the budget was exceeded, switching to the
+   *     degraded mode.
+   */
+  public long getDegradations() {
+    return degradations.get();
+  }
+
+  /**
+   * @return How many times the redactor switched back to normal.
+   */
+  public long getRecoveries() {
+    return recoveries.get();
+  }
+
+  /**
+   * @return The number of messages redacted in the degraded mode.
+   */
+  public long getDegradedMessages() {
+    return degradedMessages.sum();
+  }
+}
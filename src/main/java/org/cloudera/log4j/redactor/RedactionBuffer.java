@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.Arrays;
+
+/**
+ * Reusable holder for the result of redacting encoded text with
+ * {@link StringRedactor#redact(byte[], int, int, java.nio.charset.Charset,
+ * String, String, RedactionBuffer)}. It owns the scratch space used while
+ * the rules are applied, so that redacting with the same buffer over and
+ * over doesn't allocate once the buffers have grown to the size of the
+ * messages. Not thread safe: use one per thread.
+ */
+public final class RedactionBuffer {
+  private static final int INITIAL_SIZE = 256;
+
+  private byte[] result = new byte[INITIAL_SIZE];
+  private byte[] scratch = new byte[INITIAL_SIZE];
+  private int length;
+  final AsciiSequence view = new AsciiSequence();
+
+  /**
+   * @return The array holding the redacted bytes, starting at index 0.
+   *     Only valid until the buffer is used again.
+   */
+  public byte[] array() {
+    return result;
+  }
+
+  /**
+   * @return The number of redacted bytes in {@link #array()}.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * @return A copy of the redacted bytes.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(result, length);
+  }
+
+  /**
+   * Start writing into the scratch array, which becomes the result when
+   * the write is committed.
+   */
+  byte[] beginWrite(int expected) {
+    if (scratch.length < expected) {
+      scratch = new byte[Math.max(expected, scratch.length * 2)];
+    }
+    return scratch;
+  }
+
+  /**
+   * Make room in the array being written for count more bytes at pos.
+   */
+  byte[] ensureCapacity(int pos, int count) {
+    if (pos + count > scratch.length) {
+      scratch = Arrays.copyOf(scratch, Math.max(pos + count, scratch.length * 2));
+    }
+    return scratch;
+  }
+
+  /**
+   * The scratch array holds the outcome of the last write: swap it with the
+   * result array.
+   */
+  void commitWrite(int newLength) {
+    byte[] tmp = result;
+    result = scratch;
+    scratch = tmp;
+    length = newLength;
+  }
+
+  /**
+   * Replace the result with the given bytes.
+   */
+  void set(byte[] bytes, int offset, int count) {
+    if (result.length < count) {
+      result = new byte[count];
+    }
+    System.arraycopy(bytes, offset, result, 0, count);
+    length = count;
+  }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A redaction service for all the processes of a host: it loads a policy
+ * once, receives log records over TCP from any number of processes, Java or
+ * not, redacts them and writes them to one sink, such as a file or a
+ * socket to forward them to.
+ * <p/>
+ * Records are UTF-8 text, framed either as lines ({@link Framing#LINES}:
+ * each record ends with '\n', which is what log4j2's SocketAppender sends
+ * with a PatternLayout ending in %n, and what any program can write), or
+ * with a length prefix ({@link Framing#LENGTH}: a 4 byte big endian length
+ * followed by that many bytes, for records with line breaks in them such
+ * as stack traces). The redacted records are written to the sink with the
+ * same framing. A line longer than the maximum record size is cut, as
+ * {@link RedactingOutputStream} does; a longer length prefixed record is a
+ * protocol error that closes its connection.
+ * <p/>
+ * One thread reads from all the connections with a Selector and hands what
+ * it read, in batches of records, to a pool of workers that redact them.
+ * One more thread writes the redacted batches to the sink in the order
+ * they were read, so the records of a connection keep their order. When
+ * the workers fall behind, the reading thread waits for them, which pushes
+ * back on the senders through TCP.
+ * <p/>
+ * From the command line:
+ * <pre>
+ *   java -cp logredactor.jar org.cloudera.log4j.redactor.RedactionServer \
+ *       --port=4560 --out=/var/log/redacted.log rules.json
+ * </pre>
+ */
+public class RedactionServer implements Closeable {
+  /** How records are delimited, on the way in and out. */
+  public enum Framing {
+    /** Each record ends with '\n'. */
+    LINES,
+    /** Each record is preceded by its length, as a 4 byte big endian int. */
+    LENGTH
+  }
+
+  /** The port log4j's socket appenders send to by default. */
+  public static final int DEFAULT_PORT = 4560;
+  /** The default maximum size of a record, in bytes. */
+  public static final int DEFAULT_MAX_RECORD_SIZE = 64 * 1024;
+
+  private static final int LENGTH_PREFIX = 4;
+  // A batch is handed to the workers once it has this many records or bytes
+  private static final int BATCH_RECORDS = 256;
+  private static final int BATCH_BYTES = 256 * 1024;
+
+  // What the reading thread queues once it's done
+  private static final Future<ByteArrayOutputStream> END =
+      new FutureTask<ByteArrayOutputStream>(new Callable<ByteArrayOutputStream>() {
+        @Override
+        public ByteArrayOutputStream call() {
+          return null;
+        }
+      });
+
+  private final StringRedactor redactor;
+  private final Framing framing;
+  private final int maxRecordSize;
+  private final OutputStream sink;
+  private final PrintStream err;
+  private final ServerSocketChannel server;
+  private final Selector selector;
+  private final ExecutorService workers;
+  // The batches being redacted, in the order they were read
+  private final BlockingQueue<Future<ByteArrayOutputStream>> inFlight;
+  private final Thread reader;
+  private final Thread writer;
+  // The batch being filled, only touched by the reading thread
+  private Batch batch = new Batch();
+  private volatile boolean closed;
+
+  /**
+   * What was read from a connection and isn't a record yet.
+   */
+  private static final class Connection {
+    final ByteBuffer in;
+    // How much of it was already looked at for the end of a line
+    int scanned;
+
+    Connection(int capacity) {
+      in = ByteBuffer.allocate(capacity);
+    }
+  }
+
+  /**
+   * Records read, one after the other in one array.
+   */
+  private static final class Batch {
+    private byte[] data = new byte[4096];
+    private int[] ends = new int[BATCH_RECORDS];
+    private int count;
+
+    void add(byte[] src, int offset, int length) {
+      int start = (count == 0) ? 0 : ends[count - 1];
+      if (start + length > data.length) {
+        byte[] grown = new byte[Math.max(start + length, data.length * 2)];
+        System.arraycopy(data, 0, grown, 0, start);
+        data = grown;
+      }
+      System.arraycopy(src, offset, data, start, length);
+      ends[count++] = start + length;
+    }
+
+    boolean isFull() {
+      return (count == BATCH_RECORDS) || (ends[count - 1] >= BATCH_BYTES);
+    }
+  }
+
+  /**
+   * Bind the server socket; {@link #start()} starts serving.
+   * @param redactor The policy
+   * @param address The address to listen on, such as 127.0.0.1:4560
+   * @param framing How records are delimited
+   * @param workers The number of threads that redact
+   * @param maxRecordSize The size of the largest record, in bytes
+   * @param sink Where the redacted records go. It is only written by one
+   *     thread, and is flushed whenever the records read so far are
+   *     written, but it isn't closed.
+   * @throws IOException if the address can't be bound.
+   */
+  public RedactionServer(StringRedactor redactor, InetSocketAddress address,
+                         Framing framing, int workers, int maxRecordSize,
+                         OutputStream sink) throws IOException {
+    this(redactor, address, framing, workers, maxRecordSize, sink,
+        System.err);
+  }
+
+  /**
+   * Bind the server socket; {@link #start()} starts serving.
+   * @param err Where the server reports the connections it closes, the
+   *     records it drops and the failures of the sink
+   * @see #RedactionServer(StringRedactor, InetSocketAddress, Framing, int,
+   *     int, OutputStream)
+   */
+  public RedactionServer(StringRedactor redactor, InetSocketAddress address,
+                         Framing framing, int workers, int maxRecordSize,
+                         OutputStream sink, PrintStream err)
+      throws IOException {
+    if (workers < 1) {
+      throw new IllegalArgumentException("The number of workers must be " +
+          "positive");
+    }
+    if (maxRecordSize < 1) {
+      throw new IllegalArgumentException("The maximum record size must be " +
+          "positive");
+    }
+    this.redactor = redactor;
+    this.framing = framing;
+    this.maxRecordSize = maxRecordSize;
+    this.sink = sink;
+    this.err = err;
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    try {
+      server.bind(address);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      server.close();
+      selector.close();
+      throw e;
+    }
+    this.workers = Executors.newFixedThreadPool(workers, daemons("worker"));
+    inFlight = new ArrayBlockingQueue<Future<ByteArrayOutputStream>>(
+        workers * 2);
+    reader = daemons("reader").newThread(new Runnable() {
+      @Override
+      public void run() {
+        readAll();
+      }
+    });
+    writer = daemons("writer").newThread(new Runnable() {
+      @Override
+      public void run() {
+        writeAll();
+      }
+    });
+  }
+
+  private static ThreadFactory daemons(final String name) {
+    return new ThreadFactory() {
+      private int count;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "RedactionServer-" + name + "-" +
+            count++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Start accepting connections.
+   */
+  public void start() {
+    writer.start();
+    reader.start();
+  }
+
+  /**
+   * @return The port the server listens on.
+   */
+  public int getPort() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * Stop accepting connections and close them, then wait until what was
+   * read from them is redacted and written to the sink. Incomplete lines
+   * are redacted and written too, incomplete length prefixed records are
+   * dropped.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    selector.wakeup();
+    try {
+      reader.join();
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      workers.shutdown();
+      server.close();
+      selector.close();
+    }
+  }
+
+  private void readAll() {
+    try {
+      while (!closed) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isReadable()) {
+            read(key);
+          }
+        }
+        submit();
+      }
+      for (SelectionKey key : selector.keys()) {
+        if (key.channel() instanceof SocketChannel) {
+          // What the senders managed to send
+          frames(key, true);
+          closeConnection(key);
+        }
+      }
+      submit();
+    } catch (IOException e) {
+      err.println("RedactionServer stopped: " + e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      closed = true;
+      try {
+        server.close();
+      } catch (IOException e) {
+        // Nothing more to do
+      }
+      endQueue();
+    }
+  }
+
+  private void endQueue() {
+    while (true) {
+      try {
+        inFlight.put(END);
+        return;
+      } catch (InterruptedException e) {
+        // The writer must get it, or close() waits forever
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = server.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    int capacity = (framing == Framing.LENGTH)
+        ? maxRecordSize + LENGTH_PREFIX : maxRecordSize;
+    channel.register(selector, SelectionKey.OP_READ,
+        new Connection(capacity));
+  }
+
+  private void read(SelectionKey key) throws InterruptedException {
+    SocketChannel channel = (SocketChannel) key.channel();
+    ByteBuffer in = ((Connection) key.attachment()).in;
+    int n;
+    try {
+      n = channel.read(in);
+    } catch (IOException e) {
+      n = -1;
+    }
+    if (!frames(key, n < 0) || (n < 0)) {
+      closeConnection(key);
+    }
+  }
+
+  private static void closeConnection(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      // Nothing more to do
+    }
+  }
+
+  /**
+   * Add the complete records in the buffer of a connection to the batch.
+   * @param end true if nothing more is coming, so that an incomplete line
+   *     is a record too
+   * @return false if the connection broke the protocol.
+   */
+  private boolean frames(SelectionKey key, boolean end)
+      throws InterruptedException {
+    Connection connection = (Connection) key.attachment();
+    ByteBuffer in = connection.in;
+    byte[] a = in.array();
+    int start = 0;
+    int limit = in.position();
+    boolean ok = true;
+    if (framing == Framing.LINES) {
+      // What is left from the last read has no '\n', don't look at it again
+      for (int i = connection.scanned; i < limit; i++) {
+        if (a[i] == '\n') {
+          add(a, start, i - start);
+          start = i + 1;
+        }
+      }
+      if (limit - start == maxRecordSize) {
+        // Not in the middle of a character: the rest starts the next one
+        int cut = RedactingOutputStream.cut(a, start, limit);
+        add(a, start, cut - start);
+        start = cut;
+      }
+      if (end && (limit > start)) {
+        add(a, start, limit - start);
+        start = limit;
+      }
+    } else {
+      while (limit - start >= LENGTH_PREFIX) {
+        int length = ((a[start] & 0xFF) << 24) |
+            ((a[start + 1] & 0xFF) << 16) | ((a[start + 2] & 0xFF) << 8) |
+            (a[start + 3] & 0xFF);
+        if ((length < 0) || (length > maxRecordSize)) {
+          err.println("RedactionServer: closing " + key.channel() +
+              ", which sent a record of " + length + " bytes");
+          ok = false;
+          break;
+        }
+        if (limit - start - LENGTH_PREFIX < length) {
+          break;
+        }
+        add(a, start + LENGTH_PREFIX, length);
+        start += LENGTH_PREFIX + length;
+      }
+    }
+    in.flip();
+    in.position(start);
+    in.compact();
+    connection.scanned = limit - start;
+    return ok;
+  }
+
+  private void add(byte[] src, int offset, int length)
+      throws InterruptedException {
+    batch.add(src, offset, length);
+    if (batch.isFull()) {
+      submit();
+    }
+  }
+
+  /**
+   * Hand the batch to the workers, waiting for room in the queue.
+   */
+  private void submit() throws InterruptedException {
+    if (batch.count == 0) {
+      return;
+    }
+    final Batch full = batch;
+    batch = new Batch();
+    inFlight.put(workers.submit(new Callable<ByteArrayOutputStream>() {
+      @Override
+      public ByteArrayOutputStream call() throws IOException {
+        return redact(full);
+      }
+    }));
+  }
+
+  private ByteArrayOutputStream redact(Batch records) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(
+        records.ends[records.count - 1] + records.count * LENGTH_PREFIX);
+    RedactionBuffer redacted = new RedactionBuffer();
+    int start = 0;
+    for (int i = 0; i < records.count; i++) {
+      int end = records.ends[i];
+      if (redactor.redact(records.data, start, end - start,
+          StandardCharsets.UTF_8, null, null, redacted)) {
+        frame(out, redacted.array(), 0, redacted.length());
+      } else {
+        frame(out, records.data, start, end - start);
+      }
+      start = end;
+    }
+    return out;
+  }
+
+  private void frame(ByteArrayOutputStream out, byte[] b, int offset,
+                     int length) throws IOException {
+    if (framing == Framing.LENGTH) {
+      out.write(length >>> 24);
+      out.write(length >>> 16);
+      out.write(length >>> 8);
+      out.write(length);
+      out.write(b, offset, length);
+    } else {
+      out.write(b, offset, length);
+      out.write('\n');
+    }
+  }
+
+  private void writeAll() {
+    boolean failed = false;
+    while (true) {
+      Future<ByteArrayOutputStream> next;
+      try {
+        next = inFlight.take();
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (next == END) {
+        break;
+      }
+      try {
+        ByteArrayOutputStream records = getUninterruptibly(next);
+        if (!failed) {
+          records.writeTo(sink);
+          if (inFlight.isEmpty()) {
+            sink.flush();
+          }
+        }
+      } catch (ExecutionException e) {
+        // The batch is dropped rather than written unredacted
+        err.println("RedactionServer: dropping records that " +
+            "couldn't be redacted: " + e.getCause());
+      } catch (IOException e) {
+        // Keep taking the batches, so that the reader isn't stuck
+        err.println("RedactionServer: stopping, the sink failed: " + e);
+        failed = true;
+        closed = true;
+        selector.wakeup();
+      }
+    }
+    try {
+      sink.flush();
+    } catch (IOException e) {
+      err.println("RedactionServer: the sink failed: " + e);
+    }
+  }
+
+  private static <T> T getUninterruptibly(Future<T> future)
+      throws ExecutionException {
+    while (true) {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        // Nothing can be dropped
+      }
+    }
+  }
+
+  /**
+   * Run a server from the command line; see the class comment.
+   */
+  public static void main(String[] args) throws Exception {
+    int status = run(args, System.err);
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+
+  static int run(String[] args, PrintStream err) throws Exception {
+    String bind = "127.0.0.1";
+    int port = DEFAULT_PORT;
+    Framing framing = Framing.LINES;
+    int workers = Runtime.getRuntime().availableProcessors();
+    int maxRecordSize = DEFAULT_MAX_RECORD_SIZE;
+    String outFile = null;
+    String forward = null;
+    String rules = null;
+    try {
+      for (String arg : args) {
+        String value = arg.substring(arg.indexOf('=') + 1);
+        if (arg.startsWith("--bind=")) {
+          bind = value;
+        } else if (arg.startsWith("--port=")) {
+          port = Integer.parseInt(value);
+        } else if (arg.startsWith("--framing=")) {
+          framing = Framing.valueOf(value.toUpperCase(Locale.ROOT));
+        } else if (arg.startsWith("--workers=")) {
+          workers = Integer.parseInt(value);
+        } else if (arg.startsWith("--max-record-size=")) {
+          maxRecordSize = Integer.parseInt(value);
+        } else if (arg.startsWith("--out=")) {
+          outFile = value;
+        } else if (arg.startsWith("--forward=")) {
+          forward = value;
+        } else if (!arg.startsWith("--") && (rules == null)) {
+          rules = arg;
+        } else {
+          throw new IllegalArgumentException(arg);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      err.println("Bad argument: " + e.getMessage());
+      rules = null;
+    }
+    if ((rules == null) || ((outFile != null) && (forward != null))) {
+      err.println("Usage: RedactionServer [--bind=ADDRESS] [--port=PORT] " +
+          "[--framing=LINES|LENGTH] [--workers=N] [--max-record-size=BYTES] " +
+          "[--out=FILE | --forward=HOST:PORT] rules.json");
+      return 2;
+    }
+    StringRedactor redactor = StringRedactor.createFromJsonFile(rules);
+    final OutputStream sink;
+    if (outFile != null) {
+      sink = new FileOutputStream(outFile, true);
+    } else if (forward != null) {
+      int colon = forward.lastIndexOf(':');
+      Socket socket = new Socket(forward.substring(0, colon),
+          Integer.parseInt(forward.substring(colon + 1)));
+      sink = socket.getOutputStream();
+    } else {
+      sink = System.out;
+    }
+    final RedactionServer server = new RedactionServer(redactor,
+        new InetSocketAddress(bind, port), framing, workers, maxRecordSize,
+        new BufferedOutputStream(sink, 64 * 1024), err);
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          server.close();
+          sink.close();
+        } catch (IOException e) {
+          // Exiting anyway
+        }
+      }
+    });
+    server.start();
+    server.reader.join();
+    // The server only stops by itself when the sink fails
+    return 1;
+  }
+}
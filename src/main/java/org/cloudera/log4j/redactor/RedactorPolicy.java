@@ -24,6 +24,10 @@ import java.io.IOException;
  * <code>RewritePolicy</code> implementation that applies the redaction
  * rules defined in the configuration of the <code>RedactorPolicy</code> in
  * the Log4j Properties configuration file.
+ * <p/>
+ * With a policyDirectory and a selectorKey, the policy of each event is
+ * chosen by the value of the selectorKey in its MDC, such as a tenant id:
+ * see {@link PolicyCache}. The rules file is then the default policy.
  *
  * @see RedactorAppender for the redaction rules definition and syntax.
  */
@@ -32,6 +36,10 @@ public class RedactorPolicy implements RewritePolicy, OptionHandler {
   // 'rules' is really the name of the file containing the rules
   private String rules;
   private StringRedactor redactor;
+  private String policyDirectory;
+  private String selectorKey;
+  private int maxPolicies = PolicyCache.DEFAULT_MAX_POLICIES;
+  private PolicyCache policies;
 
   /**
    * Log4j configurator calls this method with the value found in the
@@ -41,6 +49,30 @@ public class RedactorPolicy implements RewritePolicy, OptionHandler {
     this.rules = rules;
   }
 
+  /**
+   * Log4j configurator calls this method with the value found in the
+   * config file.
+   */
+  public void setPolicyDirectory(String policyDirectory) {
+    this.policyDirectory = policyDirectory;
+  }
+
+  /**
+   * Log4j configurator calls this method with the value found in the
+   * config file.
+   */
+  public void setSelectorKey(String selectorKey) {
+    this.selectorKey = selectorKey;
+  }
+
+  /**
+   * Log4j configurator calls this method with the value found in the
+   * config file.
+   */
+  public void setMaxPolicies(int maxPolicies) {
+    this.maxPolicies = maxPolicies;
+  }
+
   /**
    * Called after all options are read in (in our case this is only setRules())
    * so that they can be acted on at one time.  The rules are a full path to
@@ -54,6 +86,13 @@ public class RedactorPolicy implements RewritePolicy, OptionHandler {
       // Changing the exception, since activateOptions can't throw an IOException
       throw new IllegalArgumentException("Problem with rules file " + rules, e);
     }
+    if ((policyDirectory != null) != (selectorKey != null)) {
+      throw new IllegalArgumentException("A policyDirectory needs a " +
+          "selectorKey and vice versa");
+    }
+    if (policyDirectory != null) {
+      policies = new PolicyCache(policyDirectory, maxPolicies, redactor);
+    }
   }
 
   /**
@@ -66,8 +105,14 @@ public class RedactorPolicy implements RewritePolicy, OptionHandler {
     if (source != null) {
       Object msg = source.getMessage();
       if (msg != null) {
+        StringRedactor redactor = this.redactor;
+        if (policies != null) {
+          Object tenant = source.getMDC(selectorKey);
+          redactor = policies.get((tenant == null) ? null : tenant.toString());
+        }
         String original = msg.toString();
-        String redacted = redactor.redact(original);
+        String redacted = redactor.redact(original, source.getLoggerName(),
+            (source.getLevel() == null) ? null : source.getLevel().toString());
         if (!redacted.equals(original)) {
           Throwable throwable = (source.getThrowableInformation() != null)
               ? source.getThrowableInformation().getThrowable()
@@ -0,0 +1,950 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The structure of a regular expression, as far as we need it to reason
+ * about what a rule's search can match and how expensive it is. Only
+ * patterns that already compiled are parsed, so the parser doesn't have to
+ * report syntax errors; it aims to follow java.util.regex closely enough
+ * for the shape of the expression, and over-approximates character sets
+ * where it doesn't. Syntax it doesn't know, such as an escape it doesn't
+ * handle, or the Unicode classes and case folding of "(?U)" and "(?u)",
+ * fails the parse rather than being guessed at.
+ */
+final class RegexTree {
+  /** The maximum of a repetition without an upper bound. */
+  static final int UNBOUNDED = -1;
+
+  private static final int ASCII = 128;
+
+  /** A part of the expression, with its extent in the source. */
+  abstract static class Node {
+    int start;
+    int end;
+  }
+
+  /** A single literal character. */
+  static final class Literal extends Node {
+    final char c;
+    final boolean caseInsensitive;
+
+    Literal(char c, boolean caseInsensitive) {
+      this.c = c;
+      this.caseInsensitive = caseInsensitive;
+    }
+  }
+
+  /**
+   * A set of characters: a class, a predefined class such as \d, or '.'.
+   * Characters outside ASCII are not tracked individually.
+   */
+  static final class CharSet extends Node {
+    final BitSet ascii;
+    final boolean nonAscii;
+    // True for '.', which matches (nearly) anything
+    final boolean wildcard;
+
+    CharSet(BitSet ascii, boolean nonAscii, boolean wildcard) {
+      this.ascii = ascii;
+      this.nonAscii = nonAscii;
+      this.wildcard = wildcard;
+    }
+
+    boolean intersects(CharSet other) {
+      return (nonAscii && other.nonAscii) || ascii.intersects(other.ascii);
+    }
+  }
+
+  /** Nodes matched one after the other. */
+  static final class Sequence extends Node {
+    final List<Node> items;
+
+    Sequence(List<Node> items) {
+      this.items = items;
+    }
+  }
+
+  /** Alternatives separated by '|'. */
+  static final class Alternation extends Node {
+    final List<Node> alternatives;
+
+    Alternation(List<Node> alternatives) {
+      this.alternatives = alternatives;
+    }
+  }
+
+  /** A capturing, non-capturing or atomic group. */
+  static final class Group extends Node {
+    final Node body;
+    final boolean atomic;
+
+    Group(Node body, boolean atomic) {
+      this.body = body;
+      this.atomic = atomic;
+    }
+  }
+
+  /** A quantified node such as "a*", "(ab)+" or "\d{1,3}". */
+  static final class Repeat extends Node {
+    final Node body;
+    final int min;
+    final int max;
+    final boolean possessive;
+
+    Repeat(Node body, int min, int max, boolean possessive) {
+      this.body = body;
+      this.min = min;
+      this.max = max;
+      this.possessive = possessive;
+    }
+
+    boolean isUnbounded() {
+      return max == UNBOUNDED;
+    }
+  }
+
+  /** A zero width assertion: anchors, boundaries and lookarounds. */
+  static final class Assertion extends Node {
+  }
+
+  /** A back reference such as "\1" or "\k<name>". */
+  static final class BackReference extends Node {
+  }
+
+  private final String regex;
+  private int pos;
+  private boolean caseInsensitive;
+  private boolean dotAll;
+  private boolean unixLines;
+
+  private RegexTree(String regex, int flags) {
+    this.regex = regex;
+    this.caseInsensitive = (flags & Pattern.CASE_INSENSITIVE) != 0;
+    this.dotAll = (flags & Pattern.DOTALL) != 0;
+    this.unixLines = (flags & Pattern.UNIX_LINES) != 0;
+  }
+
+  /**
+   * Parse a compiled pattern.
+   * @return The root of the expression, or null if it uses syntax we don't
+   *     follow (such as comments mode).
+   */
+  static Node parse(Pattern pattern) {
+    int flags = pattern.flags();
+    if ((flags & (Pattern.COMMENTS | Pattern.UNICODE_CASE |
+        Pattern.UNICODE_CHARACTER_CLASS | Pattern.CANON_EQ)) != 0) {
+      return null;
+    }
+    RegexTree parser = new RegexTree(pattern.pattern(), flags);
+    try {
+      if ((flags & Pattern.LITERAL) != 0) {
+        return parser.literalRun(0, parser.regex.length());
+      }
+      Node root = parser.alternation();
+      return (parser.pos == parser.regex.length()) ? root : null;
+    } catch (UnsupportedOperationException e) {
+      return null;
+    } catch (IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  private Node alternation() {
+    int start = pos;
+    List<Node> alternatives = new ArrayList<Node>();
+    alternatives.add(sequence());
+    while ((pos < regex.length()) && (regex.charAt(pos) == '|')) {
+      pos++;
+      alternatives.add(sequence());
+    }
+    if (alternatives.size() == 1) {
+      return alternatives.get(0);
+    }
+    return at(new Alternation(alternatives), start);
+  }
+
+  private Node sequence() {
+    int start = pos;
+    List<Node> items = new ArrayList<Node>();
+    while (pos < regex.length()) {
+      char c = regex.charAt(pos);
+      if ((c == '|') || (c == ')')) {
+        break;
+      }
+      int atomStart = pos;
+      Node atom = atom();
+      if (atom == null) {
+        // A flag setting such as "(?i)"
+        continue;
+      }
+      items.add(quantified(atom, atomStart));
+    }
+    if (items.size() == 1) {
+      return items.get(0);
+    }
+    return at(new Sequence(items), start);
+  }
+
+  private Node quantified(Node atom, int start) {
+    if (pos == regex.length()) {
+      return atom;
+    }
+    int min;
+    int max;
+    char c = regex.charAt(pos);
+    if (c == '*') {
+      min = 0;
+      max = UNBOUNDED;
+      pos++;
+    } else if (c == '+') {
+      min = 1;
+      max = UNBOUNDED;
+      pos++;
+    } else if (c == '?') {
+      min = 0;
+      max = 1;
+      pos++;
+    } else if ((c == '{') && (pos + 1 < regex.length()) &&
+        Character.isDigit(regex.charAt(pos + 1))) {
+      int close = regex.indexOf('}', pos);
+      String[] bounds = regex.substring(pos + 1, close).split(",", -1);
+      min = Integer.parseInt(bounds[0].trim());
+      if (bounds.length == 1) {
+        max = min;
+      } else if (bounds[1].trim().isEmpty()) {
+        max = UNBOUNDED;
+      } else {
+        max = Integer.parseInt(bounds[1].trim());
+      }
+      pos = close + 1;
+    } else {
+      return atom;
+    }
+    boolean possessive = false;
+    if (pos < regex.length()) {
+      if (regex.charAt(pos) == '?') {
+        pos++;
+      } else if (regex.charAt(pos) == '+') {
+        possessive = true;
+        pos++;
+      }
+    }
+    return at(new Repeat(atom, min, max, possessive), start);
+  }
+
+  private Node atom() {
+    int start = pos;
+    char c = regex.charAt(pos++);
+    switch (c) {
+      case '(':
+        return group(start);
+      case '[':
+        return at(charClass(), start);
+      case '.':
+        return at(dot(), start);
+      case '^':
+      case '$':
+        return at(new Assertion(), start);
+      case '\\':
+        return escape(start);
+      default:
+        return at(new Literal(c, caseInsensitive), start);
+    }
+  }
+
+  private Node group(int start) {
+    boolean saved = caseInsensitive;
+    boolean savedDotAll = dotAll;
+    boolean savedUnixLines = unixLines;
+    boolean atomic = false;
+    boolean assertion = false;
+    if (regex.charAt(pos) == '?') {
+      pos++;
+      char kind = regex.charAt(pos);
+      if (kind == ':') {
+        pos++;
+      } else if ((kind == '=') || (kind == '!')) {
+        assertion = true;
+        pos++;
+      } else if (kind == '>') {
+        atomic = true;
+        pos++;
+      } else if (kind == '<') {
+        char next = regex.charAt(pos + 1);
+        if ((next == '=') || (next == '!')) {
+          assertion = true;
+          pos += 2;
+        } else {
+          pos = regex.indexOf('>', pos) + 1;
+        }
+      } else {
+        // Flags, either "(?i)" for the rest of the enclosing group or
+        // "(?i:...)" for the group itself
+        boolean on = true;
+        while ((regex.charAt(pos) != ')') && (regex.charAt(pos) != ':')) {
+          char flag = regex.charAt(pos++);
+          if (flag == '-') {
+            on = false;
+          } else if (flag == 'i') {
+            caseInsensitive = on;
+          } else if (flag == 's') {
+            dotAll = on;
+          } else if (flag == 'd') {
+            unixLines = on;
+          } else if (flag == 'x') {
+            throw new UnsupportedOperationException("comments");
+          } else if (((flag == 'u') || (flag == 'U')) && on) {
+            throw new UnsupportedOperationException("Unicode classes");
+          }
+        }
+        if (regex.charAt(pos++) == ')') {
+          return null;
+        }
+      }
+    }
+    Node body = alternation();
+    pos++;  // the ')'
+    caseInsensitive = saved;
+    dotAll = savedDotAll;
+    unixLines = savedUnixLines;
+    if (assertion) {
+      return at(new Assertion(), start);
+    }
+    return at(new Group(body, atomic), start);
+  }
+
+  private Node escape(int start) {
+    char c = regex.charAt(pos++);
+    switch (c) {
+      case 'Q': {
+        int close = regex.indexOf("\\E", pos);
+        int end = (close < 0) ? regex.length() : close;
+        Node run = literalRun(pos, end);
+        pos = (close < 0) ? end : close + 2;
+        return at(run, start);
+      }
+      case 'b':
+        if ((pos < regex.length()) && (regex.charAt(pos) == '{')) {
+          // \b{g}, a grapheme cluster boundary
+          pos = regex.indexOf('}', pos) + 1;
+        }
+        return at(new Assertion(), start);
+      case 'B':
+      case 'A':
+      case 'z':
+      case 'Z':
+      case 'G':
+        return at(new Assertion(), start);
+      case 'k':
+        pos = regex.indexOf('>', pos) + 1;
+        return at(new BackReference(), start);
+      default:
+        break;
+    }
+    if ((c >= '1') && (c <= '9')) {
+      while ((pos < regex.length()) && Character.isDigit(regex.charAt(pos))) {
+        pos++;
+      }
+      return at(new BackReference(), start);
+    }
+    CharSet predefined = predefined(c);
+    if (predefined != null) {
+      return at(predefined, start);
+    }
+    return at(new Literal(escapedChar(c), caseInsensitive), start);
+  }
+
+  /**
+   * @return The set for a predefined class such as \d, or null if c
+   *     doesn't name one.
+   */
+  private CharSet predefined(char c) {
+    BitSet set = new BitSet(ASCII);
+    switch (c) {
+      case 'd':
+        set.set('0', '9' + 1);
+        return new CharSet(set, false, false);
+      case 'w':
+        set.set('a', 'z' + 1);
+        set.set('A', 'Z' + 1);
+        set.set('0', '9' + 1);
+        set.set('_');
+        return new CharSet(set, false, false);
+      case 's':
+        set.set(' ');
+        set.set('\t', '\r' + 1);
+        return new CharSet(set, false, false);
+      case 'h':
+        set.set(' ');
+        set.set('\t');
+        return new CharSet(set, true, false);
+      case 'v':
+      case 'R':
+        set.set('\n', '\r' + 1);
+        return new CharSet(set, true, false);
+      case 'D':
+      case 'W':
+      case 'S':
+      case 'H':
+      case 'V': {
+        CharSet positive = predefined(Character.toLowerCase(c));
+        set.set(0, ASCII);
+        set.andNot(positive.ascii);
+        return new CharSet(set, true, false);
+      }
+      case 'p':
+      case 'P':
+      case 'X':
+        if ((c != 'X') && (regex.charAt(pos) == '{')) {
+          pos = regex.indexOf('}', pos) + 1;
+        } else if (c != 'X') {
+          pos++;
+        }
+        set.set(0, ASCII);
+        return new CharSet(set, true, false);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return The character an escape other than a class or an assertion
+   *     stands for; pos is moved past any digits it takes.
+   */
+  private char escapedChar(char c) {
+    switch (c) {
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      case 'a':
+        return '\u0007';
+      case 'e':
+        return '\u001B';
+      case 'c':
+        return (char) (regex.charAt(pos++) ^ 64);
+      case '0': {
+        int value = 0;
+        int digits = 0;
+        while ((digits < 3) && (pos < regex.length()) &&
+            (regex.charAt(pos) >= '0') && (regex.charAt(pos) <= '7')) {
+          value = value * 8 + (regex.charAt(pos++) - '0');
+          digits++;
+        }
+        return (char) value;
+      }
+      case 'x':
+        if (regex.charAt(pos) == '{') {
+          int close = regex.indexOf('}', pos);
+          int cp = Integer.parseInt(regex.substring(pos + 1, close), 16);
+          pos = close + 1;
+          if (cp > Character.MAX_VALUE) {
+            throw new UnsupportedOperationException("supplementary character");
+          }
+          return (char) cp;
+        }
+        pos += 2;
+        return (char) Integer.parseInt(regex.substring(pos - 2, pos), 16);
+      case 'u':
+        pos += 4;
+        return (char) Integer.parseInt(regex.substring(pos - 4, pos), 16);
+      default:
+        // Any other letter or digit is an escape we don't know, such as
+        // \N{name}; the rest stand for themselves
+        if ((c < ASCII) && Character.isLetterOrDigit(c)) {
+          throw new UnsupportedOperationException("escape \\" + c);
+        }
+        return c;
+    }
+  }
+
+  private CharSet dot() {
+    BitSet set = new BitSet(ASCII);
+    set.set(0, ASCII);
+    if (!dotAll) {
+      set.clear('\n');
+      if (!unixLines) {
+        set.clear('\r');
+      }
+    }
+    return new CharSet(set, true, true);
+  }
+
+  /**
+   * Parse a character class, just after its '['. Intersections ("&&") are
+   * over-approximated by the union of their operands.
+   */
+  private CharSet charClass() {
+    BitSet set = new BitSet(ASCII);
+    boolean nonAscii = false;
+    boolean negated = false;
+    if (regex.charAt(pos) == '^') {
+      negated = true;
+      pos++;
+    }
+    boolean first = true;
+    while (first || (regex.charAt(pos) != ']')) {
+      first = false;
+      char c = regex.charAt(pos++);
+      if (c == '[') {
+        CharSet nested = charClass();
+        set.or(nested.ascii);
+        nonAscii |= nested.nonAscii;
+        continue;
+      }
+      if ((c == '&') && (regex.charAt(pos) == '&')) {
+        pos++;
+        continue;
+      }
+      int from;
+      if (c == '\\') {
+        char e = regex.charAt(pos++);
+        if (e == 'Q') {
+          int close = regex.indexOf("\\E", pos);
+          for (int i = pos; i < close; i++) {
+            nonAscii |= add(set, regex.charAt(i), regex.charAt(i));
+          }
+          pos = close + 2;
+          continue;
+        }
+        CharSet predefined = predefined(e);
+        if (predefined != null) {
+          set.or(predefined.ascii);
+          nonAscii |= predefined.nonAscii;
+          continue;
+        }
+        from = escapedChar(e);
+      } else {
+        from = c;
+      }
+      int to = from;
+      if ((regex.charAt(pos) == '-') && (regex.charAt(pos + 1) != ']') &&
+          (regex.charAt(pos + 1) != '[')) {
+        pos++;
+        char e = regex.charAt(pos++);
+        to = (e == '\\') ? escapedChar(regex.charAt(pos++)) : e;
+      }
+      nonAscii |= add(set, from, to);
+    }
+    pos++;  // the ']'
+    if (negated) {
+      BitSet complement = new BitSet(ASCII);
+      complement.set(0, ASCII);
+      complement.andNot(set);
+      return new CharSet(complement, true, false);
+    }
+    return new CharSet(set, nonAscii, false);
+  }
+
+  /**
+   * Add a range of characters to a set, with their other case if we're
+   * case insensitive.
+   * @return true if the range reaches outside ASCII.
+   */
+  private boolean add(BitSet set, int from, int to) {
+    for (int ch = from; (ch <= to) && (ch < ASCII); ch++) {
+      set.set(ch);
+      if (caseInsensitive && Character.isLetter(ch)) {
+        set.set(Character.toLowerCase(ch));
+        set.set(Character.toUpperCase(ch));
+      }
+    }
+    // Case insensitive 'k' and 's' also match the Kelvin sign and long s
+    return (to >= ASCII) ||
+        (caseInsensitive && (set.get('k') || set.get('s')));
+  }
+
+  private Node literalRun(int from, int to) {
+    List<Node> items = new ArrayList<Node>();
+    for (int i = from; i < to; i++) {
+      items.add(at(new Literal(regex.charAt(i), caseInsensitive), i, i + 1));
+    }
+    return at(new Sequence(items), from, to);
+  }
+
+  private <T extends Node> T at(T node, int start) {
+    return at(node, start, pos);
+  }
+
+  private static <T extends Node> T at(T node, int start, int end) {
+    node.start = start;
+    node.end = end;
+    return node;
+  }
+
+  /**
+   * @return The items of a node taken as a sequence.
+   */
+  static List<Node> items(Node node) {
+    if (node instanceof Sequence) {
+      return ((Sequence) node).items;
+    }
+    return Collections.singletonList(node);
+  }
+
+  /**
+   * @return true if the node can match the empty string.
+   */
+  static boolean canBeEmpty(Node node) {
+    if ((node instanceof Literal) || (node instanceof CharSet)) {
+      return false;
+    }
+    if (node instanceof Sequence) {
+      for (Node item : ((Sequence) node).items) {
+        if (!canBeEmpty(item)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (node instanceof Alternation) {
+      for (Node alternative : ((Alternation) node).alternatives) {
+        if (canBeEmpty(alternative)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (node instanceof Group) {
+      return canBeEmpty(((Group) node).body);
+    }
+    if (node instanceof Repeat) {
+      Repeat repeat = (Repeat) node;
+      return (repeat.min == 0) || canBeEmpty(repeat.body);
+    }
+    // Assertions match nothing; back references may refer to empty groups
+    return true;
+  }
+
+  /**
+   * @return The characters a (non empty) match of the node can start with.
+   */
+  static CharSet firstChars(Node node) {
+    BitSet set = new BitSet(ASCII);
+    boolean nonAscii = addFirstChars(node, set);
+    return new CharSet(set, nonAscii, false);
+  }
+
+  private static boolean addFirstChars(Node node, BitSet set) {
+    if (node instanceof Literal) {
+      Literal literal = (Literal) node;
+      char c = literal.c;
+      if (c >= ASCII) {
+        return true;
+      }
+      set.set(c);
+      if (literal.caseInsensitive) {
+        set.set(Character.toLowerCase(c));
+        set.set(Character.toUpperCase(c));
+        return (c == 'k') || (c == 'K') || (c == 's') || (c == 'S');
+      }
+      return false;
+    }
+    if (node instanceof CharSet) {
+      set.or(((CharSet) node).ascii);
+      return ((CharSet) node).nonAscii;
+    }
+    if (node instanceof Sequence) {
+      boolean nonAscii = false;
+      for (Node item : ((Sequence) node).items) {
+        nonAscii |= addFirstChars(item, set);
+        if (!canBeEmpty(item)) {
+          break;
+        }
+      }
+      return nonAscii;
+    }
+    if (node instanceof Alternation) {
+      boolean nonAscii = false;
+      for (Node alternative : ((Alternation) node).alternatives) {
+        nonAscii |= addFirstChars(alternative, set);
+      }
+      return nonAscii;
+    }
+    if (node instanceof Group) {
+      return addFirstChars(((Group) node).body, set);
+    }
+    if (node instanceof Repeat) {
+      return addFirstChars(((Repeat) node).body, set);
+    }
+    if (node instanceof BackReference) {
+      set.set(0, ASCII);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return The characters the matches of the node can contain, or null if
+   *     the node has assertions or back references, whose matches depend
+   *     on more than the matched text.
+   */
+  static CharSet allChars(Node node) {
+    BitSet set = new BitSet(ASCII);
+    Boolean nonAscii = addAllChars(node, set);
+    return (nonAscii == null) ? null : new CharSet(set, nonAscii, false);
+  }
+
+  private static Boolean addAllChars(Node node, BitSet set) {
+    if ((node instanceof Literal) || (node instanceof CharSet)) {
+      return addFirstChars(node, set);
+    }
+    if ((node instanceof Sequence) || (node instanceof Alternation)) {
+      List<Node> children = (node instanceof Sequence)
+          ? ((Sequence) node).items : ((Alternation) node).alternatives;
+      boolean nonAscii = false;
+      for (Node child : children) {
+        Boolean childNonAscii = addAllChars(child, set);
+        if (childNonAscii == null) {
+          return null;
+        }
+        nonAscii |= childNonAscii;
+      }
+      return nonAscii;
+    }
+    if (node instanceof Group) {
+      return addAllChars(((Group) node).body, set);
+    }
+    if (node instanceof Repeat) {
+      return addAllChars(((Repeat) node).body, set);
+    }
+    return null;
+  }
+
+  /**
+   * @return The text the node matches if it is a plain case sensitive
+   *     literal, such as "a.b" for "a\.b", else null.
+   */
+  static String literal(Node node) {
+    StringBuilder sb = new StringBuilder();
+    for (Node item : items(node)) {
+      if (!(item instanceof Literal) || ((Literal) item).caseInsensitive) {
+        return null;
+      }
+      sb.append(((Literal) item).c);
+    }
+    return (sb.length() == 0) ? null : sb.toString();
+  }
+
+  /**
+   * What we know about the literal text of the matches of a node: the
+   * whole text if it is always the same, the text every match starts and
+   * ends with, and the longest text every match contains.
+   */
+  private static final class Literals {
+    private static final Literals UNKNOWN = new Literals(null, "", "", "");
+    private static final Literals EMPTY = new Literals("", "", "", "");
+
+    final String exact;
+    final String prefix;
+    final String suffix;
+    final String best;
+
+    Literals(String exact, String prefix, String suffix, String best) {
+      this.exact = exact;
+      this.prefix = (exact != null) ? exact : prefix;
+      this.suffix = (exact != null) ? exact : suffix;
+      this.best = longest(longest(best, this.prefix), this.suffix);
+    }
+
+    static Literals exactly(String text) {
+      return new Literals(text, text, text, text);
+    }
+  }
+
+  /**
+   * Make up a text the expression is likely to match, such as "0000" for
+   * "\d{4}": the first alternative of every alternation, the fewest
+   * repetitions that aren't none, and a letter or digit of every character
+   * set where there is one. Lookarounds are ignored, so the text may not
+   * actually match; check it before relying on it.
+   * @return The text, or null if the expression has back references.
+   */
+  static String sample(Node root) {
+    StringBuilder sb = new StringBuilder();
+    return appendSample(root, sb) ? sb.toString() : null;
+  }
+
+  private static boolean appendSample(Node node, StringBuilder sb) {
+    if (node instanceof Literal) {
+      sb.append(((Literal) node).c);
+      return true;
+    }
+    if (node instanceof CharSet) {
+      CharSet set = (CharSet) node;
+      for (char c : new char[]{'a', '0', 'A'}) {
+        if (set.wildcard || set.ascii.get(c)) {
+          sb.append(c);
+          return true;
+        }
+      }
+      int c = set.ascii.nextSetBit(' ');
+      if (c < 0) {
+        c = set.ascii.nextSetBit(0);
+      }
+      if (c >= 0) {
+        sb.append((char) c);
+      } else {
+        sb.append(set.nonAscii ? '\u00e9' : 'a');
+      }
+      return true;
+    }
+    if (node instanceof Sequence) {
+      for (Node item : ((Sequence) node).items) {
+        if (!appendSample(item, sb)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (node instanceof Alternation) {
+      return appendSample(((Alternation) node).alternatives.get(0), sb);
+    }
+    if (node instanceof Group) {
+      return appendSample(((Group) node).body, sb);
+    }
+    if (node instanceof Repeat) {
+      Repeat repeat = (Repeat) node;
+      int count = (repeat.max == 0) ? 0 : Math.max(repeat.min, 1);
+      for (int i = 0; i < count; i++) {
+        if (!appendSample(repeat.body, sb)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return node instanceof Assertion;
+  }
+
+  private static String longest(String a, String b) {
+    return (b.length() > a.length()) ? b : a;
+  }
+
+  /**
+   * Find a literal that every match of the expression contains, such as
+   * "password=" in "password=.*", to serve as a trigger for a rule without
+   * one. The literal is valid for a trigger compared with the given case
+   * sensitivity: literals the expression matches case insensitively are
+   * only used if the trigger is too.
+   * @return The longest such literal we can tell, or an empty string.
+   */
+  static String requiredLiteral(Node root, boolean caseSensitive) {
+    return literals(root, caseSensitive).best;
+  }
+
+  /**
+   * Find a literal that every match of the expression starts with, such as
+   * "password=" in "password=.*", with the same case sensitivity rules as
+   * {@link #requiredLiteral(Node, boolean)}.
+   * @return The longest such literal we can tell, or an empty string.
+   */
+  static String requiredPrefix(Node root, boolean caseSensitive) {
+    return literals(root, caseSensitive).prefix;
+  }
+
+  private static Literals literals(Node node, boolean caseSensitive) {
+    if (node instanceof Literal) {
+      Literal literal = (Literal) node;
+      if (literal.caseInsensitive && caseSensitive) {
+        return Literals.UNKNOWN;
+      }
+      return Literals.exactly(String.valueOf(literal.c));
+    }
+    if (node instanceof Assertion) {
+      // Matches no text, so the text on either side is adjacent
+      return Literals.EMPTY;
+    }
+    if (node instanceof Group) {
+      return literals(((Group) node).body, caseSensitive);
+    }
+    if (node instanceof Sequence) {
+      Literals result = Literals.EMPTY;
+      for (Node item : ((Sequence) node).items) {
+        Literals next = literals(item, caseSensitive);
+        String exact = ((result.exact != null) && (next.exact != null))
+            ? result.exact + next.exact : null;
+        String prefix = (result.exact != null)
+            ? result.exact + next.prefix : result.prefix;
+        String suffix = (next.exact != null)
+            ? result.suffix + next.exact : next.suffix;
+        String best = longest(longest(result.best, next.best),
+            result.suffix + next.prefix);
+        result = new Literals(exact, prefix, suffix, best);
+      }
+      return result;
+    }
+    if (node instanceof Alternation) {
+      List<Node> alternatives = ((Alternation) node).alternatives;
+      Literals first = literals(alternatives.get(0), caseSensitive);
+      String exact = first.exact;
+      String prefix = first.prefix;
+      String suffix = first.suffix;
+      for (int i = 1; i < alternatives.size(); i++) {
+        Literals other = literals(alternatives.get(i), caseSensitive);
+        if ((exact != null) && !exact.equals(other.exact)) {
+          exact = null;
+        }
+        prefix = commonPrefix(prefix, other.prefix);
+        suffix = commonSuffix(suffix, other.suffix);
+      }
+      return new Literals(exact, prefix, suffix, "");
+    }
+    if (node instanceof Repeat) {
+      Repeat repeat = (Repeat) node;
+      if (repeat.min == 0) {
+        return Literals.UNKNOWN;
+      }
+      Literals body = literals(repeat.body, caseSensitive);
+      if ((body.exact != null) && (repeat.min == repeat.max)) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < repeat.min; i++) {
+          sb.append(body.exact);
+        }
+        return Literals.exactly(sb.toString());
+      }
+      return new Literals(null, body.prefix, body.suffix, body.best);
+    }
+    // Character sets and back references
+    return Literals.UNKNOWN;
+  }
+
+  private static String commonPrefix(String a, String b) {
+    int n = 0;
+    while ((n < a.length()) && (n < b.length()) && (a.charAt(n) == b.charAt(n))) {
+      n++;
+    }
+    return a.substring(0, n);
+  }
+
+  private static String commonSuffix(String a, String b) {
+    int n = 0;
+    while ((n < a.length()) && (n < b.length()) &&
+        (a.charAt(a.length() - 1 - n) == b.charAt(b.length() - 1 - n))) {
+      n++;
+    }
+    return a.substring(a.length() - n);
+  }
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A replacement string compiled once into a list of segments, so that
+ * replacing a match is a matter of appending the segments to the output
+ * rather than having Matcher re-parse the replacement every time.
+ * <p/>
+ * The replacement syntax is that of Matcher.appendReplacement(): "$n" and
+ * "${name}" are group references and a backslash escapes the next
+ * character. On top of that the following operators are supported (the
+ * group G is a group number or name):
+ * <ul>
+ * <li>"$[mask:G]" - group G with every character replaced by 'X'</li>
+ * <li>"$[maskButLast:G:N]" - group G with all but the last N characters
+ *     replaced by 'X', e.g. "$[maskButLast:1:4]" for card numbers</li>
+ * <li>"$[maskButFirst:G:N]" - group G with all but the first N characters
+ *     replaced by 'X'</li>
+ * <li>"$[hash:G]" - the pseudonymization token of group G</li>
+ * </ul>
+ * The mask operators take an optional last argument to mask with some
+ * other character than 'X', as in "$[mask:1:*]". Characters are counted
+ * as code points.
+ */
+final class ReplacementTemplate {
+  private static final char DEFAULT_MASK = 'X';
+
+  private static final int LITERAL = 0;
+  private static final int GROUP = 1;
+  private static final int MASK = 2;
+  private static final int HASH = 3;
+
+  /** One piece of the replacement. */
+  private static final class Segment {
+    private final int kind;
+    private final String literal;
+    private final byte[] asciiLiteral;
+    private final int group;
+    // Set for named group references we couldn't resolve to a number.
+    private final String groupName;
+    private final int keepFirst;
+    private final int keepLast;
+    private final char mask;
+
+    private Segment(int kind, String literal, int group, String groupName,
+                    int keepFirst, int keepLast, char mask) {
+      this.kind = kind;
+      this.literal = literal;
+      this.asciiLiteral = ((literal != null) && AsciiSequence.isAscii(literal))
+          ? literal.getBytes(StandardCharsets.US_ASCII) : null;
+      this.group = group;
+      this.groupName = groupName;
+      this.keepFirst = keepFirst;
+      this.keepLast = keepLast;
+      this.mask = mask;
+    }
+
+    private int start(Matcher m) {
+      return (groupName == null) ? m.start(group) : m.start(groupName);
+    }
+
+    private int end(Matcher m) {
+      return (groupName == null) ? m.end(group) : m.end(groupName);
+    }
+  }
+
+  private final Segment[] segments;
+  private final boolean ascii;
+  private final Pseudonymizer pseudonymizer;
+
+  private ReplacementTemplate(List<Segment> segments, Pseudonymizer pseudonymizer) {
+    this.segments = segments.toArray(new Segment[segments.size()]);
+    this.pseudonymizer = pseudonymizer;
+    boolean allAscii = true;
+    for (Segment segment : this.segments) {
+      if (segment.kind == LITERAL) {
+        allAscii &= (segment.asciiLiteral != null);
+      } else {
+        allAscii &= (segment.kind != HASH) && (segment.mask < 128);
+      }
+    }
+    this.ascii = allAscii;
+  }
+
+  /**
+   * @return true if {@link #appendTo(RedactionBuffer, int, byte[], int,
+   *     Matcher)} can be used, i.e. if the output for ASCII input is ASCII.
+   */
+  boolean isAscii() {
+    return ascii;
+  }
+
+  /**
+   * @return The replacement text if it doesn't depend on the match (no
+   *     groups or operators), else null.
+   */
+  String getLiteralText() {
+    StringBuilder sb = new StringBuilder();
+    for (Segment segment : segments) {
+      if (segment.kind != LITERAL) {
+        return null;
+      }
+      sb.append(segment.literal);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A template that replaces every match with the pseudonymization token
+   * of the whole match, after a literal prefix.
+   */
+  static ReplacementTemplate pseudonym(String prefix, Pseudonymizer pseudonymizer) {
+    List<Segment> segments = new ArrayList<Segment>();
+    if (!prefix.isEmpty()) {
+      segments.add(new Segment(LITERAL, prefix, 0, null, 0, 0, DEFAULT_MASK));
+    }
+    segments.add(new Segment(HASH, null, 0, null, 0, 0, DEFAULT_MASK));
+    return new ReplacementTemplate(segments, pseudonymizer);
+  }
+
+  /**
+   * Compile a replacement for the given pattern.
+   * @param replace The replacement text
+   * @param pattern The pattern whose matches will be replaced
+   * @param pseudonymizer Used by "$[hash:G]", may be null if not available
+   * @throws IllegalArgumentException if the replacement is invalid, with
+   *     the same messages Matcher would use where it has the same rules.
+   */
+  static ReplacementTemplate compile(String replace, Pattern pattern,
+                                     Pseudonymizer pseudonymizer) {
+    final int groupCount = pattern.matcher("").groupCount();
+    final Map<String, Integer> names = namedGroups(pattern.pattern(), groupCount);
+    List<Segment> segments = new ArrayList<Segment>();
+    StringBuilder text = new StringBuilder();
+    int cursor = 0;
+    while (cursor < replace.length()) {
+      char c = replace.charAt(cursor);
+      if (c == '\\') {
+        cursor++;
+        if (cursor == replace.length()) {
+          throw new IllegalArgumentException(
+              "character to be escaped is missing");
+        }
+        text.append(replace.charAt(cursor++));
+      } else if (c != '$') {
+        text.append(c);
+        cursor++;
+      } else {
+        cursor++;
+        if (cursor == replace.length()) {
+          throw new IllegalArgumentException(
+              "Illegal group reference: group index is missing");
+        }
+        if (text.length() > 0) {
+          segments.add(new Segment(LITERAL, text.toString(), 0, null, 0, 0,
+              DEFAULT_MASK));
+          text.setLength(0);
+        }
+        char next = replace.charAt(cursor);
+        if (next == '{') {
+          int close = cursor + 1;
+          while ((close < replace.length()) &&
+              isAsciiLetterOrDigit(replace.charAt(close))) {
+            close++;
+          }
+          String name = replace.substring(cursor + 1, close);
+          if (name.isEmpty()) {
+            throw new IllegalArgumentException(
+                "named capturing group has 0 length name");
+          }
+          if ((close == replace.length()) || (replace.charAt(close) != '}')) {
+            throw new IllegalArgumentException(
+                "named capturing group is missing trailing '}'");
+          }
+          segments.add(groupSegment(GROUP, name, names, groupCount, 0, 0,
+              DEFAULT_MASK));
+          cursor = close + 1;
+        } else if (next == '[') {
+          int close = replace.indexOf(']', cursor);
+          if (close < 0) {
+            throw new IllegalArgumentException("Operator is missing trailing ']'");
+          }
+          segments.add(operator(replace.substring(cursor + 1, close), names,
+              groupCount, pseudonymizer));
+          cursor = close + 1;
+        } else {
+          int refNum = next - '0';
+          if ((refNum < 0) || (refNum > 9)) {
+            throw new IllegalArgumentException("Illegal group reference");
+          }
+          cursor++;
+          // Like Matcher, take more digits as long as the group exists
+          while (cursor < replace.length()) {
+            int digit = replace.charAt(cursor) - '0';
+            if ((digit < 0) || (digit > 9) || (refNum * 10 + digit > groupCount)) {
+              break;
+            }
+            refNum = refNum * 10 + digit;
+            cursor++;
+          }
+          if (refNum > groupCount) {
+            throw new IndexOutOfBoundsException("No group " + refNum);
+          }
+          segments.add(new Segment(GROUP, null, refNum, null, 0, 0, DEFAULT_MASK));
+        }
+      }
+    }
+    if (text.length() > 0) {
+      segments.add(new Segment(LITERAL, text.toString(), 0, null, 0, 0,
+          DEFAULT_MASK));
+    }
+    return new ReplacementTemplate(segments, pseudonymizer);
+  }
+
+  private static Segment operator(String spec, Map<String, Integer> names,
+                                  int groupCount, Pseudonymizer pseudonymizer) {
+    String[] args = spec.split(":", -1);
+    String op = args[0];
+    int maskArg;
+    int kind = MASK;
+    if ("mask".equals(op) || "hash".equals(op)) {
+      maskArg = 2;
+      if ("hash".equals(op)) {
+        kind = HASH;
+        if (pseudonymizer == null) {
+          throw new IllegalArgumentException("$[hash:...] needs a " +
+              "pseudonymKey in the policy");
+        }
+      }
+    } else if ("maskButLast".equals(op) || "maskButFirst".equals(op)) {
+      maskArg = 3;
+    } else {
+      throw new IllegalArgumentException("Unknown operator \"" + op + "\"");
+    }
+    int maxArgs = (kind == HASH) ? maskArg : maskArg + 1;
+    if ((args.length < maskArg) || (args.length > maxArgs)) {
+      throw new IllegalArgumentException("Wrong number of arguments for \"" +
+          op + "\"");
+    }
+    int keep = 0;
+    if (maskArg == 3) {
+      try {
+        keep = Integer.parseInt(args[2]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid count \"" + args[2] +
+            "\" for \"" + op + "\"");
+      }
+      if (keep < 0) {
+        throw new IllegalArgumentException("Negative count for \"" + op + "\"");
+      }
+    }
+    char mask = DEFAULT_MASK;
+    if (args.length == maskArg + 1) {
+      if (args[maskArg].length() != 1) {
+        throw new IllegalArgumentException("The mask must be one character");
+      }
+      mask = args[maskArg].charAt(0);
+    }
+    return groupSegment(kind, args[1], names, groupCount,
+        "maskButFirst".equals(op) ? keep : 0,
+        "maskButLast".equals(op) ? keep : 0, mask);
+  }
+
+  private static Segment groupSegment(int kind, String group,
+                                      Map<String, Integer> names,
+                                      int groupCount, int keepFirst,
+                                      int keepLast, char mask) {
+    if (group.isEmpty()) {
+      throw new IllegalArgumentException("Illegal group reference");
+    }
+    if (Character.isDigit(group.charAt(0))) {
+      int refNum;
+      try {
+        refNum = Integer.parseInt(group);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("capturing group name {" + group +
+            "} starts with digit character");
+      }
+      if (refNum > groupCount) {
+        throw new IndexOutOfBoundsException("No group " + refNum);
+      }
+      return new Segment(kind, null, refNum, null, keepFirst, keepLast, mask);
+    }
+    if (names == null) {
+      // We couldn't work out the group names of this regex; Matcher will
+      // resolve the name on every match instead.
+      return new Segment(kind, null, -1, group, keepFirst, keepLast, mask);
+    }
+    Integer refNum = names.get(group);
+    if (refNum == null) {
+      throw new IllegalArgumentException("No group with name {" + group + "}");
+    }
+    return new Segment(kind, null, refNum, null, keepFirst, keepLast, mask);
+  }
+
+  private static boolean isAsciiLetterOrDigit(char c) {
+    return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) ||
+        ((c >= '0') && (c <= '9'));
+  }
+
+  /**
+   * Work out the numbers of the named groups of a regex. Java 8 has no API
+   * for this, so we count the capturing groups ourselves.
+   * @return The names and numbers of the named groups, or null if our count
+   *     doesn't agree with the pattern's (some syntax we don't follow).
+   */
+  static Map<String, Integer> namedGroups(String regex, int groupCount) {
+    Map<String, Integer> names = new HashMap<String, Integer>();
+    int count = 0;
+    int i = 0;
+    final int n = regex.length();
+    while (i < n) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if ((i + 1 < n) && (regex.charAt(i + 1) == 'Q')) {
+          int end = regex.indexOf("\\E", i + 2);
+          i = (end < 0) ? n : end + 2;
+        } else {
+          i += 2;
+        }
+      } else if (c == '[') {
+        i = skipClass(regex, i);
+      } else if (c == '(') {
+        if ((i + 1 < n) && (regex.charAt(i + 1) == '?')) {
+          if ((i + 3 < n) && (regex.charAt(i + 2) == '<') &&
+              Character.isLetter(regex.charAt(i + 3))) {
+            int close = regex.indexOf('>', i + 3);
+            if (close < 0) {
+              return null;
+            }
+            count++;
+            names.put(regex.substring(i + 3, close), count);
+            i = close + 1;
+          } else {
+            i += 2;
+          }
+        } else {
+          count++;
+          i++;
+        }
+      } else {
+        i++;
+      }
+    }
+    return (count == groupCount) ? names : null;
+  }
+
+  /**
+   * @return The index just past the character class starting at start.
+   */
+  private static int skipClass(String regex, int start) {
+    int depth = 0;
+    int i = start;
+    final int n = regex.length();
+    while (i < n) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        depth++;
+        // A ']' right after the opening '[' (or "[^") is a literal
+        i++;
+        if ((i < n) && (regex.charAt(i) == '^')) {
+          i++;
+        }
+        if ((i < n) && (regex.charAt(i) == ']')) {
+          i++;
+        }
+        continue;
+      }
+      if (c == ']') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+      i++;
+    }
+    return n;
+  }
+
+  /**
+   * Append the replacement for the current match of m to sb.
+   * @param sb The output
+   * @param m The matcher, positioned on a match
+   * @param input The text the matcher runs on
+   */
+  void appendTo(StringBuilder sb, Matcher m, CharSequence input) {
+    for (Segment segment : segments) {
+      if (segment.kind == LITERAL) {
+        sb.append(segment.literal);
+        continue;
+      }
+      int start = segment.start(m);
+      if (start < 0) {
+        // The group didn't take part in the match
+        continue;
+      }
+      int end = segment.end(m);
+      switch (segment.kind) {
+        case GROUP:
+          sb.append(input, start, end);
+          break;
+        case HASH:
+          sb.append(pseudonymizer.tokenFor(input.subSequence(start, end).toString()));
+          break;
+        default:
+          appendMasked(sb, segment, input, start, end);
+      }
+    }
+  }
+
+  private static void appendMasked(StringBuilder sb, Segment segment,
+                                   CharSequence input, int start, int end) {
+    int codePoints = Character.codePointCount(input, start, end);
+    int keepFirst = Math.min(segment.keepFirst, codePoints);
+    int keepLast = Math.min(segment.keepLast, codePoints - keepFirst);
+    int i = start;
+    for (int cp = 0; cp < codePoints; cp++) {
+      int next = i + Character.charCount(Character.codePointAt(input, i));
+      if ((cp < keepFirst) || (cp >= codePoints - keepLast)) {
+        sb.append(input, i, next);
+      } else {
+        sb.append(segment.mask);
+      }
+      i = next;
+    }
+  }
+
+  /**
+   * Append the replacement for the current match of m as ASCII bytes. Only
+   * valid if {@link #isAscii()} and the input bytes are ASCII.
+   * @param out The buffer being written
+   * @param pos Where to write in the buffer
+   * @param src The array holding the input text
+   * @param srcOffset The offset of the input text in src
+   * @param m The matcher, positioned on a match
+   * @return The position after the replacement.
+   */
+  int appendTo(RedactionBuffer out, int pos, byte[] src, int srcOffset,
+               Matcher m) {
+    for (Segment segment : segments) {
+      if (segment.kind == LITERAL) {
+        byte[] bytes = segment.asciiLiteral;
+        System.arraycopy(bytes, 0, out.ensureCapacity(pos, bytes.length), pos,
+            bytes.length);
+        pos += bytes.length;
+        continue;
+      }
+      int start = segment.start(m);
+      if (start < 0) {
+        continue;
+      }
+      int length = segment.end(m) - start;
+      byte[] dst = out.ensureCapacity(pos, length);
+      System.arraycopy(src, srcOffset + start, dst, pos, length);
+      if (segment.kind == MASK) {
+        int keepFirst = Math.min(segment.keepFirst, length);
+        int keepLast = Math.min(segment.keepLast, length - keepFirst);
+        for (int i = keepFirst; i < length - keepLast; i++) {
+          dst[pos + i] = (byte) segment.mask;
+        }
+      }
+      pos += length;
+    }
+    return pos;
+  }
+}
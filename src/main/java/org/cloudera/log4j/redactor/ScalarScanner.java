@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+/**
+ * Plain Java trigger lookup. This is what every JVM runs, and what the
+ * vectorized scanner of newer JDKs falls back to for anything it doesn't
+ * handle itself.
+ */
+final class ScalarScanner {
+
+  private ScalarScanner() {}
+
+  /**
+   * Find the first occurrence of the trigger in the message.
+   * @param msg The message to search
+   * @param trigger The (non-empty) trigger to look for
+   * @param caseSensitive Whether to compare case sensitively
+   * @param from The position to start the search at
+   * @return The position of the trigger, or -1 if it isn't found.
+   */
+  static int indexOf(String msg, String trigger, boolean caseSensitive,
+                     int from) {
+    if (caseSensitive) {
+      return msg.indexOf(trigger, from);
+    }
+
+    // As there is no case-insensitive indexOf(), our options are to
+    // tolower() the strings (creates and throws away objects), use a regex
+    // (slow) or write our own using regionMatches(). We take the latter
+    // option, as it's fast.
+    final int len = trigger.length();
+    final int max = msg.length() - len;
+    final char first = trigger.charAt(0);
+    if (first >= 128) {
+      for (int i = Math.max(from, 0); i <= max; i++) {
+        if (msg.regionMatches(true, i, trigger, 0, len)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    // An ASCII first character only matches its upper and lower case
+    // forms among the ASCII characters (the likes of the Kelvin sign fold
+    // to 'k' too, hence the check of all the non-ASCII ones), so we can
+    // skip regionMatches() on everything else.
+    final char lower = Character.toLowerCase(first);
+    final char upper = Character.toUpperCase(first);
+    for (int i = Math.max(from, 0); i <= max; i++) {
+      char c = msg.charAt(i);
+      if (((c == lower) || (c == upper) || (c >= 128)) &&
+          msg.regionMatches(true, i, trigger, 0, len)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Find the first occurrence of the trigger in a CharSequence that isn't
+   * necessarily a String, such as a view of a byte buffer.
+   * @see #indexOf(String, String, boolean, int)
+   */
+  static int indexOf(CharSequence msg, String trigger, boolean caseSensitive,
+                     int from) {
+    if (msg instanceof String) {
+      return indexOf((String) msg, trigger, caseSensitive, from);
+    }
+    final int len = trigger.length();
+    final int max = msg.length() - len;
+    final char first = trigger.charAt(0);
+    for (int i = Math.max(from, 0); i <= max; i++) {
+      char c = msg.charAt(i);
+      if (caseSensitive ? (c == first) : equalsIgnoreCase(c, first)) {
+        if (regionMatches(msg, i, trigger, len, caseSensitive)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static boolean regionMatches(CharSequence msg, int start,
+                                       String trigger, int len,
+                                       boolean caseSensitive) {
+    for (int j = 1; j < len; j++) {
+      char c1 = msg.charAt(start + j);
+      char c2 = trigger.charAt(j);
+      if (caseSensitive ? (c1 != c2) : !equalsIgnoreCase(c1, c2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The same comparison String.regionMatches(true, ...) does.
+   */
+  private static boolean equalsIgnoreCase(char c1, char c2) {
+    if (c1 == c2) {
+      return true;
+    }
+    char u1 = Character.toUpperCase(c1);
+    char u2 = Character.toUpperCase(c2);
+    return (u1 == u2) ||
+        (Character.toLowerCase(u1) == Character.toLowerCase(u2));
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What a rule uses instead of a Matcher to replace spans of text with
+ * plain text: the key=value scanner of the rules with "valuesOf", or the
+ * compiled search of a rule in a compiled policy. Subclasses find the
+ * spans, and this class replaces them in Strings and in ASCII bytes.
+ */
+abstract class SpanReplacer {
+  /** What {@link #next(CharSequence, int)} returns for no span. */
+  static final long NONE = -1;
+  /**
+   * What {@link #next(CharSequence, int)} returns when the text needs the
+   * regular expression of the rule instead.
+   */
+  static final long UNSUPPORTED = -2;
+
+  private static final int ASCII = 128;
+
+  private final String replacement;
+  private final byte[] asciiReplacement;
+
+  SpanReplacer(String replacement) {
+    this.replacement = replacement;
+    boolean ascii = true;
+    for (int i = 0; i < replacement.length(); i++) {
+      ascii &= replacement.charAt(i) < ASCII;
+    }
+    asciiReplacement = ascii
+        ? replacement.getBytes(StandardCharsets.US_ASCII) : null;
+  }
+
+  /**
+   * Find the next span to replace.
+   * @return The start of the span in the high int and its end in the low
+   *     one, {@link #NONE} or {@link #UNSUPPORTED}.
+   */
+  abstract long next(CharSequence s, int from);
+
+  /**
+   * Replace the spans in the message, writing the result to out.
+   * @param maxMatches The most spans to replace
+   * @return The length of the result, -1 if there is nothing to replace,
+   *     or -2 if the message needs the rule's regular expression instead;
+   *     out only holds the result if it is written.
+   */
+  final int replace(CharSequence msg, int maxMatches, StringBuilder out) {
+    boolean found = false;
+    int last = 0;
+    int count = 0;
+    while (count < maxMatches) {
+      long span = next(msg, last);
+      if (span == UNSUPPORTED) {
+        return -2;
+      }
+      if (span == NONE) {
+        break;
+      }
+      out.append(msg, last, (int) (span >>> 32)).append(replacement);
+      last = (int) span;
+      found = true;
+      count++;
+    }
+    if (!found) {
+      return -1;
+    }
+    return out.append(msg, last, msg.length()).length();
+  }
+
+  /**
+   * @return true if {@link #replace(AsciiSequence, byte[], int, int,
+   *     RedactionBuffer)} can be used.
+   */
+  final boolean isAscii() {
+    return asciiReplacement != null;
+  }
+
+  /**
+   * Replace the spans in ASCII text, writing the result to out.
+   * @param view A view of the text
+   * @param maxMatches The most spans to replace
+   * @return The length of the result, -1 if there is nothing to replace
+   *     and nothing was written, or -2 if the text needs the rule's
+   *     regular expression instead.
+   */
+  final int replace(AsciiSequence view, byte[] src, int srcOffset,
+                    int maxMatches, RedactionBuffer out) {
+    int length = view.length();
+    byte[] dst = null;
+    int written = 0;
+    int last = 0;
+    int count = 0;
+    while (count < maxMatches) {
+      long span = next(view, last);
+      if (span == UNSUPPORTED) {
+        return -2;
+      }
+      if (span == NONE) {
+        break;
+      }
+      int start = (int) (span >>> 32);
+      if (dst == null) {
+        out.beginWrite(length);
+      }
+      dst = out.ensureCapacity(written, start - last + asciiReplacement.length);
+      System.arraycopy(src, srcOffset + last, dst, written, start - last);
+      written += start - last;
+      System.arraycopy(asciiReplacement, 0, dst, written,
+          asciiReplacement.length);
+      written += asciiReplacement.length;
+      last = (int) span;
+      count++;
+    }
+    if (dst == null) {
+      return -1;
+    }
+    dst = out.ensureCapacity(written, length - last);
+    System.arraycopy(src, srcOffset + last, dst, written, length - last);
+    written += length - last;
+    out.commitWrite(written);
+    return written;
+  }
+}
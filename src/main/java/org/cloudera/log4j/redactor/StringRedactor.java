@@ -14,13 +14,29 @@
  */
 package org.cloudera.log4j.redactor;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,14 +57,60 @@ public class StringRedactor {
    * trigger-search-replace. See the comments in createFromJsonFile().
    * Since we only read from JSON files, we only need setter methods.
    */
-  private static class RedactionRule {
+  static class RedactionRule {
+    private static final RedactionRule[] NO_GROUPS = new RedactionRule[0];
+
     private String description;
     private boolean caseSensitive = true;
     private String trigger;
+    // A literal every match of the search contains, used as the trigger of
+    // rules that don't have one.
+    private String impliedTrigger;
     private String search;
     private String replace;
+    private List<String> keys;
+    private Set<String> keySet;
+    private List<String> paths;
+    private List<String[]> pathSegments;
+    private List<String> loggers;
+    private List<String> levels;
+    // The rules of a group, which makes this rule a group
+    private List<RedactionRule> rules;
+    // The groups this rule is in, outermost first
+    private RedactionRule[] groups = NO_GROUPS;
+    // True if one of the groups has a search to check
+    private boolean groupSearch;
     private Pattern pattern;
-    private ThreadLocal<Matcher> matcherTL;
+    // The position of the rule in the policy, which is also the position of
+    // its Matcher in the Matcher arrays of the policy's pool.
+    private int index;
+    private ReplacementTemplate template;
+    private boolean pseudonymize;
+    private int tokenLength = 16;
+    private Pseudonymizer pseudonymizer;
+    // Stop applying rules once this one matched
+    private boolean terminal;
+    private int maxMatches = Integer.MAX_VALUE;
+    // For the rules fused by the PolicyOptimizer: the literals to replace,
+    // instead of a search
+    private LiteralSet literals;
+    // The keys of the key=value pairs whose values a rule replaces,
+    // instead of a search
+    private List<String> valuesOf;
+    private String valueDelimiters = " \t\r\n,;&";
+    // The search window: how far before the first occurrence of the
+    // trigger the search starts, and after the end of its last one a
+    // match may start, as declared (null if not)
+    private Integer windowBefore;
+    private Integer windowAfter;
+    // True if the search only runs in the window, as declared or derived
+    private boolean windowed;
+    private int before;
+    // -1 for the end of the message
+    private int after = -1;
+    // What replaces the spans instead of the Matcher: the key=value
+    // scanner, or the compiled search of a compiled policy
+    private SpanReplacer replacer;
 
     public void setDescription(String description) {
       this.description = description;
@@ -74,69 +136,703 @@ public class StringRedactor {
       this.replace = replace;
     }
 
-    private void postProcess() throws RedactionPolicyParseException {
+    public void setKeys(List<String> keys) {
+      this.keys = keys;
+    }
+
+    public void setPaths(List<String> paths) {
+      this.paths = paths;
+    }
+
+    public void setPseudonymize(boolean pseudonymize) {
+      this.pseudonymize = pseudonymize;
+    }
+
+    public void setTokenLength(int tokenLength) {
+      this.tokenLength = tokenLength;
+    }
+
+    public void setLoggers(List<String> loggers) {
+      this.loggers = loggers;
+    }
+
+    public void setLevels(List<String> levels) {
+      this.levels = levels;
+    }
+
+    public void setRules(List<RedactionRule> rules) {
+      this.rules = rules;
+    }
+
+    public void setTerminal(boolean terminal) {
+      this.terminal = terminal;
+    }
+
+    public void setMaxMatches(int maxMatches) {
+      this.maxMatches = maxMatches;
+    }
+
+    public void setValuesOf(List<String> valuesOf) {
+      this.valuesOf = valuesOf;
+    }
+
+    public void setValueDelimiters(String valueDelimiters) {
+      this.valueDelimiters = valueDelimiters;
+    }
+
+    public void setWindowBefore(Integer windowBefore) {
+      this.windowBefore = windowBefore;
+    }
+
+    public void setWindowAfter(Integer windowAfter) {
+      this.windowAfter = windowAfter;
+    }
+
+    String getDescription() {
+      return description;
+    }
+
+    boolean isCaseSensitive() {
+      return caseSensitive;
+    }
+
+    String getTrigger() {
+      return trigger;
+    }
+
+    /**
+     * @return The trigger derived from the search, or null if the rule has
+     *     a trigger or no literal could be derived.
+     */
+    String getImpliedTrigger() {
+      return impliedTrigger;
+    }
+
+    String getSearch() {
+      return search;
+    }
+
+    List<String> getKeys() {
+      return keys;
+    }
+
+    List<String> getPaths() {
+      return paths;
+    }
+
+    List<String> getLoggers() {
+      return loggers;
+    }
+
+    List<String> getLevels() {
+      return levels;
+    }
+
+    List<String> getValuesOf() {
+      return valuesOf;
+    }
+
+    /**
+     * @return true if the rule replaces the values of key=value pairs
+     *     rather than the matches of a search.
+     */
+    boolean isKeyValueRule() {
+      return valuesOf != null;
+    }
+
+    /**
+     * @return true if the search of the rule was compiled.
+     */
+    boolean isCompiled() {
+      return replacer instanceof CompiledSearch;
+    }
+
+    /**
+     * Compile the search of the rule, if it replaces the matches with plain
+     * text and is simple enough for a {@link CompiledSearch}. Anything else
+     * keeps its Pattern.
+     */
+    private void compile() {
+      String replacement = getLiteralReplacement();
+      if ((pattern != null) && (replacer == null) && !isGroup() &&
+          caseSensitive && !pseudonymize && (replacement != null) &&
+          (windowBefore == null) && (windowAfter == null)) {
+        replacer = CompiledSearch.compile(search, replacement);
+      }
+    }
+
+    boolean isTerminal() {
+      return terminal;
+    }
+
+    int getMaxMatches() {
+      return maxMatches;
+    }
+
+    /**
+     * @return The replacement text if it doesn't depend on the match, else
+     *     null.
+     */
+    String getLiteralReplacement() {
+      return (template == null) ? null : template.getLiteralText();
+    }
+
+    /**
+     * @return true if this is a group of rules rather than a rule.
+     */
+    boolean isGroup() {
+      return rules != null;
+    }
+
+    /**
+     * @return The groups this rule is in, outermost first.
+     */
+    List<RedactionRule> getGroups() {
+      return Arrays.asList(groups);
+    }
+
+    /**
+     * @return A rule replacing the literals of the given rules in one pass.
+     *     The rules have the same scope.
+     */
+    static RedactionRule fuse(List<RedactionRule> rules, LiteralSet literals) {
+      RedactionRule first = rules.get(0);
+      RedactionRule fused = new RedactionRule();
+      fused.description = rules.size() + " fused literal rules";
+      fused.loggers = first.loggers;
+      fused.levels = first.levels;
+      fused.groups = first.groups;
+      fused.groupSearch = first.groupSearch;
+      fused.index = -1;
+      fused.literals = literals;
+      return fused;
+    }
+
+    private void postProcess(String pseudonymKey)
+        throws RedactionPolicyParseException {
+      boolean hasWindow = (windowBefore != null) || (windowAfter != null);
+      if (hasWindow && ((rules != null) || (valuesOf != null))) {
+        throw new RedactionPolicyParseException("Only a rule with a search " +
+            "can have a search window.");
+      }
+      if (rules != null) {
+        postProcessGroup();
+        return;
+      }
+      if (valuesOf != null) {
+        postProcessKeyValue();
+        return;
+      }
       if ((search == null) || search.isEmpty()) {
         throw new RedactionPolicyParseException("The search regular expression " +
             "cannot be empty.");
       }
-      if ((replace == null || replace.isEmpty())) {
+      if (pseudonymize) {
+        // With pseudonymization the replacement is an optional prefix.
+        if (replace == null) {
+          replace = "";
+        }
+        if ((tokenLength < 1) ||
+            (tokenLength > Pseudonymizer.MAX_TOKEN_LENGTH)) {
+          throw new RedactionPolicyParseException("The token length must be " +
+              "between 1 and " + Pseudonymizer.MAX_TOKEN_LENGTH);
+        }
+        if ((pseudonymKey == null) || pseudonymKey.isEmpty()) {
+          throw new RedactionPolicyParseException("Pseudonymization needs a " +
+              "pseudonymKey in the policy.");
+        }
+        pseudonymizer = new Pseudonymizer(pseudonymKey, tokenLength);
+      } else if ((replace == null || replace.isEmpty())) {
         throw new RedactionPolicyParseException("The replacement text cannot " +
             "be empty.");
       }
 
+      if (keys != null) {
+        if (keys.isEmpty()) {
+          throw new RedactionPolicyParseException("The list of keys cannot " +
+              "be empty.");
+        }
+        keySet = new HashSet<String>();
+        for (String key : keys) {
+          if ((key == null) || key.isEmpty()) {
+            throw new RedactionPolicyParseException("A key cannot be empty.");
+          }
+          keySet.add(caseSensitive ? key : key.toLowerCase(Locale.ROOT));
+        }
+      }
+
+      if (paths != null) {
+        if (paths.isEmpty()) {
+          throw new RedactionPolicyParseException("The list of paths cannot " +
+              "be empty.");
+        }
+        pathSegments = new ArrayList<String[]>();
+        for (String path : paths) {
+          pathSegments.add(parsePath(path));
+        }
+      }
+
+      if (maxMatches < 1) {
+        throw new RedactionPolicyParseException("The maximum number of " +
+            "matches must be positive.");
+      }
+
+      if (hasWindow) {
+        if ((trigger == null) || trigger.isEmpty()) {
+          throw new RedactionPolicyParseException("A rule with a search " +
+              "window needs a trigger.");
+        }
+        if (((windowBefore != null) && (windowBefore < 0)) ||
+            ((windowAfter != null) && (windowAfter < 0))) {
+          throw new RedactionPolicyParseException("The search window " +
+              "cannot be negative.");
+        }
+        windowed = true;
+        before = (windowBefore != null) ? windowBefore : 0;
+        after = (windowAfter != null) ? windowAfter : -1;
+      }
+
+      validateScope();
+      compileSearch();
+
+      // Compile the replacement. We know the search is valid from the
+      // above, but the replace could be malformed - for example $% is an
+      // illegal group reference.
+      if (pseudonymize) {
+        template = ReplacementTemplate.pseudonym(replace, pseudonymizer);
+      } else {
+        if (replace.contains("$[hash:") && (pseudonymKey != null) &&
+            !pseudonymKey.isEmpty()) {
+          pseudonymizer = new Pseudonymizer(pseudonymKey, tokenLength);
+        }
+        try {
+          template = ReplacementTemplate.compile(replace, pattern,
+              pseudonymizer);
+        } catch (RuntimeException e) {
+          throw new RedactionPolicyParseException("The replacement text \"" +
+              replace + "\" is invalid", e);
+        }
+      }
+    }
+
+    /**
+     * A group only has a scope, a trigger and optionally a search that a
+     * message must match for the rules of the group to apply.
+     */
+    private void postProcessGroup() throws RedactionPolicyParseException {
+      if (rules.isEmpty()) {
+        throw new RedactionPolicyParseException("The list of rules of a " +
+            "group cannot be empty.");
+      }
+      if ((replace != null) || (keys != null) || (paths != null) ||
+          pseudonymize) {
+        throw new RedactionPolicyParseException("A group of rules cannot " +
+            "have a replacement, keys, paths or pseudonymization.");
+      }
+      if (terminal || (maxMatches != Integer.MAX_VALUE)) {
+        throw new RedactionPolicyParseException("A group of rules cannot " +
+            "be terminal or have a maximum number of matches.");
+      }
+      validateScope();
+      if (search != null) {
+        if (search.isEmpty()) {
+          throw new RedactionPolicyParseException("The search regular " +
+              "expression cannot be empty.");
+        }
+        compileSearch();
+      }
+    }
+
+    /**
+     * A rule with valuesOf has a replacement instead of a search, which
+     * is plain text.
+     */
+    private void postProcessKeyValue() throws RedactionPolicyParseException {
+      if ((search != null) || (keys != null) || (paths != null) ||
+          pseudonymize) {
+        throw new RedactionPolicyParseException("A rule with valuesOf " +
+            "cannot have a search, keys, paths or pseudonymization.");
+      }
+      if (valuesOf.isEmpty()) {
+        throw new RedactionPolicyParseException("The list of valuesOf " +
+            "cannot be empty.");
+      }
+      for (String key : valuesOf) {
+        if ((key == null) || key.isEmpty()) {
+          throw new RedactionPolicyParseException("A key cannot be empty.");
+        }
+        for (int i = 0; i < key.length(); i++) {
+          if (!KeyValueScanner.isKeyChar(key.charAt(i))) {
+            throw new RedactionPolicyParseException("The key \"" + key +
+                "\" of valuesOf can only have letters, digits, '.', '_' " +
+                "and '-'.");
+          }
+        }
+      }
+      if ((replace == null) || replace.isEmpty()) {
+        throw new RedactionPolicyParseException("The replacement text " +
+            "cannot be empty.");
+      }
+      if (valueDelimiters == null) {
+        throw new RedactionPolicyParseException("The value delimiters " +
+            "cannot be null.");
+      }
+      if (maxMatches < 1) {
+        throw new RedactionPolicyParseException("The maximum number of " +
+            "matches must be positive.");
+      }
+      validateScope();
+      replacer = new KeyValueScanner(valuesOf, caseSensitive,
+          valueDelimiters, replace);
+    }
+
+    private void validateScope() throws RedactionPolicyParseException {
+      if (loggers != null) {
+        if (loggers.isEmpty()) {
+          throw new RedactionPolicyParseException("The list of loggers " +
+              "cannot be empty.");
+        }
+        for (String logger : loggers) {
+          if (logger == null) {
+            throw new RedactionPolicyParseException("A logger cannot be null.");
+          }
+        }
+      }
+      if (levels != null) {
+        if (levels.isEmpty()) {
+          throw new RedactionPolicyParseException("The list of levels " +
+              "cannot be empty.");
+        }
+        for (String level : levels) {
+          if ((level == null) || level.isEmpty()) {
+            throw new RedactionPolicyParseException("A level cannot be empty.");
+          }
+        }
+      }
+    }
+
+    private void compileSearch() {
       if (caseSensitive) {
         pattern = Pattern.compile(search);
       } else {
         pattern = Pattern.compile(search, Pattern.CASE_INSENSITIVE);
       }
-      matcherTL = new ThreadLocal<Matcher>() {
-        @Override
-        protected Matcher initialValue() {
-          return pattern.matcher("");
+      if ((trigger == null) || trigger.isEmpty()) {
+        // Every match contains the required literal, so messages without
+        // it can be skipped just like with an explicit trigger.
+        RegexTree.Node root = RegexTree.parse(pattern);
+        if (root != null) {
+          String literal = RegexTree.requiredLiteral(root, caseSensitive);
+          if (!literal.isEmpty()) {
+            impliedTrigger = literal;
+            // Every match also starts with it, as "password=" in
+            // "password=.*": no match starts before its first occurrence
+            // in the message, which can start the search (unless \G, the
+            // end of the previous match, would move with it)
+            windowed = !isGroup() && !search.contains("\\G") &&
+                RegexTree.requiredPrefix(root, caseSensitive)
+                    .startsWith(literal);
+          }
         }
-      };
+      }
+    }
 
-      // Actually try a sample search-replace with the search and replace.
-      // We know the search is valid from the above, but the replace could
-      // be malformed - for example $% is an illegal group reference.
-      try {
-        String sampleString = "Hello, world";
-        Matcher m = pattern.matcher(sampleString);
-        sampleString = m.replaceAll(replace);
-      } catch (Exception e) {
-        throw new RedactionPolicyParseException("The replacement text \"" +
-            replace + "\" is invalid", e);
+    /**
+     * Split a JSON path such as "$.user.password" or "user.password" into
+     * its field names. A "*" segment matches any single field name.
+     */
+    private static String[] parsePath(String path)
+        throws RedactionPolicyParseException {
+      String p = (path == null) ? "" : path;
+      if (p.startsWith("$")) {
+        p = p.substring(1);
+        if (p.startsWith(".")) {
+          p = p.substring(1);
+        }
+      }
+      String[] segments = p.split("\\.", -1);
+      for (String segment : segments) {
+        if (segment.isEmpty()) {
+          throw new RedactionPolicyParseException("Invalid JSON path \"" +
+              path + "\"");
+        }
+      }
+      return segments;
+    }
+
+    /**
+     * Rules with a list of keys or JSON paths only apply to the values of
+     * those keys (context data, map message entries, JSON fields), never
+     * to the message text.
+     */
+    boolean isKeyRule() {
+      return (keySet != null) || (pathSegments != null);
+    }
+
+    private boolean matchesKey(String key) {
+      return (keySet != null) && (key != null) &&
+          keySet.contains(caseSensitive ? key : key.toLowerCase(Locale.ROOT));
+    }
 
+    /**
+     * Check the JSON parsing context of a value against the configured
+     * paths. Array levels are transparent, so "a.b" matches the elements
+     * of an array held in field b. Walks the context chain from the leaf
+     * up, so nothing is allocated.
+     */
+    private boolean matchesPath(JsonStreamContext ctx) {
+      if (pathSegments == null) {
+        return false;
       }
+      for (int n = 0; n < pathSegments.size(); n++) {
+        String[] segments = pathSegments.get(n);
+        JsonStreamContext c = ctx;
+        boolean matched = true;
+        for (int i = segments.length - 1; matched && (i >= 0); i--) {
+          while ((c != null) && c.inArray()) {
+            c = c.getParent();
+          }
+          if ((c == null) || !c.inObject() || !matchesName(segments[i],
+              c.getCurrentName())) {
+            matched = false;
+          } else {
+            c = c.getParent();
+          }
+        }
+        while (matched && (c != null)) {
+          if (c.inObject()) {
+            matched = false;
+          }
+          c = c.getParent();
+        }
+        if (matched) {
+          return true;
+        }
+      }
+      return false;
     }
 
-    private boolean matchesTrigger(String msg) {
-      // The common case: an empty trigger.
-      if ((trigger == null) || trigger.isEmpty()) {
+    private boolean matchesName(String segment, String name) {
+      if (name == null) {
+        return false;
+      }
+      if ("*".equals(segment)) {
         return true;
       }
+      return caseSensitive ? segment.equals(name) : segment.equalsIgnoreCase(name);
+    }
 
-      /* TODO Consider Boyer-More for performance.
-       * http://www.cs.utexas.edu/users/moore/publications/fstrpos.pdf
-       * However, it might not matter much in our use case.
-       */
-      if (caseSensitive) {
-        return msg.contains(trigger);
+    /**
+     * Logger scopes are hierarchical, as in log4j: "org.apache" covers
+     * "org.apache" and "org.apache.hadoop.Foo" but not "org.apachex".
+     * An empty logger name stands for every logger. A null loggerName
+     * means we don't know the logger, and the rule applies.
+     */
+    private boolean matchesLogger(String loggerName) {
+      if ((loggers == null) || (loggerName == null)) {
+        return true;
+      }
+      for (int i = 0, n = loggers.size(); i < n; i++) {
+        String prefix = loggers.get(i);
+        if (prefix.isEmpty() || (loggerName.startsWith(prefix) &&
+            ((loggerName.length() == prefix.length()) ||
+             (loggerName.charAt(prefix.length()) == '.')))) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Like {@link #matchesLogger(String)}, for the rule and all its groups.
+     */
+    private boolean inLoggerScope(String loggerName) {
+      for (RedactionRule group : groups) {
+        if (!group.matchesLogger(loggerName)) {
+          return false;
+        }
+      }
+      return matchesLogger(loggerName);
+    }
+
+    /**
+     * For a group: check whether its rules apply to a message.
+     */
+    private boolean groupApplies(CharSequence msg, String loggerName,
+                                 String level, Matcher[] matchers) {
+      if (!matchesLevel(level) || !matchesLogger(loggerName) ||
+          !matchesTrigger(msg)) {
+        return false;
+      }
+      if (pattern == null) {
+        return true;
       }
+      Matcher m = matcher(matchers);
+      m.reset(msg);
+      return m.find();
+    }
 
-      // As there is no case-insensitive contains(), our options are to
-      // tolower() the strings (creates and throws away objects), use a regex
-      // (slow) or write our own using regionMatches(). We take the latter
-      // option, as it's fast.
-      final int len = trigger.length();
-      final int max = msg.length() - len;
-      for (int i = 0; i <= max; i++) {
-        if (msg.regionMatches(true, i, trigger, 0, len)) {
+    /**
+     * A null level means we don't know the level, and the rule applies.
+     */
+    private boolean matchesLevel(String level) {
+      if ((levels == null) || (level == null)) {
+        return true;
+      }
+      for (int i = 0, n = levels.size(); i < n; i++) {
+        if (levels.get(i).equalsIgnoreCase(level)) {
           return true;
         }
       }
       return false;
     }
+
+    /**
+     * Replace all the matches in msg that start by lastStart, starting with
+     * the one the matcher has just found, writing the result to sb.
+     */
+    private void replaceAll(Matcher m, int lastStart, CharSequence msg,
+                            StringBuilder sb) {
+      int last = 0;
+      int count = 0;
+      do {
+        sb.append(msg, last, m.start());
+        template.appendTo(sb, m, msg);
+        last = m.end();
+      } while ((++count < maxMatches) &&
+          find(m, next(m), lastStart, msg.length()));
+      sb.append(msg, last, msg.length());
+    }
+
+    /**
+     * @return Where the search for the match after the one the Matcher has
+     *     just found starts, as find() would.
+     */
+    private static int next(Matcher m) {
+      return (m.end() == m.start()) ? m.end() + 1 : m.end();
+    }
+
+    /**
+     * Find the next match, from a position, that starts by lastStart. When
+     * the window ends before the message, the region ends with it and the
+     * search stops there. Only if it hit that end (a match that starts in
+     * the window could go on past it) are the positions up to the match
+     * tried again over the rest of the message, so that the match is
+     * replaced whole.
+     * @param from Where the search starts: the start of the region for the
+     *     first match, next() for the others
+     * @param lastStart As returned by reset()
+     * @param length The length of the message
+     * @return true if the Matcher found a match.
+     */
+    private static boolean find(Matcher m, int from, int lastStart,
+                                int length) {
+      if (lastStart >= length) {
+        return m.find();
+      }
+      if (from > lastStart) {
+        return false;
+      }
+      m.region(from, lastStart);
+      int end = lastStart;
+      if (m.find()) {
+        if (!m.hitEnd()) {
+          return true;
+        }
+        end = m.start();
+      } else if (!m.hitEnd()) {
+        return false;
+      }
+      for (int i = from; i <= end; i++) {
+        m.region(i, length);
+        if (m.lookingAt()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return The Matcher of this rule from a pooled Matcher array, created
+     *     on first use.
+     */
+    private Matcher matcher(Matcher[] matchers) {
+      Matcher m = matchers[index];
+      if (m == null) {
+        m = pattern.matcher("");
+        if (windowed) {
+          // Boundaries and lookarounds see the text around the window
+          m.useTransparentBounds(true);
+          m.useAnchoringBounds(false);
+        }
+        matchers[index] = m;
+      }
+      return m;
+    }
+
+    /**
+     * Reset the Matcher of the rule to the message, with the region starting
+     * at the search window if the rule has one. A match that starts in the
+     * window is replaced whole, so the end of the window only limits where
+     * the matches start; find() searches up to there.
+     * @param first The position of the first occurrence of the trigger, as
+     *     returned by triggerAt()
+     * @return The last position a match may start at.
+     */
+    private int reset(Matcher m, CharSequence msg, int first) {
+      m.reset(msg);
+      if (!windowed) {
+        return Integer.MAX_VALUE;
+      }
+      m.region(Math.max(0, first - before), msg.length());
+      if (after < 0) {
+        return Integer.MAX_VALUE;
+      }
+      String t = (impliedTrigger != null) ? impliedTrigger : trigger;
+      int last = first;
+      int next;
+      while ((next = TriggerScanner.indexOf(msg, t, caseSensitive,
+          last + 1)) >= 0) {
+        last = next;
+      }
+      return (int) Math.min(Integer.MAX_VALUE,
+          (long) last + t.length() + after);
+    }
+
+    /**
+     * @return true if the replacement of ASCII text is ASCII, so that the
+     *     rule can be applied to the bytes.
+     */
+    private boolean isAscii() {
+      return (replacer != null) ? replacer.isAscii() : template.isAscii();
+    }
+
+    private boolean hasTrigger() {
+      return (literals != null) || (impliedTrigger != null) ||
+          ((trigger != null) && !trigger.isEmpty());
+    }
+
+    private boolean matchesTrigger(CharSequence msg) {
+      return triggerAt(msg) >= 0;
+    }
+
+    /**
+     * @return The position of the first occurrence of the trigger in the
+     *     message (0 for a rule without one, or with a set of literals), or
+     *     -1 if it isn't there.
+     */
+    private int triggerAt(CharSequence msg) {
+      if (literals != null) {
+        return literals.foundIn(msg) ? 0 : -1;
+      }
+      String t = (impliedTrigger != null) ? impliedTrigger : trigger;
+      // The common case: an empty trigger.
+      if ((t == null) || t.isEmpty()) {
+        return 0;
+      }
+
+      return TriggerScanner.indexOf(msg, t, caseSensitive, 0);
+    }
   }
 
   /**
@@ -144,13 +840,52 @@ public class StringRedactor {
    * It contains a version number and an array of RedactionRules.
    */
   private static class RedactionPolicy {
+    // Upper bound on the number of distinct key names whose rule lookup we
+    // remember, so that an unbounded set of keys can't grow the cache forever.
+    private static final int MAX_CACHED_KEYS = 4096;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private int version = -1;
+    private String pseudonymKey;
+    // If set, what a message becomes as soon as any rule matches it
+    private String replaceWholeMessage;
+    private WarmUp warmUp;
+    private RedactionBudget budget;
+    private boolean optimize = true;
+    private boolean compile;
     private List<RedactionRule> rules;
+    // The rules and groups, including those in groups, in policy order
+    private List<RedactionRule> allRules;
+    // The rules that apply to messages, as rewritten by the PolicyOptimizer
+    private List<RedactionRule> messageRules;
+    private List<RedactionRule> keyRules;
+    private boolean hasLoggerRules;
+    private final ConcurrentMap<String, List<RedactionRule>> loggerRuleCache =
+        new ConcurrentHashMap<String, List<RedactionRule>>();
+    private final ConcurrentMap<String, List<RedactionRule>> keyRuleCache =
+        new ConcurrentHashMap<String, List<RedactionRule>>();
+    private final ConcurrentMap<String, JsonRules> jsonRuleCache =
+        new ConcurrentHashMap<String, JsonRules>();
+    // One Matcher per rule, for one redaction at a time
+    private StripedPool<Matcher[]> matcherPool;
+    // The buffers of the messages being redacted
+    private final StripedPool<MessageBuffer> textPool =
+        new StripedPool<MessageBuffer>(new StripedPool.Factory<MessageBuffer>() {
+          @Override
+          public MessageBuffer create() {
+            return new MessageBuffer();
+          }
+        });
 
     private static RedactionPolicy emptyRedactionPolicy() {
       RedactionPolicy policy = new RedactionPolicy();
       policy.version = 1;
       policy.rules = new ArrayList<RedactionRule>();
+      policy.allRules = policy.rules;
+      policy.messageRules = policy.rules;
+      policy.keyRules = policy.rules;
+      policy.matcherPool = newMatcherPool(0);
       return policy;
     }
 
@@ -162,6 +897,30 @@ public class StringRedactor {
       this.rules = rules;
     }
 
+    public void setPseudonymKey(String pseudonymKey) {
+      this.pseudonymKey = pseudonymKey;
+    }
+
+    public void setReplaceWholeMessage(String replaceWholeMessage) {
+      this.replaceWholeMessage = replaceWholeMessage;
+    }
+
+    public void setWarmUp(WarmUp warmUp) {
+      this.warmUp = warmUp;
+    }
+
+    public void setBudget(RedactionBudget budget) {
+      this.budget = budget;
+    }
+
+    public void setOptimize(boolean optimize) {
+      this.optimize = optimize;
+    }
+
+    public void setCompile(boolean compile) {
+      this.compile = compile;
+    }
+
     /**
      * Perform validation checking on the fully constructed JSON, and
      * sets up internal data structures.
@@ -173,11 +932,74 @@ public class StringRedactor {
       } else if (version != 1) {
         throw new RedactionPolicyParseException("Unknown version " + version);
       }
-      for (RedactionRule rule : rules) {
-        rule.postProcess();
+      allRules = new ArrayList<RedactionRule>();
+      messageRules = new ArrayList<RedactionRule>();
+      keyRules = new ArrayList<RedactionRule>();
+      addRules(rules, RedactionRule.NO_GROUPS);
+      if (compile) {
+        for (RedactionRule rule : allRules) {
+          rule.compile();
+        }
+      }
+      if (optimize) {
+        messageRules = PolicyOptimizer.optimize(messageRules);
+      }
+      matcherPool = newMatcherPool(allRules.size());
+      if (warmUp != null) {
+        warmUp.validate();
+      }
+      if (budget != null) {
+        budget.validate();
+      }
+    }
+
+    /**
+     * Post process a list of rules, and add them to the flat lists of
+     * rules. The rules of a group take the place of the group, which keeps
+     * the order of the policy, and each rule remembers its groups.
+     */
+    private void addRules(List<RedactionRule> list, RedactionRule[] groups)
+        throws RedactionPolicyParseException {
+      for (RedactionRule rule : list) {
+        if (rule == null) {
+          throw new RedactionPolicyParseException("A rule cannot be null.");
+        }
+        rule.index = allRules.size();
+        allRules.add(rule);
+        rule.groups = groups;
+        for (RedactionRule group : groups) {
+          rule.groupSearch |= (group.pattern != null);
+        }
+        rule.postProcess(pseudonymKey);
+        if (rule.isGroup()) {
+          hasLoggerRules |= (rule.loggers != null);
+          RedactionRule[] inner = Arrays.copyOf(groups, groups.length + 1);
+          inner[groups.length] = rule;
+          addRules(rule.rules, inner);
+        } else if (rule.isKeyRule()) {
+          keyRules.add(rule);
+        } else {
+          messageRules.add(rule);
+          hasLoggerRules |= (rule.loggers != null);
+        }
       }
     }
 
+    /**
+     * The Matchers are pooled rather than kept per thread, so that their
+     * number doesn't grow with the number of threads that log: a thread
+     * borrows one Matcher array for all the rules of a redaction, and
+     * gives it back when done.
+     */
+    private static StripedPool<Matcher[]> newMatcherPool(final int size) {
+      return new StripedPool<Matcher[]>(new StripedPool.Factory<Matcher[]>() {
+        @Override
+        public Matcher[] create() {
+          return new Matcher[size];
+        }
+      });
+    }
+
     /**
      * The actual work of redaction.
      * @param msg The string to redact
@@ -185,22 +1007,715 @@ public class StringRedactor {
      *         the original is returned.
      */
     private String redact(String msg) {
+      return applyRules(messageRules, msg, null, null);
+    }
+
+    /**
+     * Redaction of a message logged by the given logger at the given
+     * level: only the rules in scope for both are applied.
+     * @param msg The string to redact
+     * @param loggerName The name of the logger, or null if unknown
+     * @param level The name of the level, or null if unknown
+     * @return If any redaction was performed, the redacted string. Otherwise
+     *         the original is returned.
+     */
+    private String redact(String msg, String loggerName, String level) {
+      List<RedactionRule> selected = rulesForLogger(loggerName);
+      return applyRules(selected, msg, loggerScope(selected, loggerName),
+          level);
+    }
+
+    /**
+     * Resolve (and remember) the message rules in scope for the given
+     * logger, preserving the order in which they appear in the policy.
+     * Once the cache is full, the loggers that aren't in it get all the
+     * message rules, whose scope is then checked rule by rule as they are
+     * applied (see {@link #loggerScope(List, String)}), so that a miss
+     * neither makes a list nor looks at every rule.
+     */
+    private List<RedactionRule> rulesForLogger(String loggerName) {
+      if (!hasLoggerRules || (loggerName == null)) {
+        return messageRules;
+      }
+      List<RedactionRule> selected = loggerRuleCache.get(loggerName);
+      if (selected != null) {
+        return selected;
+      }
+      if (loggerRuleCache.size() >= MAX_CACHED_KEYS) {
+        return messageRules;
+      }
+      selected = new ArrayList<RedactionRule>();
+      for (RedactionRule rule : messageRules) {
+        if (rule.inLoggerScope(loggerName)) {
+          selected.add(rule);
+        }
+      }
+      if (selected.isEmpty()) {
+        selected = Collections.emptyList();
+      }
+      loggerRuleCache.putIfAbsent(loggerName, selected);
+      return selected;
+    }
+
+    /**
+     * @return The logger whose scope the rules rulesForLogger() returned
+     *     must still be checked against as they are applied: none if they
+     *     were selected for it.
+     */
+    private String loggerScope(List<RedactionRule> selected,
+                               String loggerName) {
+      return (selected == messageRules) ? loggerName : null;
+    }
+
+    /**
+     * Redact the value of a single key, applying only the rules that
+     * name that key. Values of keys no rule cares about are returned
+     * without being scanned.
+     * @param key The name of the key (context key, map message key)
+     * @param value The value to redact
+     * @param loggerName The name of the logger, or null if unknown
+     * @param level The name of the level, or null if unknown
+     * @return If any redaction was performed, the redacted value. Otherwise
+     *         the original is returned.
+     */
+    private String redactValue(String key, String value, String loggerName,
+                               String level) {
+      if ((key == null) || keyRules.isEmpty()) {
+        return value;
+      }
+      return applyRules(rulesForKey(key), value, loggerName, level);
+    }
+
+    /**
+     * Resolve (and remember) the key rules that apply to the given key,
+     * preserving the order in which they appear in the policy.
+     */
+    private List<RedactionRule> rulesForKey(String key) {
+      List<RedactionRule> selected = keyRuleCache.get(key);
+      if (selected != null) {
+        return selected;
+      }
+      selected = new ArrayList<RedactionRule>();
+      for (RedactionRule rule : keyRules) {
+        if (rule.matchesKey(key)) {
+          selected.add(rule);
+        }
+      }
+      if (selected.isEmpty()) {
+        selected = Collections.emptyList();
+      }
+      if (keyRuleCache.size() < MAX_CACHED_KEYS) {
+        keyRuleCache.putIfAbsent(key, selected);
+      }
+      return selected;
+    }
+
+    /**
+     * Redact a line holding JSON. The line is tokenized with the streaming
+     * parser, and only scalar values are redacted: the rules without keys
+     * apply to every value, the key rules to the values of their fields or
+     * paths. Everything else is copied through verbatim, so the result is
+     * still valid JSON. Anything that doesn't parse as JSON is redacted as
+     * plain text instead.
+     * @param line The JSON text to redact
+     * @param loggerName The name of the logger, or null if unknown
+     * @param level The name of the level, or null if unknown
+     * @return If any redaction was performed, the redacted line. Otherwise
+     *         the original is returned.
+     */
+    private String redactJson(String line, String loggerName, String level) {
+      if (line == null) {
+        return null;
+      }
+      StringBuilder out = null;
+      int last = 0;
+      try {
+        JsonParser parser = JSON_FACTORY.createParser(line);
+        try {
+          JsonToken token;
+          while ((token = parser.nextToken()) != null) {
+            if (!token.isScalarValue() || (token == JsonToken.VALUE_NULL)) {
+              continue;
+            }
+            JsonStreamContext ctx = parser.getParsingContext();
+            String value = parser.getText();
+            String redacted = applyRules(rulesForJsonValue(ctx), value,
+                loggerName, level);
+            if (redacted != value) {
+              int start = (int) parser.getTokenLocation().getCharOffset();
+              int end = (int) parser.getCurrentLocation().getCharOffset();
+              if (out == null) {
+                out = new StringBuilder(line.length() + 16);
+              }
+              out.append(line, last, start).append('"');
+              JsonStringEncoder.getInstance().quoteAsString(redacted, out);
+              out.append('"');
+              last = end;
+            }
+          }
+        } finally {
+          parser.close();
+        }
+      } catch (IOException e) {
+        // Not (entirely) JSON, redact it the usual way.
+        return redact(line, loggerName, level);
+      }
+      if (out == null) {
+        return line;
+      }
+      return out.append(line, last, line.length()).toString();
+    }
+
+    /**
+     * Redaction of encoded JSON. ASCII JSON in an ASCII compatible charset
+     * is parsed from the bytes, and only the redacted values are encoded;
+     * anything else is decoded and redacted as a String.
+     * @return true if anything was redacted, in which case out holds the
+     *     redacted bytes.
+     * @see #redactJson(String, String, String)
+     */
+    private boolean redactJson(byte[] bytes, int offset, int length,
+                               Charset charset, String loggerName,
+                               String level, RedactionBuffer out) {
+      if (!isAsciiCompatible(charset) ||
+          !AsciiSequence.isAscii(bytes, offset, length)) {
+        String line = new String(bytes, offset, length, charset);
+        String redacted = redactJson(line, loggerName, level);
+        if (redacted == line) {
+          return false;
+        }
+        encode(redacted, charset, out);
+        return true;
+      }
+      byte[] dst = null;
+      int pos = 0;
+      int last = offset;
+      try {
+        JsonParser parser = JSON_FACTORY.createParser(bytes, offset, length);
+        try {
+          JsonToken token;
+          while ((token = parser.nextToken()) != null) {
+            if (!token.isScalarValue() || (token == JsonToken.VALUE_NULL)) {
+              continue;
+            }
+            JsonStreamContext ctx = parser.getParsingContext();
+            String value = parser.getText();
+            String redacted = applyRules(rulesForJsonValue(ctx), value,
+                loggerName, level);
+            if (redacted != value) {
+              // The offsets are from the start of the JSON
+              int start = offset +
+                  (int) parser.getTokenLocation().getByteOffset();
+              int end = offset +
+                  (int) parser.getCurrentLocation().getByteOffset();
+              StringBuilder sb = new StringBuilder(redacted.length() + 2);
+              sb.append('"');
+              JsonStringEncoder.getInstance().quoteAsString(redacted, sb);
+              byte[] quoted = sb.append('"').toString().getBytes(charset);
+              if (dst == null) {
+                dst = out.beginWrite(length + 16);
+              }
+              dst = out.ensureCapacity(pos, start - last + quoted.length);
+              System.arraycopy(bytes, last, dst, pos, start - last);
+              pos += start - last;
+              System.arraycopy(quoted, 0, dst, pos, quoted.length);
+              pos += quoted.length;
+              last = end;
+            }
+          }
+        } finally {
+          parser.close();
+        }
+      } catch (IOException e) {
+        // Not (entirely) JSON, redact it the usual way.
+        return redact(bytes, offset, length, charset, loggerName, level, out);
+      }
+      if (dst == null) {
+        return false;
+      }
+      int rest = offset + length - last;
+      dst = out.ensureCapacity(pos, rest);
+      System.arraycopy(bytes, last, dst, pos, rest);
+      out.commitWrite(pos + rest);
+      return true;
+    }
+
+    /**
+     * The rules that apply to a JSON value, in policy order. Apart from the
+     * path rules this only depends on the field name, so it's cached per
+     * name like the key rules; only the path rules are checked against the
+     * path of each value.
+     */
+    private List<RedactionRule> rulesForJsonValue(JsonStreamContext ctx) {
+      if (keyRules.isEmpty()) {
+        return messageRules;
+      }
+      JsonStreamContext c = ctx;
+      while ((c != null) && c.inArray()) {
+        c = c.getParent();
+      }
+      String name = (c == null) ? null : c.getCurrentName();
+      if (name == null) {
+        // Outside of any object, where no key or path matches
+        return messageRules;
+      }
+      JsonRules selected = jsonRuleCache.get(name);
+      if (selected == null) {
+        selected = new JsonRules(allRules, name);
+        if (jsonRuleCache.size() < MAX_CACHED_KEYS) {
+          jsonRuleCache.putIfAbsent(name, selected);
+        }
+      }
+      return selected.forPath(ctx);
+    }
+
+    /**
+     * The rules that apply to the values of a JSON field: those that apply
+     * whatever the path, and the path rules that only apply at some paths.
+     * The lists for the combinations of path rules that match are made as
+     * they are needed.
+     */
+    private static final class JsonRules {
+      // The most path rules whose combinations are cached
+      private static final int MAX_CACHED_PATH_RULES = 8;
+
+      // In policy order, with the bit of the path rules in paths (-1 for
+      // the rules that apply whatever the path)
+      private final RedactionRule[] candidates;
+      private final int[] bits;
+      private final RedactionRule[] paths;
+      private final AtomicReferenceArray<List<RedactionRule>> lists;
+
+      JsonRules(List<RedactionRule> allRules, String name) {
+        List<RedactionRule> selected = new ArrayList<RedactionRule>();
+        List<RedactionRule> pathRules = new ArrayList<RedactionRule>();
+        List<Integer> pathBits = new ArrayList<Integer>();
+        for (RedactionRule rule : allRules) {
+          if (rule.isGroup()) {
+            continue;
+          }
+          if (!rule.isKeyRule() || rule.matchesKey(name)) {
+            selected.add(rule);
+            pathBits.add(-1);
+          } else if (rule.pathSegments != null) {
+            selected.add(rule);
+            pathBits.add(pathRules.size());
+            pathRules.add(rule);
+          }
+        }
+        candidates = selected.toArray(new RedactionRule[0]);
+        bits = new int[candidates.length];
+        for (int i = 0; i < bits.length; i++) {
+          bits[i] = pathBits.get(i);
+        }
+        paths = pathRules.toArray(new RedactionRule[0]);
+        lists = new AtomicReferenceArray<List<RedactionRule>>(
+            1 << Math.min(paths.length, MAX_CACHED_PATH_RULES));
+      }
+
+      List<RedactionRule> forPath(JsonStreamContext ctx) {
+        if (paths.length > MAX_CACHED_PATH_RULES) {
+          List<RedactionRule> selected = new ArrayList<RedactionRule>();
+          for (int i = 0; i < candidates.length; i++) {
+            if ((bits[i] < 0) || candidates[i].matchesPath(ctx)) {
+              selected.add(candidates[i]);
+            }
+          }
+          return selected;
+        }
+        int mask = 0;
+        for (int i = 0; i < paths.length; i++) {
+          if (paths[i].matchesPath(ctx)) {
+            mask |= 1 << i;
+          }
+        }
+        List<RedactionRule> selected = lists.get(mask);
+        if (selected == null) {
+          selected = new ArrayList<RedactionRule>();
+          for (int i = 0; i < candidates.length; i++) {
+            if ((bits[i] < 0) || ((mask & (1 << bits[i])) != 0)) {
+              selected.add(candidates[i]);
+            }
+          }
+          lists.set(mask, selected);
+        }
+        return selected;
+      }
+    }
+
+    /**
+     * Redaction of encoded text. When the charset is ASCII compatible and
+     * the bytes are all ASCII, the rules run directly on the bytes through
+     * an {@link AsciiSequence} view, and plain replacements are copied as
+     * bytes, so nothing is decoded. Otherwise (or from the first rule whose
+     * replacement isn't plain ASCII text) the text is decoded and redacted
+     * as a String.
+     * @return true if anything was redacted, in which case out holds the
+     *     redacted bytes.
+     */
+    private boolean redact(byte[] bytes, int offset, int length,
+                           Charset charset, String loggerName, String level,
+                           RedactionBuffer out) {
+      if ((budget == null) || WarmUp.isWarmingUp()) {
+        return redactBytes(bytes, offset, length, charset, loggerName, level,
+            out);
+      }
+      long start = System.nanoTime();
+      if (budget.enter(start)) {
+        String msg = new String(bytes, offset, length, charset);
+        List<RedactionRule> selected = rulesForLogger(loggerName);
+        String redacted = applyDegraded(selected, msg,
+            loggerScope(selected, loggerName), level);
+        if (redacted == msg) {
+          return false;
+        }
+        encode(redacted, charset, out);
+        return true;
+      }
+      try {
+        return redactBytes(bytes, offset, length, charset, loggerName, level,
+            out);
+      } finally {
+        budget.spent(System.nanoTime() - start);
+      }
+    }
+
+    private boolean redactBytes(byte[] bytes, int offset, int length,
+                                Charset charset, String loggerName,
+                                String level, RedactionBuffer out) {
+      List<RedactionRule> selected = rulesForLogger(loggerName);
+      String scope = loggerScope(selected, loggerName);
+      if (!isAsciiCompatible(charset) ||
+          !AsciiSequence.isAscii(bytes, offset, length)) {
+        String msg = new String(bytes, offset, length, charset);
+        String redacted = applyRules(selected, 0, msg, scope, level, null,
+            false);
+        if (redacted == msg) {
+          return false;
+        }
+        encode(redacted, charset, out);
+        return true;
+      }
+
+      byte[] cur = bytes;
+      int curOffset = offset;
+      int curLength = length;
+      boolean changed = false;
+      Matcher[] matchers = null;
+      try {
+        for (int i = 0, n = selected.size(); i < n; i++) {
+          RedactionRule rule = selected.get(i);
+          if (rule.groups.length > 0) {
+            if ((matchers == null) && rule.groupSearch) {
+              matchers = matcherPool.acquire();
+            }
+            int next = skipGroups(selected, i,
+                out.view.set(cur, curOffset, curLength), scope, level,
+                matchers);
+            if (next != i) {
+              i = next - 1;
+              continue;
+            }
+          }
+          if (!rule.matchesLevel(level) || !rule.matchesLogger(scope)) {
+            continue;
+          }
+          if (rule.literals != null) {
+            int replaced = rule.literals.replace(
+                out.view.set(cur, curOffset, curLength), cur, curOffset, out);
+            if (replaced >= 0) {
+              if (replaceWholeMessage != null) {
+                encode(replaceWholeMessage, charset, out);
+                return true;
+              }
+              cur = out.array();
+              curOffset = 0;
+              curLength = replaced;
+              changed = true;
+            }
+            continue;
+          }
+          if (!rule.isAscii()) {
+            String msg = new String(cur, curOffset, curLength,
+                StandardCharsets.US_ASCII);
+            // On from this rule, with the groups checked so far
+            String redacted = applyRules(selected, i, msg, scope, level,
+                matchers, false);
+            if (redacted == msg) {
+              return changed;
+            }
+            encode(redacted, charset, out);
+            return true;
+          }
+          AsciiSequence view = out.view.set(cur, curOffset, curLength);
+          int at = rule.triggerAt(view);
+          if (at < 0) {
+            continue;
+          }
+          int replaced = (rule.replacer == null) ? -2 : rule.replacer.replace(
+              view, cur, curOffset, rule.maxMatches, out);
+          if (replaced >= 0) {
+            if (replaceWholeMessage != null) {
+              encode(replaceWholeMessage, charset, out);
+              return true;
+            }
+            cur = out.array();
+            curOffset = 0;
+            curLength = replaced;
+            changed = true;
+            if (rule.terminal) {
+              break;
+            }
+            continue;
+          }
+          if (replaced == -1) {
+            continue;
+          }
+          if (matchers == null) {
+            matchers = matcherPool.acquire();
+          }
+          Matcher m = rule.matcher(matchers);
+          int lastStart = rule.reset(m, view, at);
+          if (RedactionRule.find(m, m.regionStart(), lastStart, curLength)) {
+            if (replaceWholeMessage != null) {
+              encode(replaceWholeMessage, charset, out);
+              return true;
+            }
+            final ReplacementTemplate template = rule.template;
+            byte[] dst = out.beginWrite(curLength);
+            int pos = 0;
+            int last = 0;
+            int matches = 0;
+            do {
+              int count = m.start() - last;
+              dst = out.ensureCapacity(pos, count);
+              System.arraycopy(cur, curOffset + last, dst, pos, count);
+              pos += count;
+              pos = template.appendTo(out, pos, cur, curOffset, m);
+              last = m.end();
+            } while ((++matches < rule.maxMatches) && RedactionRule.find(m,
+                RedactionRule.next(m), lastStart, curLength));
+            dst = out.ensureCapacity(pos, curLength - last);
+            System.arraycopy(cur, curOffset + last, dst, pos, curLength - last);
+            pos += curLength - last;
+            out.commitWrite(pos);
+            cur = out.array();
+            curOffset = 0;
+            curLength = pos;
+            changed = true;
+            if (rule.terminal) {
+              break;
+            }
+          }
+        }
+        return changed;
+      } finally {
+        if (matchers != null) {
+          matcherPool.release(matchers);
+        }
+      }
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+      return StandardCharsets.UTF_8.equals(charset) ||
+          StandardCharsets.US_ASCII.equals(charset) ||
+          StandardCharsets.ISO_8859_1.equals(charset);
+    }
+
+    private static void encode(String msg, Charset charset, RedactionBuffer out) {
+      byte[] encoded = msg.getBytes(charset);
+      out.set(encoded, 0, encoded.length);
+    }
+
+    /**
+     * Apply the rules in order. The logger scope is checked here only for
+     * rule lists that weren't already selected by logger (pass null
+     * otherwise); the level scope is always checked here. With a budget,
+     * the time this takes is accounted for (unless warming up), and the
+     * rules are applied in the degraded mode while the budget is exceeded.
+     */
+    private String applyRules(List<RedactionRule> rules, String msg,
+                              String loggerName, String level) {
+      if ((budget == null) || (msg == null) || WarmUp.isWarmingUp()) {
+        return applyRules(rules, 0, msg, loggerName, level, null, false);
+      }
+      long start = System.nanoTime();
+      if (budget.enter(start)) {
+        return applyDegraded(rules, msg, loggerName, level);
+      }
+      try {
+        return applyRules(rules, 0, msg, loggerName, level, null, false);
+      } finally {
+        budget.spent(System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Apply the rules in the degraded mode of the budget.
+     */
+    private String applyDegraded(List<RedactionRule> rules, String msg,
+                                 String loggerName, String level) {
+      switch (budget.getMode()) {
+        case MASK:
+          for (int i = 0, n = rules.size(); i < n; i++) {
+            RedactionRule rule = rules.get(i);
+            if (rule.matchesLevel(level) && rule.matchesLogger(loggerName) &&
+                rule.matchesTrigger(msg)) {
+              return budget.getMask();
+            }
+          }
+          return msg;
+        case TRIGGERS_ONLY:
+          return applyRules(rules, 0, msg, loggerName, level, null, true);
+        default:
+          if (budget.isBelowLevel(level)) {
+            return budget.getMask();
+          }
+          return applyRules(rules, 0, msg, loggerName, level, null, false);
+      }
+    }
+
+    /**
+     * Like {@link #applyRules(List, String, String, String)}, with the
+     * Matchers of a caller that already borrowed them from the pool (or
+     * null). Matchers are only borrowed once a rule's trigger matches, so
+     * messages that no rule is triggered by never touch the pool.
+     * @param from The index of the first rule to apply; the groups of the
+     *     rules before it were already checked against the message
+     * @param triggeredOnly true to skip the rules without a trigger.
+     */
+    private String applyRules(List<RedactionRule> rules, int from, String msg,
+                              String loggerName, String level,
+                              Matcher[] borrowed, boolean triggeredOnly) {
       if (msg == null) {
         return null;
       }
-      String original = msg;
-      boolean matched = false;
-      for (RedactionRule rule : rules) {
-        if (rule.matchesTrigger(msg)) {
-          Matcher m = rule.matcherTL.get();
-          m.reset(msg);
-          if (m.find()) {
-            msg = m.replaceAll(rule.replace);
-            matched = true;
+      // The message as the rules so far left it: msg until a rule changes
+      // it, then the text of the buffer
+      CharSequence text = msg;
+      MessageBuffer buffer = null;
+      Matcher[] matchers = borrowed;
+      try {
+        for (int i = from, n = rules.size(); i < n; i++) {
+          RedactionRule rule = rules.get(i);
+          if (rule.groups.length > 0) {
+            if ((matchers == null) && rule.groupSearch) {
+              matchers = matcherPool.acquire();
+            }
+            int next = skipGroups(rules, i, text, loggerName, level, matchers);
+            if (next != i) {
+              i = next - 1;
+              continue;
+            }
+          }
+          if (triggeredOnly && !rule.hasTrigger()) {
+            continue;
+          }
+          if (rule.literals != null) {
+            if (rule.matchesLevel(level) && rule.matchesLogger(loggerName)) {
+              if (buffer == null) {
+                buffer = textPool.acquire();
+              }
+              if (rule.literals.replace(text, buffer.beginWrite())) {
+                if (replaceWholeMessage != null) {
+                  return replaceWholeMessage;
+                }
+                text = buffer.commitWrite();
+              }
+            }
+            continue;
+          }
+          if (!rule.matchesLevel(level) || !rule.matchesLogger(loggerName)) {
+            continue;
+          }
+          int at = rule.triggerAt(text);
+          if (at < 0) {
+            continue;
+          }
+          if ((buffer == null) && (rule.replacer != null)) {
+            buffer = textPool.acquire();
+          }
+          int replaced = (rule.replacer == null) ? -2 : rule.replacer.replace(
+              text, rule.maxMatches, buffer.beginWrite());
+          if (replaced >= 0) {
+            if (replaceWholeMessage != null) {
+              return replaceWholeMessage;
+            }
+            text = buffer.commitWrite();
+            if (rule.terminal) {
+              break;
+            }
+            continue;
+          }
+          if (replaced == -1) {
+            continue;
+          }
+          if (matchers == null) {
+            matchers = matcherPool.acquire();
+          }
+          Matcher m = rule.matcher(matchers);
+          int lastStart = rule.reset(m, text, at);
+          if (RedactionRule.find(m, m.regionStart(), lastStart,
+              text.length())) {
+            if (replaceWholeMessage != null) {
+              return replaceWholeMessage;
+            }
+            if (buffer == null) {
+              buffer = textPool.acquire();
+            }
+            rule.replaceAll(m, lastStart, text, buffer.beginWrite());
+            text = buffer.commitWrite();
+            if (rule.terminal) {
+              break;
+            }
+          }
+        }
+        // The only String made of the redacted message, before the buffer
+        // goes back to the pool
+        return (text == msg) ? msg : text.toString();
+      } finally {
+        if ((matchers != null) && (borrowed == null)) {
+          matcherPool.release(matchers);
+        }
+        if ((buffer != null) && buffer.isPoolable()) {
+          textPool.release(buffer);
+        }
+      }
+    }
+
+    /**
+     * Check the groups of rules.get(i) that the previous rule isn't in, in
+     * order from the outermost one. The groups it shares with the previous
+     * rule were already checked, so a group is checked once per message,
+     * against the message as it is when its first rule is reached.
+     * @return i if the rule's groups apply, else the index of the first
+     *     rule after those of the outermost group that doesn't apply.
+     */
+    private static int skipGroups(List<RedactionRule> rules, int i,
+                                  CharSequence msg, String loggerName,
+                                  String level, Matcher[] matchers) {
+      RedactionRule[] groups = rules.get(i).groups;
+      int depth = 0;
+      if (i > 0) {
+        RedactionRule[] previous = rules.get(i - 1).groups;
+        while ((depth < groups.length) && (depth < previous.length) &&
+            (groups[depth] == previous[depth])) {
+          depth++;
+        }
+      }
+      for (; depth < groups.length; depth++) {
+        RedactionRule group = groups[depth];
+        if (!group.groupApplies(msg, loggerName, level, matchers)) {
+          int next = i + 1;
+          while ((next < rules.size()) &&
+              (rules.get(next).groups.length > depth) &&
+              (rules.get(next).groups[depth] == group)) {
+            next++;
           }
+          return next;
         }
       }
-      return matched ? msg : original;
+      return i;
     }
   }
 
@@ -251,6 +1766,9 @@ public class StringRedactor {
     }
     policy.postProcess();
     sr.policy = policy;
+    if (policy.warmUp != null) {
+      policy.warmUp.start(sr);
+    }
     return sr;
   }
 
@@ -280,9 +1798,50 @@ public class StringRedactor {
     }
     policy.postProcess();
     sr.policy = policy;
+    if (policy.warmUp != null) {
+      policy.warmUp.start(sr);
+    }
     return sr;
   }
 
+  /**
+   * Wait for the warm up of the policy (its "warmUp" section) to finish.
+   * Redaction works all along; this is for applications that would rather
+   * not take traffic before the redaction code is compiled.
+   * @param timeout The longest time to wait
+   * @param unit The unit of the timeout
+   * @return true if the warm up finished, or the policy has none.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitWarmUp(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return (policy.warmUp == null) || policy.warmUp.await(timeout, unit);
+  }
+
+  /**
+   * @return The budget of the policy (its "budget" section), whose getters
+   *     tell whether redaction is degraded and how often it was, or null if
+   *     the policy has none.
+   */
+  public RedactionBudget getBudget() {
+    return policy.budget;
+  }
+
+  /**
+   * @return The rules and groups of the policy, in order, with the rules
+   *     of a group right after it.
+   */
+  List<RedactionRule> getRules() {
+    return Collections.unmodifiableList(policy.allRules);
+  }
+
+  /**
+   * @return The rules applied to messages, as rewritten by the optimizer.
+   */
+  List<RedactionRule> getMessageRules() {
+    return Collections.unmodifiableList(policy.messageRules);
+  }
+
   /**
    * The actual redaction - given a message, look through the list of
    * redaction rules and apply if matching. If so, return the redacted
@@ -293,4 +1852,126 @@ public class StringRedactor {
   public String redact(String msg) {
     return policy.redact(msg);
   }
+
+  /**
+   * Like {@link #redact(String)}, but only the rules in scope for the given
+   * logger and level are applied. The rules in scope for a logger are
+   * resolved once and cached, so loggers that need few or no rules skip
+   * almost all of the work. Rules without "loggers" or "levels" are in scope
+   * everywhere, and a null logger or level puts every rule in scope.
+   * @param msg The message to examine.
+   * @param loggerName The name of the logger the message was logged with.
+   * @param level The name of the level (e.g. "INFO") of the message.
+   * @return The (potentially) redacted message.
+   */
+  public String redact(String msg, String loggerName, String level) {
+    return policy.redact(msg, loggerName, level);
+  }
+
+  /**
+   * Redact encoded text, such as the output of a layout, in scope for the
+   * given logger and level like {@link #redact(String, String, String)}.
+   * For ASCII text in an ASCII compatible charset (UTF-8, US-ASCII,
+   * ISO-8859-1) the rules are matched on the bytes directly, without
+   * decoding them. Anything else is decoded, redacted and encoded again.
+   * @param bytes The array holding the encoded text.
+   * @param offset The offset of the text in the array.
+   * @param length The number of bytes of text.
+   * @param charset The charset of the text.
+   * @param loggerName The name of the logger, or null if unknown.
+   * @param level The name of the level, or null if unknown.
+   * @param out Receives the redacted bytes, if any redaction was performed.
+   * @return true if the text was redacted (and out holds the result), false
+   *     if it was left as is.
+   */
+  public boolean redact(byte[] bytes, int offset, int length, Charset charset,
+                        String loggerName, String level, RedactionBuffer out) {
+    return policy.redact(bytes, offset, length, charset, loggerName, level, out);
+  }
+
+  /**
+   * Redact a message holding JSON, such as a line written by a JSON
+   * layout. Only the scalar values are redacted: rules without "keys" or
+   * "paths" apply to every value, and the other rules only to the values
+   * of the fields or paths they name. The structure of the JSON and all
+   * unchanged values are copied through verbatim, so the result stays
+   * valid JSON. A message that isn't JSON is redacted like
+   * {@link #redact(String)} does.
+   * @param json The JSON message to examine.
+   * @return The (potentially) redacted message.
+   */
+  public String redactJson(String json) {
+    return policy.redactJson(json, null, null);
+  }
+
+  /**
+   * Like {@link #redactJson(String)}, but only the rules in scope for the
+   * given logger and level are applied, like
+   * {@link #redact(String, String, String)} does.
+   * @param json The JSON message to examine.
+   * @param loggerName The name of the logger, or null if unknown.
+   * @param level The name of the level (e.g. "INFO"), or null if unknown.
+   * @return The (potentially) redacted message.
+   */
+  public String redactJson(String json, String loggerName, String level) {
+    return policy.redactJson(json, loggerName, level);
+  }
+
+  /**
+   * Redact encoded JSON, such as the output of a JSON layout, like
+   * {@link #redactJson(String, String, String)}. ASCII JSON in an ASCII
+   * compatible charset (UTF-8, US-ASCII, ISO-8859-1) is parsed from the
+   * bytes, without decoding it into a String.
+   * @param bytes The array holding the encoded JSON.
+   * @param offset The offset of the JSON in the array.
+   * @param length The number of bytes of JSON.
+   * @param charset The charset of the JSON.
+   * @param loggerName The name of the logger, or null if unknown.
+   * @param level The name of the level, or null if unknown.
+   * @param out Receives the redacted bytes, if any redaction was performed.
+   * @return true if the JSON was redacted (and out holds the result), false
+   *     if it was left as is.
+   */
+  public boolean redactJson(byte[] bytes, int offset, int length,
+                            Charset charset, String loggerName, String level,
+                            RedactionBuffer out) {
+    return policy.redactJson(bytes, offset, length, charset, loggerName,
+        level, out);
+  }
+
+  /**
+   * Redact the value associated with a key, such as a ThreadContext/MDC
+   * entry or a MapMessage field. Only rules whose "keys" list names this
+   * key are applied; the values of all other keys are returned untouched
+   * without being scanned.
+   * @param key The key the value belongs to.
+   * @param value The value to examine.
+   * @return The (potentially) redacted value.
+   */
+  public String redactValue(String key, String value) {
+    return policy.redactValue(key, value, null, null);
+  }
+
+  /**
+   * Like {@link #redactValue(String, String)}, but only the key rules in
+   * scope for the given logger and level are applied.
+   * @param key The key the value belongs to.
+   * @param value The value to examine.
+   * @param loggerName The name of the logger, or null if unknown.
+   * @param level The name of the level (e.g. "INFO"), or null if unknown.
+   * @return The (potentially) redacted value.
+   */
+  public String redactValue(String key, String value, String loggerName,
+                            String level) {
+    return policy.redactValue(key, value, loggerName, level);
+  }
+
+  /**
+   * @return true if the policy contains any rules that target keys, i.e.
+   *     if calling {@link #redactValue(String, String)} can ever change a
+   *     value.
+   */
+  public boolean hasKeyRules() {
+    return !policy.keyRules.isEmpty();
+  }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small lock free pool of reusable objects, such as Matchers, whose size
+ * depends on the number of CPUs rather than on the number of threads.
+ * <p/>
+ * A ThreadLocal keeps one object alive per thread that ever used it, which
+ * adds up with large thread pools and defeats the purpose with virtual
+ * threads, where every short lived task would create and drop its own. The
+ * pool instead has a fixed number of slots; a thread takes an object out
+ * of a slot picked from its id and puts it back when done. If the slots it
+ * probes are empty a new object is created, and if they are full when it
+ * is returned the object is left to the garbage collector, so the pool
+ * never holds more than its number of slots.
+ */
+final class StripedPool<T> {
+  /** Creates the pooled objects. */
+  interface Factory<T> {
+    T create();
+  }
+
+  // How many slots acquire() and release() look at before giving up
+  private static final int PROBES = 4;
+  private static final int MAX_SLOTS = 256;
+
+  private final AtomicReferenceArray<T> slots;
+  private final int mask;
+  private final Factory<T> factory;
+
+  StripedPool(Factory<T> factory) {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int size = Integer.highestOneBit(Math.max(PROBES, cpus * 2) - 1) << 1;
+    this.slots = new AtomicReferenceArray<T>(Math.min(size, MAX_SLOTS));
+    this.mask = slots.length() - 1;
+    this.factory = factory;
+  }
+
+  private static int stripe() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return A pooled object, or a new one if none is at hand. Give it back
+   *     with {@link #release(Object)} once done.
+   */
+  T acquire() {
+    int start = stripe();
+    for (int i = 0; i < PROBES; i++) {
+      int slot = (start + i) & mask;
+      T item = slots.get(slot);
+      if ((item != null) && slots.compareAndSet(slot, item, null)) {
+        return item;
+      }
+    }
+    return factory.create();
+  }
+
+  /**
+   * Return an object to the pool. It must not be used afterwards.
+   */
+  void release(T item) {
+    int start = stripe();
+    for (int i = 0; i < PROBES; i++) {
+      int slot = (start + i) & mask;
+      if ((slots.get(slot) == null) && slots.compareAndSet(slot, null, item)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return The number of slots, i.e. the most objects the pool keeps.
+   */
+  int capacity() {
+    return slots.length();
+  }
+
+  /**
+   * @return The number of objects in the pool right now.
+   */
+  int size() {
+    int size = 0;
+    for (int i = 0; i < slots.length(); i++) {
+      if (slots.get(i) != null) {
+        size++;
+      }
+    }
+    return size;
+  }
+}
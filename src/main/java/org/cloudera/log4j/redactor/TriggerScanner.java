@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+/**
+ * Entry point for trigger lookup. This is the Java 8 version, which always
+ * uses the scalar code. The jar is a multi-release jar, and on JDK 17 and
+ * later this class is replaced by the one in META-INF/versions/17, which
+ * picks a vectorized implementation when the JVM provides the Vector API.
+ */
+final class TriggerScanner {
+
+  /**
+   * System property to set to "false" to turn off the vectorized scanner
+   * on JVMs that support it.
+   */
+  static final String VECTORIZE_PROPERTY = "logredactor.vectorize";
+
+  private TriggerScanner() {}
+
+  /**
+   * @return true if trigger lookup uses SIMD instructions on this JVM.
+   */
+  static boolean isVectorized() {
+    return false;
+  }
+
+  /**
+   * Find the first occurrence of the trigger in the message.
+   * @param msg The message to search
+   * @param trigger The (non-empty) trigger to look for
+   * @param caseSensitive Whether to compare case sensitively
+   * @param from The position to start the search at
+   * @return The position of the trigger, or -1 if it isn't found.
+   */
+  static int indexOf(String msg, String trigger, boolean caseSensitive,
+                     int from) {
+    return ScalarScanner.indexOf(msg, trigger, caseSensitive, from);
+  }
+
+  /**
+   * Find the first occurrence of the trigger in a CharSequence that isn't
+   * necessarily a String.
+   * @see #indexOf(String, String, boolean, int)
+   */
+  static int indexOf(CharSequence msg, String trigger, boolean caseSensitive,
+                     int from) {
+    return ScalarScanner.indexOf(msg, trigger, caseSensitive, from);
+  }
+}
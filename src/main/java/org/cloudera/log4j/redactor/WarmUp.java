@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.cloudera.log4j.redactor.StringRedactor.RedactionRule;
+
+/**
+ * The "warmUp" section of a policy: redact made up messages in the
+ * background right after the policy is loaded, so that the JIT compiles
+ * the redaction code and the regular expressions of the rules before the
+ * first real messages arrive, rather than while they do.
+ * <p/>
+ * The messages are a few typical log lines that no rule should match, and
+ * for every rule a line with its trigger and a line with text its search
+ * matches (made up from the regular expression), plus the "samples" of the
+ * section. Every message is redacted as a String and as bytes, as many
+ * times as "iterations" says or until "millis" milliseconds have passed,
+ * whichever comes first, by "threads" daemon threads. The time they take
+ * isn't charged to the budget of the policy.
+ */
+final class WarmUp {
+  private static final String[] SYNTHETIC = {
+      "Starting service on port 8080",
+      "GET /api/v1/items?page=2 returned 200 in 12 ms",
+      "Connection to db01.example.com:5432 established after 3 attempts",
+      "Checkpoint 1842 completed: 3 files, 16384 bytes, 0 errors",
+  };
+
+  private int iterations = 10000;
+  private long millis = 5000;
+  private int threads = 1;
+  private List<String> samples;
+  private CountDownLatch finished;
+
+  public void setIterations(int iterations) {
+    this.iterations = iterations;
+  }
+
+  public void setMillis(long millis) {
+    this.millis = millis;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public void setSamples(List<String> samples) {
+    this.samples = samples;
+  }
+
+  void validate() throws RedactionPolicyParseException {
+    if ((iterations < 0) || (millis < 0)) {
+      throw new RedactionPolicyParseException("The warm up iterations and " +
+          "millis cannot be negative.");
+    }
+    if (threads < 1) {
+      throw new RedactionPolicyParseException("The warm up needs at least " +
+          "one thread.");
+    }
+    if (samples != null) {
+      for (String sample : samples) {
+        if (sample == null) {
+          throw new RedactionPolicyParseException("A warm up sample cannot " +
+              "be null.");
+        }
+      }
+    }
+  }
+
+  /**
+   * Start warming up the redactor in the background.
+   */
+  void start(final StringRedactor redactor) {
+    final List<String> messages = new ArrayList<String>();
+    final List<String[]> values = new ArrayList<String[]>();
+    collectSamples(redactor, messages, values);
+    final AtomicInteger remaining = new AtomicInteger(iterations);
+    final long deadline = System.nanoTime() +
+        TimeUnit.MILLISECONDS.toNanos(millis);
+    finished = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new WarmUpThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            RedactionBuffer out = new RedactionBuffer();
+            while ((remaining.getAndDecrement() > 0) &&
+                (System.nanoTime() - deadline < 0)) {
+              exercise(redactor, messages, values, out);
+            }
+          } catch (RuntimeException e) {
+            // The same message logged for real would fail just the same;
+            // there is no one to tell here.
+          } finally {
+            finished.countDown();
+          }
+        }
+      }, "redactor-warm-up-" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * @return true if the current thread is warming up a redactor.
+   */
+  static boolean isWarmingUp() {
+    return Thread.currentThread() instanceof WarmUpThread;
+  }
+
+  private static final class WarmUpThread extends Thread {
+    WarmUpThread(Runnable runnable, String name) {
+      super(runnable, name);
+    }
+  }
+
+  /**
+   * @return true if the warm up finished within the timeout.
+   */
+  boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return (finished == null) || finished.await(timeout, unit);
+  }
+
+  private static void exercise(StringRedactor redactor, List<String> messages,
+                               List<String[]> values, RedactionBuffer out) {
+    for (String msg : messages) {
+      redactor.redact(msg);
+      byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+      redactor.redact(bytes, 0, bytes.length, StandardCharsets.UTF_8, null,
+          null, out);
+    }
+    for (String[] value : values) {
+      redactor.redactValue(value[0], value[1]);
+    }
+  }
+
+  private void collectSamples(StringRedactor redactor, List<String> messages,
+                              List<String[]> values) {
+    for (String msg : SYNTHETIC) {
+      messages.add(msg);
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 6; i++) {
+      sb.append("the quick brown fox jumps over the lazy dog ");
+    }
+    messages.add(sb.toString());
+    for (RedactionRule rule : redactor.getRules()) {
+      if (rule.isGroup()) {
+        continue;
+      }
+      // What it takes to get through the groups of the rule
+      StringBuilder context = new StringBuilder();
+      for (RedactionRule group : rule.getGroups()) {
+        String trigger = group.getTrigger();
+        if ((trigger != null) && !trigger.isEmpty()) {
+          context.append(trigger).append(' ');
+        }
+        String match = (group.getSearch() != null) ? sampleOf(group) : null;
+        if (match != null) {
+          context.append(match).append(' ');
+        }
+      }
+      if (rule.isKeyValueRule()) {
+        String explicit = rule.getTrigger();
+        if ((explicit != null) && !explicit.isEmpty()) {
+          context.append(explicit).append(' ');
+        }
+        messages.add(context + "user=bob " + rule.getValuesOf().get(0) +
+            "=s3cr3t timeout=30");
+        continue;
+      }
+      String match = sampleOf(rule);
+      if (rule.isKeyRule()) {
+        if ((match != null) && (rule.getKeys() != null)) {
+          values.add(new String[]{rule.getKeys().get(0), match});
+        }
+        continue;
+      }
+      String trigger = triggerOf(rule);
+      if (trigger != null) {
+        messages.add(context + "processing " + trigger + " for request 42");
+      }
+      if (match != null) {
+        String explicit = rule.getTrigger();
+        if ((explicit != null) && !explicit.isEmpty()) {
+          context.append(explicit).append(' ');
+        }
+        messages.add(context + "user request " + match + " completed");
+      }
+    }
+    if (samples != null) {
+      messages.addAll(samples);
+    }
+  }
+
+  private static String triggerOf(RedactionRule rule) {
+    if (rule.getImpliedTrigger() != null) {
+      return rule.getImpliedTrigger();
+    }
+    String trigger = rule.getTrigger();
+    return ((trigger == null) || trigger.isEmpty()) ? null : trigger;
+  }
+
+  /**
+   * @return A text the search of the rule matches, or null if we can't
+   *     make one up.
+   */
+  private static String sampleOf(RedactionRule rule) {
+    int flags = rule.isCaseSensitive() ? 0 : Pattern.CASE_INSENSITIVE;
+    Pattern pattern = Pattern.compile(rule.getSearch(), flags);
+    RegexTree.Node root = RegexTree.parse(pattern);
+    if (root == null) {
+      return null;
+    }
+    String sample = RegexTree.sample(root);
+    if ((sample == null) || sample.isEmpty() ||
+        !pattern.matcher(sample).find()) {
+      return null;
+    }
+    return sample;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j2.redactor;
+
+import java.io.ObjectStreamException;
+
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.cloudera.log4j.redactor.StringRedactor;
+
+/**
+ * A <code>Message</code> that formats and redacts the message it wraps the
+ * first time its text is asked for, and keeps the result for the appenders
+ * and layouts that ask again. Events that every appender filters out are
+ * thus never formatted nor redacted.
+ * <p/>
+ * Nothing of the wrapped message but its redacted text and its throwable is
+ * exposed: there are no parameters, and the format is the redacted text,
+ * like for a <code>SimpleMessage</code>. A serialized RedactingMessage is
+ * a SimpleMessage with the redacted text.
+ */
+final class RedactingMessage implements Message, StringBuilderFormattable {
+  private static final long serialVersionUID = 1L;
+
+  private final transient Message message;
+  private final transient StringRedactor redactor;
+  private final transient String loggerName;
+  private final transient String level;
+  // Set once redacted. Redacting twice is harmless, so threads racing to
+  // get the text don't need to lock.
+  private volatile String redacted;
+
+  RedactingMessage(Message message, StringRedactor redactor,
+                   String loggerName, String level) {
+    this.message = message;
+    this.redactor = redactor;
+    this.loggerName = loggerName;
+    this.level = level;
+  }
+
+  @Override
+  public String getFormattedMessage() {
+    String text = redacted;
+    if (text == null) {
+      String original = message.getFormattedMessage();
+      text = (original == null) ? ""
+          : redactor.redact(original, loggerName, level);
+      redacted = text;
+    }
+    return text;
+  }
+
+  @Override
+  public void formatTo(StringBuilder buffer) {
+    buffer.append(getFormattedMessage());
+  }
+
+  @Override
+  public String getFormat() {
+    return getFormattedMessage();
+  }
+
+  @Override
+  public Object[] getParameters() {
+    return null;
+  }
+
+  @Override
+  public Throwable getThrowable() {
+    return message.getThrowable();
+  }
+
+  @Override
+  public String toString() {
+    return getFormattedMessage();
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    return new SimpleMessage(getFormattedMessage());
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j2.redactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.StringLayout;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.layout.AbstractLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+import org.apache.logging.log4j.util.Constants;
+import org.cloudera.log4j.redactor.RedactionBuffer;
+import org.cloudera.log4j.redactor.StringRedactor;
+
+/**
+ * <code>Layout</code> that wraps another layout and redacts its output, i.e.
+ * the complete rendered line including the context data, the stack trace
+ * and the output of any custom converters, rather than just the message the
+ * way the <code>RedactorPolicy</code> does.
+ * <p/>
+ * When the wrapped layout encodes an event, the bytes it writes are captured
+ * in a reusable per-thread buffer and redacted as bytes: for ASCII output in
+ * an ASCII compatible charset the rules match the bytes directly, without
+ * decoding them into a String, so redaction stays garbage free as long as
+ * the replacements are plain text. Rules scoped to loggers and levels are
+ * honoured. With json="true", the output of the wrapped layout is redacted
+ * as JSON (see <code>StringRedactor.redactJson()</code>).
+ * <p/>
+ * Configuration example:
+ * <pre>
+ * appender.console.layout.type=RedactorLayout
+ * appender.console.layout.rules=/full/path/to/rules.json
+ * appender.console.layout.layout.type=PatternLayout
+ * appender.console.layout.layout.pattern=%d %p %c %X - %m%n%throwable
+ * </pre>
+ */
+@Plugin(name = "RedactorLayout", category = Node.CATEGORY,
+    elementType = Layout.ELEMENT_TYPE, printObject = true)
+public final class RedactorLayout extends AbstractLayout<String>
+    implements StringLayout {
+
+  // Captured output above this size isn't kept around for the next event.
+  private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+  private final StringLayout layout;
+  private final StringRedactor redactor;
+  private final boolean json;
+  private final ThreadLocal<Capture> captureTL;
+
+  @PluginFactory
+  public static RedactorLayout createLayout(
+      @PluginConfiguration Configuration config,
+      @PluginAttribute("rules") String rules,
+      @PluginAttribute(value = "json", defaultBoolean = false) boolean json,
+      @PluginElement("Layout") Layout<?> layout) {
+    if (!(layout instanceof StringLayout)) {
+      throw new IllegalArgumentException("RedactorLayout needs a nested " +
+          "layout that produces text, got " + layout);
+    }
+    return new RedactorLayout(config, rules, json, (StringLayout) layout);
+  }
+
+  private RedactorLayout(Configuration config, String rules, boolean json,
+                         StringLayout layout) {
+    super(config, null, null);
+    this.layout = layout;
+    this.json = json;
+    try {
+      this.redactor = StringRedactor.createFromJsonFile(rules);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Problem with rules file " + rules, e);
+    }
+    this.captureTL = Constants.ENABLE_THREADLOCALS
+        ? new ThreadLocal<Capture>() : null;
+  }
+
+  @Override
+  public Charset getCharset() {
+    return layout.getCharset();
+  }
+
+  @Override
+  public String getContentType() {
+    return layout.getContentType();
+  }
+
+  @Override
+  public Map<String, String> getContentFormat() {
+    return layout.getContentFormat();
+  }
+
+  @Override
+  public byte[] getHeader() {
+    return layout.getHeader();
+  }
+
+  @Override
+  public byte[] getFooter() {
+    return layout.getFooter();
+  }
+
+  @Override
+  public String toSerializable(LogEvent event) {
+    String text = layout.toSerializable(event);
+    if (json) {
+      return redactor.redactJson(text, event.getLoggerName(), levelOf(event));
+    }
+    return redactor.redact(text, event.getLoggerName(), levelOf(event));
+  }
+
+  @Override
+  public byte[] toByteArray(LogEvent event) {
+    byte[] bytes = layout.toByteArray(event);
+    RedactionBuffer out = new RedactionBuffer();
+    if (redact(event, bytes, 0, bytes.length, out)) {
+      return out.toByteArray();
+    }
+    return bytes;
+  }
+
+  /**
+   * Let the wrapped layout encode the event into our buffer, redact the
+   * bytes there and hand the result on to the real destination.
+   */
+  @Override
+  public void encode(LogEvent event, ByteBufferDestination destination) {
+    Capture capture = getCapture();
+    try {
+      layout.encode(event, capture);
+      ByteBuffer captured = capture.buffer;
+      captured.flip();
+      byte[] array = captured.array();
+      int offset = captured.arrayOffset() + captured.position();
+      int length = captured.remaining();
+      if (redact(event, array, offset, length, capture.redaction)) {
+        destination.writeBytes(capture.redaction.array(), 0,
+            capture.redaction.length());
+      } else {
+        destination.writeBytes(array, offset, length);
+      }
+    } finally {
+      capture.release();
+    }
+  }
+
+  /**
+   * Redact the bytes the wrapped layout wrote for the event, as JSON if
+   * configured so.
+   */
+  private boolean redact(LogEvent event, byte[] bytes, int offset,
+                         int length, RedactionBuffer out) {
+    if (json) {
+      return redactor.redactJson(bytes, offset, length, getCharset(),
+          event.getLoggerName(), levelOf(event), out);
+    }
+    return redactor.redact(bytes, offset, length, getCharset(),
+        event.getLoggerName(), levelOf(event), out);
+  }
+
+  private Capture getCapture() {
+    if (captureTL == null) {
+      return new Capture();
+    }
+    Capture capture = captureTL.get();
+    if (capture == null) {
+      capture = new Capture();
+      captureTL.set(capture);
+    }
+    return capture;
+  }
+
+  private static String levelOf(LogEvent event) {
+    return (event.getLevel() == null) ? null : event.getLevel().name();
+  }
+
+  @Override
+  public String toString() {
+    return "RedactorLayout[" + layout + "]";
+  }
+
+  /**
+   * The destination the wrapped layout encodes into: a heap buffer that
+   * grows instead of being drained.
+   */
+  private static final class Capture implements ByteBufferDestination {
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+    private RedactionBuffer redaction = new RedactionBuffer();
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+      return buffer;
+    }
+
+    @Override
+    public ByteBuffer drain(ByteBuffer buf) {
+      ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+      buf.flip();
+      bigger.put(buf);
+      buffer = bigger;
+      return bigger;
+    }
+
+    @Override
+    public void writeBytes(ByteBuffer data) {
+      ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    @Override
+    public void writeBytes(byte[] data, int offset, int length) {
+      ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length,
+          this);
+    }
+
+    /**
+     * Get ready for the next event, dropping buffers that grew too big.
+     */
+    void release() {
+      if (buffer.capacity() > MAX_RETAINED_SIZE) {
+        buffer = ByteBuffer.allocate(INITIAL_SIZE);
+      } else {
+        buffer.clear();
+      }
+      if (redaction.array().length > MAX_RETAINED_SIZE) {
+        redaction = new RedactionBuffer();
+      }
+    }
+  }
+}
@@ -15,21 +15,42 @@
 package org.cloudera.log4j2.redactor;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.appender.rewrite.RewritePolicy;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
 import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.MapMessage;
 import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ReusableMessage;
 import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.StringMap;
+import org.apache.logging.log4j.util.TriConsumer;
+import org.cloudera.log4j.redactor.PolicyCache;
 import org.cloudera.log4j.redactor.StringRedactor;
 
 /**
  * <code>RewritePolicy</code> implementation that applies the redaction
  * rules defined in the configuration of the <code>RedactorPolicy</code> in
  * the Log4j Properties configuration file. Use with RewriteAppender.
+ * <p/>
+ * With deferred="true", the message of an event is not redacted by the
+ * policy itself: it is replaced with a message that formats and redacts
+ * the original one the first time an appender or layout asks for its text.
+ * Events that the filters of the appender references drop (for example,
+ * level="ERROR" on a reference) are then never redacted, and the text is
+ * redacted once however many appenders write it.
+ * <p/>
+ * With a policyDirectory and a selectorKey, the policy of each event is
+ * chosen by the value of the selectorKey in its context data, such as a
+ * tenant id: see {@link PolicyCache}. The rules file is then the default
+ * policy.
  */
 @Plugin(name = "RedactorPolicy", category = "Core", elementType = "layout", printObject = true)
 public class RedactorPolicy implements RewritePolicy {
@@ -37,36 +58,113 @@ public class RedactorPolicy implements RewritePolicy {
   // 'rules' is really the name of the file containing the rules
   private String rules;
   private StringRedactor redactor;
+  private final boolean deferred;
+  private final String selectorKey;
+  private final PolicyCache policies;
+
+  public static RedactorPolicy createPolicy(String name, String rules) {
+    return createPolicy(name, rules, false);
+  }
+
+  public static RedactorPolicy createPolicy(String name, String rules,
+                                            boolean deferred) {
+    return createPolicy(name, rules, deferred, null, null,
+        PolicyCache.DEFAULT_MAX_POLICIES);
+  }
 
   @PluginFactory
   public static RedactorPolicy createPolicy(@PluginAttribute("name") String name,
-                                            @PluginAttribute("rules") String rules) {
-    return new RedactorPolicy(rules);
+                                            @PluginAttribute("rules") String rules,
+                                            @PluginAttribute(value = "deferred",
+                                                defaultBoolean = false)
+                                            boolean deferred,
+                                            @PluginAttribute("policyDirectory")
+                                            String policyDirectory,
+                                            @PluginAttribute("selectorKey")
+                                            String selectorKey,
+                                            @PluginAttribute(value = "maxPolicies",
+                                                defaultInt = PolicyCache.DEFAULT_MAX_POLICIES)
+                                            int maxPolicies) {
+    return new RedactorPolicy(rules, deferred, policyDirectory, selectorKey,
+        maxPolicies);
   }
 
   protected RedactorPolicy(String rules) {
+    this(rules, false, null, null, PolicyCache.DEFAULT_MAX_POLICIES);
+  }
+
+  protected RedactorPolicy(String rules, boolean deferred,
+                           String policyDirectory, String selectorKey,
+                           int maxPolicies) {
     this.rules = rules;
+    this.deferred = deferred;
     try {
       this.redactor = StringRedactor.createFromJsonFile(rules);
     } catch (IOException e) {
       // Changing the exception, since activateOptions can't throw an IOException
       throw new IllegalArgumentException("Problem with rules file " + rules, e);
     }
+    if ((policyDirectory != null) != (selectorKey != null)) {
+      throw new IllegalArgumentException("A policyDirectory needs a " +
+          "selectorKey and vice versa");
+    }
+    this.selectorKey = selectorKey;
+    this.policies = (policyDirectory == null) ? null
+        : new PolicyCache(policyDirectory, maxPolicies, redactor);
   }
 
   /**
    * Given a LoggingEvent, potentially modify it and return an altered copy.
    * This implements the RewritePolicy interface.
+   * <p/>
+   * If the policy has rules that target keys, the context data and the
+   * fields of a <code>MapMessage</code> (and so <code>StructuredDataMessage</code>)
+   * are redacted key by key before the formatted message is redacted.
    * @param source LoggingEvent to examine
    * @return Either the original (no changes) or a redacted copy.
    */
   public LogEvent rewrite(LogEvent source) {
     if (source != null) {
       Message msg = source.getMessage();
-      if (msg != null) {
+      String loggerName = source.getLoggerName();
+      String level = (source.getLevel() == null) ? null : source.getLevel().name();
+      StringRedactor redactor = this.redactor;
+      if (policies != null) {
+        ReadOnlyStringMap contextData = source.getContextData();
+        Object tenant = (contextData == null) ? null
+            : contextData.getValue(selectorKey);
+        redactor = policies.get((tenant == null) ? null : tenant.toString());
+      }
+      if (redactor.hasKeyRules()) {
+        StringMap contextData = redactContextData(redactor,
+            source.getContextData(), loggerName, level);
+        Message mapMsg = redactMapMessage(redactor, msg, loggerName, level);
+        if ((contextData != null) || (mapMsg != msg)) {
+          Log4jLogEvent.Builder builder = new Log4jLogEvent.Builder(source);
+          if (contextData != null) {
+            builder.setContextData(contextData);
+          }
+          if (mapMsg != msg) {
+            builder.setMessage(mapMsg);
+          }
+          source = builder.build();
+          msg = mapMsg;
+        }
+      }
+      if ((msg != null) && deferred && !(msg instanceof MapMessage)) {
+        // MapMessages are redacted right away, so that they stay
+        // MapMessages unless their text needs redacting. Reusable messages
+        // are copied, since they change once the logging call returns.
+        if (msg instanceof ReusableMessage) {
+          msg = ((ReusableMessage) msg).memento();
+        }
+        source = new Log4jLogEvent.Builder(source)
+            .setMessage(new RedactingMessage(msg, redactor, loggerName, level))
+            .build();
+      } else if (msg != null) {
         String original = msg.getFormattedMessage();
         if (original != null) {
-          String redacted = redactor.redact(original);
+          String redacted = redactor.redact(original, loggerName, level);
           if (!redacted.equals(original)) {
             source = new Log4jLogEvent.Builder(source)
                 .setMessage(new SimpleMessage(redacted))
@@ -77,4 +175,89 @@ public class RedactorPolicy implements RewritePolicy {
     }
     return source;
   }
+
+  /**
+   * Apply the key rules to every entry of the context data.
+   * @return A redacted copy of the context data, or null if nothing changed.
+   */
+  private static StringMap redactContextData(StringRedactor redactor,
+                                             ReadOnlyStringMap contextData,
+                                             String loggerName, String level) {
+    if ((contextData == null) || contextData.isEmpty()) {
+      return null;
+    }
+    ContextDataRedaction redaction =
+        new ContextDataRedaction(redactor, loggerName, level);
+    contextData.forEach(redaction, contextData);
+    return redaction.copy;
+  }
+
+  /**
+   * Apply the key rules to every field of a MapMessage. The copy is made
+   * with <code>newInstance()</code> so that subclasses such as
+   * <code>StructuredDataMessage</code> keep their id and type.
+   * @return A redacted copy of the message, or the original message if it
+   *     isn't a MapMessage or nothing changed.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static Message redactMapMessage(StringRedactor redactor,
+                                          Message msg, String loggerName,
+                                          String level) {
+    if (!(msg instanceof MapMessage)) {
+      return msg;
+    }
+    MapMessage mapMsg = (MapMessage) msg;
+    Map<String, Object> data = mapMsg.getData();
+    Map<String, Object> redacted = null;
+    for (Map.Entry<String, Object> entry : data.entrySet()) {
+      Object value = entry.getValue();
+      if (value == null) {
+        continue;
+      }
+      String original = value.toString();
+      String result = redactor.redactValue(entry.getKey(), original,
+          loggerName, level);
+      if (result != original) {
+        if (redacted == null) {
+          redacted = new HashMap<String, Object>(data);
+        }
+        redacted.put(entry.getKey(), result);
+      }
+    }
+    return (redacted == null) ? msg : mapMsg.newInstance(redacted);
+  }
+
+  /**
+   * Visits the context data and lazily copies it the first time a value
+   * is changed by redaction.
+   */
+  private static class ContextDataRedaction
+      implements TriConsumer<String, Object, ReadOnlyStringMap> {
+    private final StringRedactor redactor;
+    private final String loggerName;
+    private final String level;
+    private StringMap copy;
+
+    ContextDataRedaction(StringRedactor redactor, String loggerName,
+                         String level) {
+      this.redactor = redactor;
+      this.loggerName = loggerName;
+      this.level = level;
+    }
+
+    @Override
+    public void accept(String key, Object value, ReadOnlyStringMap source) {
+      if (value == null) {
+        return;
+      }
+      String original = value.toString();
+      String redacted = redactor.redactValue(key, original, loggerName, level);
+      if (redacted != original) {
+        if (copy == null) {
+          copy = ContextDataFactory.createContextData(source);
+        }
+        copy.putValue(key, redacted);
+      }
+    }
+  }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+/**
+ * Entry point for trigger lookup, JDK 17+ version. When the Vector API
+ * module (jdk.incubator.vector) is part of the boot layer, i.e. the JVM
+ * was started with "--add-modules jdk.incubator.vector", case insensitive
+ * lookups on longer messages use the {@link VectorScanner}. Everything
+ * else, and everything when the "logredactor.vectorize" system property
+ * is "false", goes to the same scalar code as on Java 8.
+ */
+final class TriggerScanner {
+
+  static final String VECTORIZE_PROPERTY = "logredactor.vectorize";
+
+  private static final boolean VECTORIZED =
+      !"false".equalsIgnoreCase(System.getProperty(VECTORIZE_PROPERTY)) &&
+      ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+  private TriggerScanner() {}
+
+  static boolean isVectorized() {
+    return VECTORIZED;
+  }
+
+  static int indexOf(String msg, String trigger, boolean caseSensitive,
+                     int from) {
+    if (VECTORIZED && !caseSensitive && (trigger.charAt(0) < 128) &&
+        (msg.length() - from >= VectorScanner.MIN_LENGTH)) {
+      return VectorScanner.indexOfIgnoreCase(msg, trigger, from);
+    }
+    return ScalarScanner.indexOf(msg, trigger, caseSensitive, from);
+  }
+
+  static int indexOf(CharSequence msg, String trigger, boolean caseSensitive,
+                     int from) {
+    if (msg instanceof String) {
+      return indexOf((String) msg, trigger, caseSensitive, from);
+    }
+    return ScalarScanner.indexOf(msg, trigger, caseSensitive, from);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Case insensitive trigger lookup with the Vector API. The characters of
+ * the message are compared a vector at a time against the lower and upper
+ * case forms of the first character of the trigger, and regionMatches()
+ * only runs at the candidate positions. Only loaded by
+ * {@link TriggerScanner} when the jdk.incubator.vector module is present.
+ */
+final class VectorScanner {
+
+  private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+  /** Below this many characters the scalar loop is just as fast. */
+  static final int MIN_LENGTH = 4 * SPECIES.length();
+
+  // ShortVector works on char[], so the message is copied in chunks into a
+  // small pooled buffer.
+  private static final int CHUNK = 1024;
+  private static final StripedPool<char[]> BUFFERS =
+      new StripedPool<>(() -> new char[CHUNK]);
+
+  private VectorScanner() {}
+
+  /**
+   * Same contract as {@link ScalarScanner#indexOf} with caseSensitive
+   * false; the first character of the trigger must be ASCII.
+   */
+  static int indexOfIgnoreCase(String msg, String trigger, int from) {
+    final char[] buf = BUFFERS.acquire();
+    try {
+      return indexOfIgnoreCase(msg, trigger, from, buf);
+    } finally {
+      BUFFERS.release(buf);
+    }
+  }
+
+  private static int indexOfIgnoreCase(String msg, String trigger, int from,
+                                       char[] buf) {
+    final int len = trigger.length();
+    final int max = msg.length() - len;
+    final char first = trigger.charAt(0);
+    final short lower = (short) Character.toLowerCase(first);
+    final short upper = (short) Character.toUpperCase(first);
+
+    int base = Math.max(from, 0);
+    while (base <= max) {
+      // Only positions that leave room for the whole trigger are candidates
+      final int count = Math.min(CHUNK, max + 1 - base);
+      msg.getChars(base, base + count, buf, 0);
+      final int bound = SPECIES.loopBound(count);
+      int i = 0;
+      for (; i < bound; i += SPECIES.length()) {
+        ShortVector v = ShortVector.fromCharArray(SPECIES, buf, i);
+        // Non-ASCII characters are always candidates, see ScalarScanner.
+        long bits = v.eq(lower)
+            .or(v.eq(upper))
+            .or(v.and((short) 0xFF80).compare(VectorOperators.NE, (short) 0))
+            .toLong();
+        while (bits != 0) {
+          int pos = base + i + Long.numberOfTrailingZeros(bits);
+          if (msg.regionMatches(true, pos, trigger, 0, len)) {
+            return pos;
+          }
+          bits &= bits - 1;
+        }
+      }
+      for (; i < count; i++) {
+        char c = buf[i];
+        if (((c == lower) || (c == upper) || (c >= 128)) &&
+            msg.regionMatches(true, base + i, trigger, 0, len)) {
+          return base + i;
+        }
+      }
+      base += count;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Allocation regression tests of the redaction hot path: the bytes a
+ * thread allocates per call of StringRedactor.redact() and of the rewrite()
+ * of both RedactorPolicies, for messages that no rule is triggered by,
+ * messages that rules are triggered by but don't match, and messages that
+ * are redacted, must stay within the baseline in
+ * allocation-baseline.properties. When a change lowers the allocations
+ * for good, lower the baseline with it. The limits of the messages that
+ * are redacted are only checked on the Java version they were measured
+ * on; the others allocate nothing on any.
+ */
+public class AllocationTest {
+
+  // The messages of each case: no trigger, no match, match
+  private static final String[] REAL_MESSAGES = {
+      "Nothing to see here, move along",
+      "Login failed: bad password for user admin",
+      "password=hunter2 card 1234-5678-9012-3456"};
+  private static final String[] HUGE_MESSAGES = {
+      "12345 67890 12345 67890",
+      "This string is not changed",
+      "This string is not redacted"};
+  private static final String[] CASES = {"noTrigger", "noMatch", "match"};
+
+  private String resourcePath;
+  private Properties baseline;
+
+  /**
+   * The allocation counter of the JVM, or null if there is none.
+   */
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean counter =
+        (com.sun.management.ThreadMXBean) bean;
+    if (!counter.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+    counter.setThreadAllocatedMemoryEnabled(true);
+    return counter;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    URL resourceUrl = getClass().getResource("/real-1.json");
+    resourcePath = new File(resourceUrl.toURI()).getParent();
+    baseline = new Properties();
+    InputStream in = getClass().getResourceAsStream(
+        "/allocation-baseline.properties");
+    try {
+      baseline.load(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private interface Call {
+    Object run();
+  }
+
+  /**
+   * @return The bytes allocated per call, once the JIT has compiled it.
+   */
+  private static long bytesPerCall(com.sun.management.ThreadMXBean counter,
+                                   int calls, Call call) {
+    long id = Thread.currentThread().getId();
+    Object sink = null;
+    for (int i = 0; i < calls; i++) {
+      sink = call.run();
+    }
+    long before = counter.getThreadAllocatedBytes(id);
+    for (int i = 0; i < calls; i++) {
+      sink = call.run();
+    }
+    long after = counter.getThreadAllocatedBytes(id);
+    Assert.assertNotNull(sink);
+    return (after - before) / calls;
+  }
+
+  /**
+   * @param calls How many calls to warm up with, and then to measure
+   */
+  private void check(String policy, String[] messages, final int calls)
+      throws Exception {
+    final com.sun.management.ThreadMXBean counter = allocationCounter();
+    Assume.assumeNotNull(counter);
+    String fileName = resourcePath + "/" + policy + "-1.json";
+    final StringRedactor redactor = StringRedactor.createFromJsonFile(fileName);
+    final RedactorPolicy log4jPolicy = new RedactorPolicy();
+    log4jPolicy.setRules(fileName);
+    log4jPolicy.activateOptions();
+    final org.cloudera.log4j2.redactor.RedactorPolicy log4j2Policy =
+        org.cloudera.log4j2.redactor.RedactorPolicy.createPolicy("policy",
+            fileName);
+    Logger logger = Logger.getLogger("org.example.Foo");
+
+    List<String> failures = new ArrayList<String>();
+    for (int i = 0; i < CASES.length; i++) {
+      final String msg = messages[i];
+      final LoggingEvent event = new LoggingEvent(Logger.class.getName(),
+          logger, Level.INFO, msg, null);
+      final LogEvent event2 = Log4jLogEvent.newBuilder()
+          .setLoggerName("org.example.Foo")
+          .setLevel(org.apache.logging.log4j.Level.INFO)
+          .setMessage(new SimpleMessage(msg))
+          .build();
+      // The match messages are redacted, the others aren't
+      Assert.assertEquals(msg, i == 2, !msg.equals(redactor.redact(msg)));
+
+      measure(failures, policy + ".redact." + CASES[i],
+          bytesPerCall(counter, calls, new Call() {
+            public Object run() {
+              return redactor.redact(msg, "org.example.Foo", "INFO");
+            }
+          }));
+      measure(failures, policy + ".log4j." + CASES[i],
+          bytesPerCall(counter, calls, new Call() {
+            public Object run() {
+              return log4jPolicy.rewrite(event);
+            }
+          }));
+      measure(failures, policy + ".log4j2." + CASES[i],
+          bytesPerCall(counter, calls, new Call() {
+            public Object run() {
+              return log4j2Policy.rewrite(event2);
+            }
+          }));
+    }
+    Assert.assertTrue("Allocations above the baseline:\n" + failures,
+        failures.isEmpty());
+  }
+
+  private void measure(List<String> failures, String key, long bytes) {
+    String limit = baseline.getProperty(key);
+    Assert.assertNotNull("No baseline for " + key, limit);
+    String version = baseline.getProperty("java.specification.version");
+    if (key.endsWith(".match") &&
+        !version.equals(System.getProperty("java.specification.version"))) {
+      return;
+    }
+    if (bytes > Long.parseLong(limit)) {
+      failures.add(key + ": " + bytes + " bytes per call, baseline " + limit);
+    }
+  }
+
+  @Test
+  public void testRealPolicyAllocations() throws Exception {
+    check("real", REAL_MESSAGES, 20000);
+  }
+
+  @Test
+  public void testHugePolicyAllocations() throws Exception {
+    // Every call scans the message for the 1131 literals
+    check("huge", HUGE_MESSAGES, 3000);
+  }
+}
@@ -14,11 +14,21 @@
  */
 package org.cloudera.log4j.redactor;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.LoggerContext;
 import org.apache.logging.log4j.core.appender.ConsoleAppender;
 import org.apache.logging.log4j.core.config.Configuration;
@@ -27,6 +37,19 @@ import org.apache.logging.log4j.core.config.ConfigurationSource;
 import org.apache.logging.log4j.core.config.builder.api.AppenderComponentBuilder;
 import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
 import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.MapMessage;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.message.StructuredDataMessage;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.apache.logging.log4j.util.StringMap;
+import org.cloudera.log4j2.redactor.RedactorLayout;
+import org.cloudera.log4j2.redactor.RedactorPolicy;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -98,6 +121,293 @@ public class Log4j2RedactorTest extends BaseRedactorTest {
     Assert.assertTrue(out.contains("/non-json.json"));
   }
 
+  /**
+   * Validate that key rules redact context data and map message fields,
+   * and leave everything else alone.
+   */
+  @Test
+  public void testKeyRedaction() {
+    RedactorPolicy policy = RedactorPolicy.createPolicy("keys",
+        resourcePath + "/keys-1.json");
+
+    StringMap contextData = ContextDataFactory.createContextData();
+    contextData.putValue("user", "bob");
+    contextData.putValue("password", "hunter2");
+    LogEvent event = Log4jLogEvent.newBuilder()
+        .setMessage(new SimpleMessage("a secret message"))
+        .setContextData(contextData)
+        .build();
+    LogEvent redacted = policy.rewrite(event);
+    Assert.assertEquals("bob", redacted.getContextData().getValue("user"));
+    Assert.assertEquals("xxxxx", redacted.getContextData().getValue("password"));
+    Assert.assertEquals("a XXXXXX message",
+        redacted.getMessage().getFormattedMessage());
+    // The original context data must not be modified
+    Assert.assertEquals("hunter2", contextData.getValue("password"));
+
+    Map<String, String> fields = new HashMap<String, String>();
+    fields.put("ssn", "123-45-6789");
+    fields.put("id", "123-45-6789");
+    StructuredDataMessage sdMsg =
+        new StructuredDataMessage("login", "user login", "audit", fields);
+    redacted = policy.rewrite(Log4jLogEvent.newBuilder().setMessage(sdMsg).build());
+    Assert.assertTrue(redacted.getMessage() instanceof StructuredDataMessage);
+    StructuredDataMessage redactedMsg = (StructuredDataMessage) redacted.getMessage();
+    Assert.assertEquals("XXX-XX-XXXX", redactedMsg.get("ssn"));
+    Assert.assertEquals("123-45-6789", redactedMsg.get("id"));
+    Assert.assertEquals("audit", redactedMsg.getType());
+    Assert.assertEquals("login", redactedMsg.getId().getName());
+
+    MapMessage<?, ?> mapMsg = new MapMessage<>().with("token", "t0k3n").with("k", "v");
+    event = Log4jLogEvent.newBuilder().setMessage(mapMsg).build();
+    redacted = policy.rewrite(event);
+    Assert.assertEquals("xxxxx", ((MapMessage<?, ?>) redacted.getMessage()).get("token"));
+    Assert.assertEquals("v", ((MapMessage<?, ?>) redacted.getMessage()).get("k"));
+
+    // Nothing to redact: the very same event comes back
+    event = Log4jLogEvent.newBuilder()
+        .setMessage(new MapMessage<>().with("k", "v"))
+        .build();
+    Assert.assertSame(event, policy.rewrite(event));
+  }
+
+  /**
+   * Validate that rules scoped to loggers and levels are only applied to
+   * the events of those loggers and levels.
+   */
+  @Test
+  public void testScopedRedaction() {
+    RedactorPolicy policy = RedactorPolicy.createPolicy("scoped",
+        resourcePath + "/scoped-1.json");
+
+    LogEvent event = Log4jLogEvent.newBuilder()
+        .setLoggerName("org.example.auth.Login")
+        .setLevel(Level.INFO)
+        .setMessage(new SimpleMessage("password=hunter2 acct 12345678"))
+        .build();
+    Assert.assertEquals("password=xxxxx",
+        policy.rewrite(event).getMessage().getFormattedMessage());
+
+    event = Log4jLogEvent.newBuilder()
+        .setLoggerName("org.example.Other")
+        .setLevel(Level.ERROR)
+        .setMessage(new SimpleMessage("password=hunter2 acct 12345678"))
+        .build();
+    Assert.assertEquals("password=hunter2 acct XXXXXXXX",
+        policy.rewrite(event).getMessage().getFormattedMessage());
+
+    event = Log4jLogEvent.newBuilder()
+        .setLoggerName("org.example.Other")
+        .setLevel(Level.INFO)
+        .setMessage(new SimpleMessage("password=hunter2 acct 12345678"))
+        .build();
+    Assert.assertSame(event, policy.rewrite(event));
+  }
+
+  /**
+   * Validate that a deferred policy formats and redacts the message once,
+   * when its text is first asked for.
+   */
+  @Test
+  public void testDeferredRedaction() throws Exception {
+    RedactorPolicy policy = RedactorPolicy.createPolicy("deferred",
+        resourcePath + "/real-1.json", true);
+
+    final AtomicInteger formatted = new AtomicInteger();
+    final Throwable thrown = new IllegalStateException("oops");
+    Message msg = new SimpleMessage("SSN 123-45-6789") {
+      @Override
+      public String getFormattedMessage() {
+        formatted.incrementAndGet();
+        return super.getFormattedMessage();
+      }
+
+      @Override
+      public Throwable getThrowable() {
+        return thrown;
+      }
+    };
+    LogEvent event = Log4jLogEvent.newBuilder()
+        .setLoggerName("testDeferredRedaction")
+        .setLevel(Level.INFO)
+        .setMessage(msg)
+        .build();
+    LogEvent redacted = policy.rewrite(event);
+    Assert.assertEquals(0, formatted.get());
+    Assert.assertEquals("SSN XXX-XX-XXXX",
+        redacted.getMessage().getFormattedMessage());
+    StringBuilder sb = new StringBuilder();
+    ((StringBuilderFormattable) redacted.getMessage()).formatTo(sb);
+    Assert.assertEquals("SSN XXX-XX-XXXX", sb.toString());
+    Assert.assertEquals(1, formatted.get());
+    Assert.assertNull(redacted.getMessage().getParameters());
+    Assert.assertSame(thrown, redacted.getMessage().getThrowable());
+
+    // Serialized, only the redacted text is left
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(redacted.getMessage());
+    out.close();
+    Object copy = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    Assert.assertTrue(copy instanceof SimpleMessage);
+    Assert.assertEquals("SSN XXX-XX-XXXX",
+        ((SimpleMessage) copy).getFormattedMessage());
+
+    // Map messages are still redacted right away
+    event = Log4jLogEvent.newBuilder()
+        .setMessage(new MapMessage<>().with("k", "v"))
+        .build();
+    Assert.assertSame(event, policy.rewrite(event));
+  }
+
+  /**
+   * Validate that the policy of an event is chosen by its context data.
+   */
+  @Test
+  public void testTenantPolicies() {
+    RedactorPolicy policy = RedactorPolicy.createPolicy("tenants",
+        resourcePath + "/real-1.json", false, resourcePath + "/tenants",
+        "tenantId", 10);
+
+    StringMap contextData = ContextDataFactory.createContextData();
+    contextData.putValue("tenantId", "globex");
+    LogEvent event = Log4jLogEvent.newBuilder()
+        .setMessage(new SimpleMessage("secret SSN 123-45-6789"))
+        .setContextData(contextData)
+        .build();
+    Assert.assertEquals("GLOBEX SSN 123-45-6789",
+        policy.rewrite(event).getMessage().getFormattedMessage());
+
+    event = Log4jLogEvent.newBuilder()
+        .setMessage(new SimpleMessage("secret SSN 123-45-6789"))
+        .build();
+    Assert.assertEquals("secret SSN XXX-XX-XXXX",
+        policy.rewrite(event).getMessage().getFormattedMessage());
+  }
+
+  /**
+   * Validate that the layout redacts the whole rendered line, including
+   * the context data, in all the ways a layout can be asked for its output.
+   */
+  @Test
+  public void testRedactorLayout() {
+    PatternLayout pattern = PatternLayout.newBuilder()
+        .withPattern("%X{user} %m")
+        .withCharset(StandardCharsets.UTF_8)
+        .build();
+    RedactorLayout layout = RedactorLayout.createLayout(null,
+        resourcePath + "/real-1.json", false, pattern);
+
+    StringMap contextData = ContextDataFactory.createContextData();
+    contextData.putValue("user", "bob@cloudera.com");
+    LogEvent event = Log4jLogEvent.newBuilder()
+        .setLoggerName("testRedactorLayout")
+        .setLevel(Level.INFO)
+        .setMessage(new SimpleMessage("SSN 123-45-6789"))
+        .setContextData(contextData)
+        .build();
+    String expected = "email@redacted.host SSN XXX-XX-XXXX";
+    Assert.assertEquals(expected, layout.toSerializable(event));
+    Assert.assertEquals(expected,
+        new String(layout.toByteArray(event), StandardCharsets.UTF_8));
+    // Twice, to reuse the captured buffers
+    for (int i = 0; i < 2; i++) {
+      TestDestination destination = new TestDestination();
+      layout.encode(event, destination);
+      Assert.assertEquals(expected, destination.toString());
+    }
+
+    // Long lines make the captured buffer grow
+    StringBuilder longMessage = new StringBuilder();
+    StringBuilder longExpected = new StringBuilder("email@redacted.host ");
+    for (int i = 0; i < 2000; i++) {
+      longMessage.append("SSN 123-45-6789 \u00e9 ");
+      longExpected.append("SSN XXX-XX-XXXX \u00e9 ");
+    }
+    event = Log4jLogEvent.newBuilder()
+        .setMessage(new SimpleMessage(longMessage.toString()))
+        .setContextData(contextData)
+        .build();
+    TestDestination destination = new TestDestination();
+    layout.encode(event, destination);
+    Assert.assertEquals(longExpected.toString(), destination.toString());
+  }
+
+  /**
+   * Validate that the layout redacts JSON output with the rules in scope
+   * for the logger and level of the event.
+   */
+  @Test
+  public void testRedactorLayoutJsonScoped() {
+    PatternLayout pattern = PatternLayout.newBuilder()
+        .withPattern("{\"logger\":\"%c\",\"message\":\"%enc{%m}{JSON}\"}")
+        .withCharset(StandardCharsets.UTF_8)
+        .build();
+    RedactorLayout layout = RedactorLayout.createLayout(null,
+        resourcePath + "/scoped-1.json", true, pattern);
+
+    String[][] tests = {
+        {"org.example.auth.Login", "INFO", "password=hunter2 acct 12345678",
+            "password=xxxxx"},
+        {"org.example.Other", "ERROR", "password=hunter2 acct 12345678",
+            "password=hunter2 acct XXXXXXXX"},
+        {"org.example.Other", "INFO", "password=hunter2 acct 12345678",
+            "password=hunter2 acct 12345678"},
+        // Not ASCII
+        {"org.example.auth.Login", "INFO", "\u00e9 password=hunter2",
+            "\u00e9 password=xxxxx"},
+        {"org.example.Other", "INFO", "\u00e9 password=hunter2",
+            "\u00e9 password=hunter2"},
+    };
+    for (String[] test : tests) {
+      LogEvent event = Log4jLogEvent.newBuilder()
+          .setLoggerName(test[0])
+          .setLevel(Level.getLevel(test[1]))
+          .setMessage(new SimpleMessage(test[2]))
+          .build();
+      String expected = "{\"logger\":\"" + test[0] + "\",\"message\":\"" +
+          test[3] + "\"}";
+      Assert.assertEquals(expected, layout.toSerializable(event));
+      Assert.assertEquals(expected,
+          new String(layout.toByteArray(event), StandardCharsets.UTF_8));
+      TestDestination destination = new TestDestination();
+      layout.encode(event, destination);
+      Assert.assertEquals(expected, destination.toString());
+    }
+  }
+
+  private static final class TestDestination implements ByteBufferDestination {
+    private ByteBuffer buffer = ByteBuffer.allocate(64);
+    private final java.io.ByteArrayOutputStream out =
+        new java.io.ByteArrayOutputStream();
+
+    public ByteBuffer getByteBuffer() {
+      return buffer;
+    }
+
+    public ByteBuffer drain(ByteBuffer buf) {
+      buf.flip();
+      out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      buf.clear();
+      return buf;
+    }
+
+    public void writeBytes(ByteBuffer data) {
+      ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    public void writeBytes(byte[] data, int offset, int length) {
+      ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+    }
+
+    @Override
+    public String toString() {
+      drain(buffer);
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
   /**
    * Creates a custom log4j2 configuration which registers a RewriteAppender and a
    * RedactorPolicy.
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import org.cloudera.log4j.redactor.PolicyLinter.Check;
+import org.cloudera.log4j.redactor.PolicyLinter.Cost;
+import org.cloudera.log4j.redactor.PolicyLinter.Finding;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PolicyLinterTest {
+
+  private String resourcePath;
+
+  @Before
+  public void setUp() throws Exception {
+    URL resourceUrl = getClass().getResource("/good-1.json");
+    File resourceFile = new File(resourceUrl.toURI());
+    resourcePath = resourceFile.getParent();
+  }
+
+  private static List<String> describe(List<Finding> findings) {
+    List<String> described = new ArrayList<String>();
+    for (Finding finding : findings) {
+      described.add(finding.getRuleIndex() + " " + finding.getCheck() + " " +
+          finding.getCost());
+    }
+    return described;
+  }
+
+  @Test
+  public void testFindings() throws Exception {
+    List<Finding> findings = PolicyLinter.lintFile(resourcePath + "/lint-1.json");
+
+    List<String> expected = new ArrayList<String>();
+    // Rule 0 has no trigger, but gets "password=" as an implied trigger
+    expected.add("0 " + Check.UNBOUNDED_WILDCARD + " " + Cost.LINEAR);
+    expected.add("1 " + Check.NESTED_QUANTIFIER + " " + Cost.EXPONENTIAL);
+    expected.add("2 " + Check.OVERLAPPING_ALTERNATION + " " + Cost.EXPONENTIAL);
+    expected.add("3 " + Check.UNBOUNDED_WILDCARD + " " + Cost.QUADRATIC);
+    expected.add("6 " + Check.SHADOWED_RULE + " " + Cost.LINEAR);
+    expected.add("7 " + Check.MISSING_TRIGGER + " " + Cost.LINEAR);
+    Assert.assertEquals(expected, describe(findings));
+
+    Assert.assertTrue(findings.get(1).getMessage().contains("(\\w+\\s?)+"));
+    Assert.assertTrue(findings.get(4).toString()
+        .startsWith("rule #7 (Card numbers again): SHADOWED_RULE"));
+  }
+
+  @Test
+  public void testCleanPolicy() throws Exception {
+    Assert.assertEquals(new ArrayList<Finding>(),
+        PolicyLinter.lintFile(resourcePath + "/numbers.json"));
+    Assert.assertEquals(new ArrayList<Finding>(),
+        PolicyLinter.lintFile(resourcePath + "/group-1.json"));
+    Assert.assertEquals(new ArrayList<Finding>(),
+        PolicyLinter.lint(StringRedactor.createFromJsonString("")));
+  }
+
+  @Test
+  public void testCommandLine() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    PrintStream o = new PrintStream(out, true);
+    PrintStream e = new PrintStream(err, true);
+
+    String lint = resourcePath + "/lint-1.json";
+    Assert.assertEquals(1, PolicyLinter.run(new String[]{lint}, o, e));
+    Assert.assertTrue(out.toString().contains("NESTED_QUANTIFIER"));
+    Assert.assertEquals(1, PolicyLinter.run(
+        new String[]{"--fail-on=exponential", lint}, o, e));
+
+    // Only a trailing wildcard, which is linear
+    String good = resourcePath + "/good-1.json";
+    Assert.assertEquals(1, PolicyLinter.run(new String[]{good}, o, e));
+    Assert.assertEquals(0, PolicyLinter.run(
+        new String[]{"--fail-on=QUADRATIC", good}, o, e));
+
+    Assert.assertEquals(2, PolicyLinter.run(
+        new String[]{resourcePath + "/bad-regex.json"}, o, e));
+    Assert.assertEquals(2, PolicyLinter.run(new String[0], o, e));
+  }
+}
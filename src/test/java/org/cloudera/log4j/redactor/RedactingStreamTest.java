@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class RedactingStreamTest {
+
+  private StringRedactor redactor;
+
+  private static final String INPUT =
+      "user=bob password=hunter2\n" +
+      "Héllo 4111-1111-1111-1111 wörld\n" +
+      "\n" +
+      "no secrets here\n" +
+      "password=secret2";
+  private static final String EXPECTED =
+      "user=bob password=xxxxx\n" +
+      "Héllo XXXX-XXXX-XXXX-XXXX wörld\n" +
+      "\n" +
+      "no secrets here\n" +
+      "password=xxxxx";
+
+  @Before
+  public void setUp() throws Exception {
+    URL resourceUrl = getClass().getResource("/real-1.json");
+    redactor = StringRedactor.createFromJsonFile(
+        new File(resourceUrl.toURI()).getPath());
+  }
+
+  /**
+   * Write the input in random pieces, to split records across writes.
+   */
+  private static void writeInPieces(OutputStream out, byte[] input, Random r)
+      throws IOException {
+    int i = 0;
+    while (i < input.length) {
+      int n = Math.min(input.length - i, r.nextInt(12));
+      if (n == 1) {
+        out.write(input[i]);
+      } else {
+        out.write(input, i, n);
+      }
+      i += n;
+    }
+  }
+
+  private static void writeInPieces(Writer out, String input, Random r,
+                                    boolean chars) throws IOException {
+    int i = 0;
+    while (i < input.length()) {
+      int n = Math.min(input.length() - i, r.nextInt(12));
+      if (n == 1) {
+        out.write(input.charAt(i));
+      } else if (chars) {
+        out.write(input.toCharArray(), i, n);
+      } else {
+        out.write(input, i, n);
+      }
+      i += n;
+    }
+  }
+
+  @Test
+  public void testOutputStream() throws Exception {
+    Random r = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      ByteArrayOutputStream sink = new ByteArrayOutputStream();
+      RedactingOutputStream out = new RedactingOutputStream(sink, redactor,
+          StandardCharsets.UTF_8);
+      writeInPieces(out, INPUT.getBytes(StandardCharsets.UTF_8), r);
+      out.close();
+      Assert.assertEquals(EXPECTED, sink.toString("UTF-8"));
+    }
+  }
+
+  @Test
+  public void testWriter() throws Exception {
+    Random r = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      StringWriter sink = new StringWriter();
+      RedactingWriter out = new RedactingWriter(sink, redactor);
+      writeInPieces(out, INPUT, r, (round & 1) == 0);
+      out.close();
+      Assert.assertEquals(EXPECTED, sink.toString());
+    }
+  }
+
+  @Test
+  public void testFlushKeepsIncompleteRecord() throws Exception {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    RedactingOutputStream out = new RedactingOutputStream(sink, redactor,
+        StandardCharsets.UTF_8);
+    out.write("one password=a\ntwo password=".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    Assert.assertEquals("one password=xxxxx\n", sink.toString("UTF-8"));
+    out.write("b\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    Assert.assertEquals("one password=xxxxx\ntwo password=xxxxx\n",
+        sink.toString("UTF-8"));
+
+    StringWriter writerSink = new StringWriter();
+    RedactingWriter writer = new RedactingWriter(writerSink, redactor);
+    writer.write("one password=a\ntwo password=");
+    writer.flush();
+    Assert.assertEquals("one password=xxxxx\n", writerSink.toString());
+    writer.close();
+    Assert.assertEquals("one password=xxxxx\ntwo password=xxxxx",
+        writerSink.toString());
+  }
+
+  @Test
+  public void testDelimiterAndMaxRecordSize() throws Exception {
+    // Records end with ';' or after 10 bytes, whichever comes first
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    RedactingOutputStream out = new RedactingOutputStream(sink, redactor,
+        StandardCharsets.US_ASCII, (byte) ';', 10);
+    out.write("password=a;1234567890123".getBytes(StandardCharsets.US_ASCII));
+    out.close();
+    Assert.assertEquals("password=xxxxx;XXXXXXXXX0123", sink.toString("US-ASCII"));
+
+    StringWriter writerSink = new StringWriter();
+    RedactingWriter writer = new RedactingWriter(writerSink, redactor, ';', 10);
+    writer.write("password=a;1234567890123");
+    writer.close();
+    Assert.assertEquals("password=xxxxx;XXXXXXXXX0123", writerSink.toString());
+
+    // A record cut at the maximum size is redacted on its own: the SSN
+    // rule doesn't see "123456789" across the cut at 10.
+    sink = new ByteArrayOutputStream();
+    out = new RedactingOutputStream(sink, redactor, StandardCharsets.US_ASCII,
+        (byte) ';', 10);
+    out.write("abcdefgh123456789;".getBytes(StandardCharsets.US_ASCII));
+    out.close();
+    Assert.assertEquals("abcdefgh123456789;", sink.toString("US-ASCII"));
+  }
+
+  @Test
+  public void testMaxRecordSizeUtf8() throws Exception {
+    // The cut at 13 bytes would split the 'é', or the emoji: the record is
+    // cut before the character instead, which starts the next record
+    String[] inputs = {"123-45-6789 \u00e9t\u00e9",
+        "123-45-6789 \uD83D\uDE00!"};
+    String[] expected = {"XXX-XX-XXXX \u00e9t\u00e9",
+        "XXX-XX-XXXX \uD83D\uDE00!"};
+    for (int i = 0; i < inputs.length; i++) {
+      byte[] bytes = inputs[i].getBytes(StandardCharsets.UTF_8);
+      Random r = new Random(i);
+      for (int round = 0; round < 20; round++) {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        RedactingOutputStream out = new RedactingOutputStream(sink, redactor,
+            StandardCharsets.UTF_8, (byte) '\n', 13);
+        if (round == 0) {
+          out.write(bytes);
+        } else {
+          writeInPieces(out, bytes, r);
+        }
+        out.close();
+        Assert.assertEquals(expected[i], sink.toString("UTF-8"));
+      }
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testLongWriteWithoutDelimiter() throws Exception {
+    // Each record of 4 chars only looks that far for the delimiter, not to
+    // the end of the write
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 4000000) {
+      sb.append("abcd");
+    }
+    StringWriter writerSink = new StringWriter();
+    RedactingWriter writer = new RedactingWriter(writerSink, redactor, '\n',
+        4);
+    writer.write(sb.toString());
+    writer.close();
+    Assert.assertEquals(sb.toString(), writerSink.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMultiByteDelimiter() throws Exception {
+    new RedactingOutputStream(new ByteArrayOutputStream(), redactor,
+        StandardCharsets.UTF_16BE);
+  }
+}
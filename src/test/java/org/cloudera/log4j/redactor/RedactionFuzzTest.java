@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Differential tests of the redaction paths: random policies and messages
+ * are redacted by every path of StringRedactor (Strings with and without
+ * scope, bytes in several charsets, with and without the optimizer, and
+ * compiled) and by
+ * a plain reference loop that applies the rules one after the other with
+ * java.util.regex, and any difference fails the test with the smallest
+ * policy and message that still show it.
+ */
+public class RedactionFuzzTest {
+
+  // Characters the random searches and messages are made of, including
+  // non-ASCII ones that fold to ASCII ones (the Kelvin sign) and ones that
+  // are more than one byte in UTF-8
+  private static final String ALPHABET = "abcdAB01-.@= kKé";
+  private static final String[] LOGGERS = {null, "org.example.Foo",
+      "org.example", "com.other.Bar"};
+  private static final String[] LEVELS = {null, "ERROR", "info", "DEBUG"};
+  // A character outside the Basic Multilingual Plane, which the compiled
+  // searches leave to the Pattern
+  private static final String EMOJI = "\uD83D\uDE00";
+  // The policy options of each redactor, and their names
+  private static final String[] OPTIONS = {"\"optimize\": true",
+      "\"optimize\": false", "\"optimize\": true, \"compile\": true"};
+  private static final String[] NAMES = {"", " without optimizer",
+      " compiled"};
+
+  private final List<String> realSearches = new ArrayList<String>();
+
+  /**
+   * A rule as the reference loop sees it.
+   */
+  private static final class Rule {
+    String trigger;
+    String search;
+    String replace;
+    boolean caseSensitive = true;
+    List<String> loggers;
+    List<String> levels;
+    boolean terminal;
+    int maxMatches = Integer.MAX_VALUE;
+    Integer windowBefore;
+    Integer windowAfter;
+    Pattern pattern;
+
+    void compile() {
+      pattern = Pattern.compile(search,
+          caseSensitive ? 0 : Pattern.CASE_INSENSITIVE);
+    }
+
+    void toJson(StringBuilder sb) {
+      sb.append("{\"search\": ").append(quote(search))
+          .append(", \"replace\": ").append(quote(replace))
+          .append(", \"caseSensitive\": ").append(caseSensitive);
+      if (trigger != null) {
+        sb.append(", \"trigger\": ").append(quote(trigger));
+      }
+      if (loggers != null) {
+        sb.append(", \"loggers\": ").append(quote(loggers));
+      }
+      if (levels != null) {
+        sb.append(", \"levels\": ").append(quote(levels));
+      }
+      if (terminal) {
+        sb.append(", \"terminal\": true");
+      }
+      if (maxMatches != Integer.MAX_VALUE) {
+        sb.append(", \"maxMatches\": ").append(maxMatches);
+      }
+      if (windowBefore != null) {
+        sb.append(", \"windowBefore\": ").append(windowBefore);
+      }
+      if (windowAfter != null) {
+        sb.append(", \"windowAfter\": ").append(windowAfter);
+      }
+      sb.append('}');
+    }
+
+    boolean inScope(String loggerName, String level) {
+      if ((loggers != null) && (loggerName != null)) {
+        boolean found = false;
+        for (String prefix : loggers) {
+          found |= prefix.isEmpty() || loggerName.equals(prefix) ||
+              loggerName.startsWith(prefix + ".");
+        }
+        if (!found) {
+          return false;
+        }
+      }
+      if ((levels != null) && (level != null)) {
+        boolean found = false;
+        for (String l : levels) {
+          found |= l.equalsIgnoreCase(level);
+        }
+        if (!found) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean triggered(String msg) {
+      if ((trigger == null) || trigger.isEmpty()) {
+        return true;
+      }
+      return triggerAt(msg, 0) >= 0;
+    }
+
+    int triggerAt(String msg, int from) {
+      for (int i = from; i + trigger.length() <= msg.length(); i++) {
+        if (msg.regionMatches(!caseSensitive, i, trigger, 0,
+            trigger.length())) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return A Matcher of the message, from the start of the search window.
+     */
+    Matcher matcher(String msg) {
+      Matcher m = pattern.matcher(msg);
+      if ((windowBefore == null) && (windowAfter == null)) {
+        return m;
+      }
+      m.useTransparentBounds(true).useAnchoringBounds(false);
+      int start = Math.max(0, triggerAt(msg, 0) -
+          ((windowBefore == null) ? 0 : windowBefore));
+      return m.region(start, msg.length());
+    }
+
+    /**
+     * @return The last position in the search window a match may start at.
+     */
+    int lastStart(String msg) {
+      if (windowAfter == null) {
+        return msg.length();
+      }
+      int last = -1;
+      for (int next = triggerAt(msg, 0); next >= 0;
+           next = triggerAt(msg, next + 1)) {
+        last = next;
+      }
+      return last + trigger.length() + windowAfter;
+    }
+  }
+
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if ((c == '"') || (c == '\\')) {
+        sb.append('\\');
+      }
+      sb.append(c);
+    }
+    return sb.append('"').toString();
+  }
+
+  private static String quote(List<String> values) {
+    StringBuilder sb = new StringBuilder("[");
+    for (String value : values) {
+      sb.append((sb.length() == 1) ? "" : ", ").append(quote(value));
+    }
+    return sb.append(']').toString();
+  }
+
+  private static String toJson(List<Rule> rules, String options) {
+    StringBuilder sb = new StringBuilder("{\"version\": 1, ")
+        .append(options).append(", \"rules\": [");
+    for (int i = 0; i < rules.size(); i++) {
+      sb.append((i == 0) ? "" : ",\n");
+      rules.get(i).toJson(sb);
+    }
+    return sb.append("]}").toString();
+  }
+
+  /**
+   * The reference: every rule in scope and triggered is applied in turn
+   * with Matcher.appendReplacement().
+   */
+  private static String reference(List<Rule> rules, String msg,
+                                  String loggerName, String level) {
+    for (Rule rule : rules) {
+      if (!rule.inScope(loggerName, level) || !rule.triggered(msg)) {
+        continue;
+      }
+      Matcher m = rule.matcher(msg);
+      int lastStart = rule.lastStart(msg);
+      if (!m.find() || (m.start() > lastStart)) {
+        continue;
+      }
+      StringBuffer sb = new StringBuffer();
+      int count = 0;
+      do {
+        m.appendReplacement(sb, rule.replace);
+      } while ((++count < rule.maxMatches) && m.find() &&
+          (m.start() <= lastStart));
+      m.appendTail(sb);
+      msg = sb.toString();
+      if (rule.terminal) {
+        break;
+      }
+    }
+    return msg;
+  }
+
+  /**
+   * @return A description of the first path that redacts the message
+   *     differently from the reference, or null if they all agree.
+   */
+  private static String diverges(List<Rule> rules, String msg,
+                                 String loggerName, String level)
+      throws Exception {
+    StringRedactor[] redactors;
+    try {
+      redactors = redactors(rules);
+    } catch (RedactionPolicyParseException e) {
+      return "rejected: " + e.getMessage();
+    }
+    return diverges(rules, redactors, msg, loggerName, level);
+  }
+
+  /**
+   * @return The redactors of the policy, with each of the OPTIONS.
+   */
+  private static StringRedactor[] redactors(List<Rule> rules)
+      throws Exception {
+    StringRedactor[] redactors = new StringRedactor[OPTIONS.length];
+    for (int i = 0; i < OPTIONS.length; i++) {
+      redactors[i] =
+          StringRedactor.createFromJsonString(toJson(rules, OPTIONS[i]));
+    }
+    return redactors;
+  }
+
+  private static String diverges(List<Rule> rules, StringRedactor[] redactors,
+                                 String msg, String loggerName, String level) {
+    String expected = reference(rules, msg, loggerName, level);
+    for (int i = 0; i < redactors.length; i++) {
+      StringRedactor sr = redactors[i];
+      String name = NAMES[i];
+      String diff;
+      if ((loggerName == null) && (level == null)) {
+        diff = compare("redact(String)" + name, expected, sr.redact(msg));
+        if (diff != null) {
+          return diff;
+        }
+      }
+      diff = compare("redact(String, logger, level)" + name, expected,
+          sr.redact(msg, loggerName, level));
+      if (diff != null) {
+        return diff;
+      }
+      if (hasLoneSurrogate(expected)) {
+        // An empty match split a surrogate pair, which no bytes can hold
+        continue;
+      }
+      RedactionBuffer out = new RedactionBuffer();
+      for (Charset charset : new Charset[]{StandardCharsets.UTF_8,
+          StandardCharsets.UTF_16BE}) {
+        byte[] padded = ("<" + msg + ">").getBytes(charset);
+        int length = msg.getBytes(charset).length;
+        int offset = padded.length - length - ">".getBytes(charset).length;
+        String actual = msg;
+        if (sr.redact(padded, offset, length, charset, loggerName, level,
+            out)) {
+          actual = new String(out.array(), 0, out.length(), charset);
+        }
+        diff = compare("redact(byte[]) in " + charset + name, expected,
+            actual);
+        if (diff != null) {
+          return diff;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String compare(String path, String expected, String actual) {
+    if (expected.equals(actual)) {
+      return null;
+    }
+    return path + " gives \"" + actual + "\" instead of \"" + expected + "\"";
+  }
+
+  /**
+   * Shrink a diverging case to the fewest rules and the shortest message
+   * that still diverge, and fail with it.
+   */
+  private static void failMinimized(List<Rule> rules, String msg,
+                                    String loggerName, String level)
+      throws Exception {
+    List<Rule> current = new ArrayList<Rule>(rules);
+    StringBuilder text = new StringBuilder(msg);
+    boolean shrunk = true;
+    while (shrunk) {
+      shrunk = false;
+      for (int i = current.size() - 1; i >= 0; i--) {
+        List<Rule> fewer = new ArrayList<Rule>(current);
+        fewer.remove(i);
+        String diff = diverges(fewer, text.toString(), loggerName, level);
+        if ((diff != null) && !diff.startsWith("rejected")) {
+          current = fewer;
+          shrunk = true;
+        }
+      }
+      for (int i = text.length() - 1; i >= 0; i--) {
+        StringBuilder shorter = new StringBuilder(text).deleteCharAt(i);
+        if (hasLoneSurrogate(shorter)) {
+          // The bytes of the message would no longer be the same text
+          continue;
+        }
+        String diff = diverges(current, shorter.toString(), loggerName,
+            level);
+        if ((diff != null) && !diff.startsWith("rejected")) {
+          text = shorter;
+          shrunk = true;
+        }
+      }
+    }
+    Assert.fail(diverges(current, text.toString(), loggerName, level) +
+        "\nmessage: " + quote(text.toString()) + ", logger: " + loggerName +
+        ", level: " + level + "\npolicy: " + toJson(current, OPTIONS[0]));
+  }
+
+  private static boolean hasLoneSurrogate(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isHighSurrogate(c) && (i + 1 < text.length()) &&
+          Character.isLowSurrogate(text.charAt(i + 1))) {
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void check(List<Rule> rules, String[] messages, Random r)
+      throws Exception {
+    for (Rule rule : rules) {
+      rule.compile();
+    }
+    StringRedactor[] redactors = redactors(rules);
+    for (String msg : messages) {
+      String loggerName = LOGGERS[r.nextInt(LOGGERS.length)];
+      String level = LEVELS[r.nextInt(LEVELS.length)];
+      if (diverges(rules, redactors, msg, loggerName, level) != null) {
+        failMinimized(rules, msg, loggerName, level);
+      }
+    }
+  }
+
+  private static String randomText(Random r, String alphabet, int maxLength) {
+    char[] text = new char[r.nextInt(maxLength + 1)];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = alphabet.charAt(r.nextInt(alphabet.length()));
+    }
+    return new String(text);
+  }
+
+  /**
+   * A random regular expression over the alphabet, with classes,
+   * repetition, alternatives, capturing groups and back references.
+   * @param groups The number of capturing groups so far, updated
+   */
+  private static String randomSearch(Random r, int[] groups, int depth) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1 + r.nextInt(4); i > 0; i--) {
+      int kind = r.nextInt(12);
+      if ((kind < 5) || (depth > 1)) {
+        char c = ALPHABET.charAt(r.nextInt(ALPHABET.length()));
+        sb.append(("-.".indexOf(c) >= 0) ? "\\" + c : String.valueOf(c));
+      } else if (kind == 5) {
+        sb.append("[a-c]");
+      } else if (kind == 6) {
+        sb.append(r.nextBoolean() ? "\\d" : "\\w");
+      } else if (kind == 7) {
+        sb.append(r.nextBoolean() ? "." : "[^ ]");
+      } else if ((kind == 8) && (groups[0] > 0)) {
+        sb.append('\\').append(1 + r.nextInt(groups[0]));
+        continue;
+      } else if (kind <= 9) {
+        groups[0]++;
+        sb.append('(').append(randomSearch(r, groups, depth + 1)).append(')');
+      } else {
+        sb.append("(?:").append(randomSearch(r, groups, depth + 1))
+            .append('|').append(randomSearch(r, groups, depth + 1))
+            .append(')');
+      }
+      switch (r.nextInt(8)) {
+        case 0:
+          sb.append('?');
+          break;
+        case 1:
+          sb.append('+');
+          break;
+        case 2:
+          sb.append("{1,3}");
+          break;
+        case 3:
+          sb.append('*');
+          break;
+        case 4:
+          sb.append("{2}");
+          break;
+        default:
+          break;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String randomReplacement(Random r, int groups) {
+    StringBuilder sb = new StringBuilder(randomText(r, "XYZ#", 3));
+    if ((groups > 0) && r.nextBoolean()) {
+      sb.append('$').append(1 + r.nextInt(groups));
+    }
+    if (sb.length() == 0) {
+      sb.append('X');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Give the rule a random trigger, case sensitivity and scope.
+   */
+  private static void randomize(Rule rule, Random r) {
+    rule.caseSensitive = r.nextInt(3) > 0;
+    if (r.nextInt(4) == 0) {
+      rule.trigger = randomText(r, ALPHABET, 2);
+      // Drawn apart, to leave the policies of the other draws as they were
+      Random w = new Random(31 * rule.search.hashCode() +
+          rule.trigger.hashCode());
+      if (!rule.trigger.isEmpty() && w.nextBoolean()) {
+        rule.windowBefore = w.nextBoolean() ? null : w.nextInt(4);
+        rule.windowAfter = w.nextBoolean() ? null : w.nextInt(8);
+      }
+    }
+    if (r.nextInt(5) == 0) {
+      rule.loggers = Arrays.asList(r.nextBoolean() ? "org.example" : "");
+    }
+    if (r.nextInt(5) == 0) {
+      rule.levels = Arrays.asList(r.nextBoolean() ? "error" : "INFO");
+    }
+    rule.terminal = r.nextInt(15) == 0;
+    if (r.nextInt(10) == 0) {
+      rule.maxMatches = 1 + r.nextInt(2);
+    }
+  }
+
+  private static String[] randomMessages(Random r, List<Rule> rules,
+                                         int count) {
+    String[] messages = new String[count];
+    for (int i = 0; i < count; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int pieces = r.nextInt(6); pieces >= 0; pieces--) {
+        if (r.nextInt(10) == 0) {
+          sb.append(EMOJI);
+        } else if (r.nextBoolean() || rules.isEmpty()) {
+          sb.append(randomText(r, ALPHABET, 8));
+        } else {
+          // Something close to what a rule is after
+          Rule rule = rules.get(r.nextInt(rules.size()));
+          String s = (rule.trigger != null) ? rule.trigger : "";
+          sb.append(s).append(randomText(r, ALPHABET, 2))
+              .append(rule.search.replace("\\", ""));
+        }
+      }
+      messages[i] = sb.toString();
+    }
+    return messages;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    URL resourceUrl = getClass().getResource("/real-1.json");
+    StringRedactor real = StringRedactor.createFromJsonFile(
+        new File(resourceUrl.toURI()).getPath());
+    for (StringRedactor.RedactionRule rule : real.getRules()) {
+      realSearches.add(rule.getSearch());
+    }
+  }
+
+  @Test
+  public void testRandomPolicies() throws Exception {
+    Random r = new Random(1);
+    for (int round = 0; round < 200; round++) {
+      List<Rule> rules = new ArrayList<Rule>();
+      for (int i = 1 + r.nextInt(6); i > 0; i--) {
+        Rule rule = new Rule();
+        int[] groups = {0};
+        rule.search = randomSearch(r, groups, 0);
+        rule.replace = randomReplacement(r, groups[0]);
+        randomize(rule, r);
+        rules.add(rule);
+      }
+      check(rules, randomMessages(r, rules, 40), r);
+    }
+  }
+
+  /**
+   * Policies in the style of real-1.json: its rules, in random order,
+   * along with some literal rules.
+   */
+  @Test
+  public void testRealPolicies() throws Exception {
+    Random r = new Random(2);
+    for (int round = 0; round < 100; round++) {
+      List<Rule> rules = new ArrayList<Rule>();
+      for (int i = 2 + r.nextInt(8); i > 0; i--) {
+        Rule rule = new Rule();
+        if (r.nextBoolean()) {
+          rule.search = realSearches.get(r.nextInt(realSearches.size()));
+          rule.replace = randomReplacement(r, 0);
+        } else {
+          rule.search = Pattern.quote(randomText(r, "ab0.@", 3) + "x");
+          rule.replace = randomReplacement(r, 0);
+        }
+        randomize(rule, r);
+        rules.add(rule);
+      }
+      String[] messages = randomMessages(r, rules, 40);
+      for (int i = 0; i < messages.length; i += 2) {
+        messages[i] += " 1234-5678-9012-3456 123-45-6789 a.b.example.com" +
+            " 10.1.2.3 password=x@example.org";
+      }
+      check(rules, messages, r);
+    }
+  }
+
+  /**
+   * Policies in the style of huge-1.json: many literal rules, over a small
+   * alphabet so that literals and replacements overlap in every way.
+   */
+  @Test
+  public void testLiteralPolicies() throws Exception {
+    Random r = new Random(3);
+    for (int round = 0; round < 60; round++) {
+      List<Rule> rules = new ArrayList<Rule>();
+      int count = 5 + r.nextInt(r.nextBoolean() ? 20 : 200);
+      for (int i = 0; i < count; i++) {
+        Rule rule = new Rule();
+        rule.search = "abcd".charAt(r.nextInt(4)) + randomText(r, "abcd", 3);
+        rule.replace = randomText(r, "abcdXY", 3) + "Y";
+        if (r.nextInt(20) == 0) {
+          randomize(rule, r);
+        }
+        rules.add(rule);
+      }
+      String[] messages = new String[100];
+      for (int i = 0; i < messages.length; i++) {
+        messages[i] = randomText(r, "abcd é", 30);
+      }
+      check(rules, messages, r);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RedactionServerTest {
+
+  private StringRedactor redactor;
+  private ByteArrayOutputStream sink;
+  private ByteArrayOutputStream err;
+  private RedactionServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    URL resourceUrl = getClass().getResource("/real-1.json");
+    redactor = StringRedactor.createFromJsonFile(
+        new File(resourceUrl.toURI()).getPath());
+    sink = new ByteArrayOutputStream();
+    err = new ByteArrayOutputStream();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private void start(RedactionServer.Framing framing, int maxRecordSize)
+      throws Exception {
+    server = new RedactionServer(redactor,
+        new InetSocketAddress("127.0.0.1", 0), framing, 2, maxRecordSize,
+        sink, new PrintStream(err, true, "UTF-8"));
+    server.start();
+  }
+
+  private Socket connect() throws Exception {
+    return new Socket("127.0.0.1", server.getPort());
+  }
+
+  private static void send(Socket socket, String text) throws Exception {
+    OutputStream out = socket.getOutputStream();
+    out.write(text.getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  /**
+   * Wait until the sink has the given number of bytes.
+   */
+  private void awaitOutput(int length) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((sink.size() < length) && (System.currentTimeMillis() < deadline)) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static String records(String... records) {
+    StringBuilder sb = new StringBuilder();
+    for (String record : records) {
+      sb.append(record).append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testLines() throws Exception {
+    start(RedactionServer.Framing.LINES,
+        RedactionServer.DEFAULT_MAX_RECORD_SIZE);
+    Socket first = connect();
+    Socket second = connect();
+    send(first, "card 1234-5678-9012-3456\nnothing to see\npass");
+    send(second, "ssn 123-45-6789\n");
+    send(first, "word=secret\n");
+    // Incomplete lines are redacted when the connection closes
+    send(second, "my password=hunter2");
+    first.close();
+    second.close();
+    String expected = records("card XXXX-XXXX-XXXX-XXXX", "nothing to see",
+        "password=xxxxx", "ssn XXX-XX-XXXX", "my password=xxxxx");
+    awaitOutput(expected.length());
+    server.close();
+
+    List<String> lines = new ArrayList<String>(Arrays.asList(
+        sink.toString("UTF-8").split("\n")));
+    // The records of a connection keep their order
+    Assert.assertTrue(lines.indexOf("nothing to see") >
+        lines.indexOf("card XXXX-XXXX-XXXX-XXXX"));
+    Assert.assertTrue(lines.indexOf("password=xxxxx") >
+        lines.indexOf("nothing to see"));
+    lines.sort(null);
+    List<String> expectedLines = new ArrayList<String>(Arrays.asList(
+        expected.split("\n")));
+    expectedLines.sort(null);
+    Assert.assertEquals(expectedLines, lines);
+  }
+
+  @Test
+  public void testLongLines() throws Exception {
+    start(RedactionServer.Framing.LINES, 16);
+    Socket socket = connect();
+    send(socket, "abcdefghijklmnopqrst\n123-45-6789\n");
+    socket.close();
+    String expected = records("abcdefghijklmnop", "qrst", "XXX-XX-XXXX");
+    awaitOutput(expected.length());
+    server.close();
+    Assert.assertEquals(expected, sink.toString("UTF-8"));
+  }
+
+  @Test
+  public void testLongLinesUtf8() throws Exception {
+    // The cut at 13 bytes would split the 'é': it starts the next record
+    start(RedactionServer.Framing.LINES, 13);
+    Socket socket = connect();
+    send(socket, "123-45-6789 \u00e9t\u00e9\n");
+    socket.close();
+    String expected = records("XXX-XX-XXXX ", "\u00e9t\u00e9");
+    awaitOutput(expected.getBytes(StandardCharsets.UTF_8).length);
+    server.close();
+    Assert.assertEquals(expected, sink.toString("UTF-8"));
+  }
+
+  @Test
+  public void testLengthPrefixed() throws Exception {
+    start(RedactionServer.Framing.LENGTH, 1024);
+    Socket socket = connect();
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    String[] records = {"Exception: bad password=x\n\tat Foo.bar()",
+        "", "café 1234-5678-9012-3456"};
+    for (String record : records) {
+      byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      // Split across writes
+      out.write(bytes, 0, bytes.length / 2);
+      out.flush();
+      out.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+    }
+    out.flush();
+    socket.close();
+    String[] expected = {"Exception: bad password=xxxxx\n\tat " +
+        "HOSTNAME.REDACTED()",
+        "", "café XXXX-XXXX-XXXX-XXXX"};
+    int length = 0;
+    for (String record : expected) {
+      length += 4 + record.getBytes(StandardCharsets.UTF_8).length;
+    }
+    awaitOutput(length);
+    server.close();
+
+    DataInputStream in = new DataInputStream(
+        new java.io.ByteArrayInputStream(sink.toByteArray()));
+    for (String record : expected) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      Assert.assertEquals(record, new String(bytes, StandardCharsets.UTF_8));
+    }
+    Assert.assertEquals(0, in.available());
+  }
+
+  @Test
+  public void testOversizedRecord() throws Exception {
+    start(RedactionServer.Framing.LENGTH, 16);
+    Socket socket = connect();
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    out.writeInt(9);
+    out.write("123456789".getBytes(StandardCharsets.UTF_8));
+    out.writeInt(17);
+    out.flush();
+    // The server closes the connection
+    Assert.assertEquals(-1, socket.getInputStream().read());
+    socket.close();
+    awaitOutput(13);
+    server.close();
+    DataInputStream in = new DataInputStream(
+        new java.io.ByteArrayInputStream(sink.toByteArray()));
+    Assert.assertEquals(9, in.readInt());
+    byte[] bytes = new byte[9];
+    in.readFully(bytes);
+    Assert.assertEquals("XXXXXXXXX", new String(bytes, StandardCharsets.UTF_8));
+    Assert.assertEquals(0, in.available());
+    // Reported where the server was told to
+    Assert.assertTrue(err.toString("UTF-8").contains(
+        "which sent a record of 17 bytes"));
+  }
+
+  @Test
+  public void testSlowSender() throws Exception {
+    start(RedactionServer.Framing.LINES, 64);
+    Socket socket = connect();
+    // A line in many reads, each one looked at once
+    String sent = "ssn 123-45-6789 password=hunter2\nssn 987-65-4321\n";
+    for (int i = 0; i < sent.length(); i++) {
+      send(socket, sent.substring(i, i + 1));
+      Thread.sleep(1);
+    }
+    socket.close();
+    String expected = records("ssn XXX-XX-XXXX password=xxxxx",
+        "ssn XXX-XX-XXXX");
+    awaitOutput(expected.length());
+    server.close();
+    Assert.assertEquals(expected, sink.toString("UTF-8"));
+  }
+
+  @Test
+  public void testManyRecords() throws Exception {
+    start(RedactionServer.Framing.LINES,
+        RedactionServer.DEFAULT_MAX_RECORD_SIZE);
+    Socket socket = connect();
+    StringBuilder sent = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      sent.append("record ").append(i).append(" password=").append(i)
+          .append('\n');
+      expected.append("record ").append(i).append(" password=xxxxx\n");
+    }
+    send(socket, sent.toString());
+    socket.close();
+    awaitOutput(expected.length());
+    server.close();
+    // In order, across many batches
+    Assert.assertEquals(expected.toString(), sink.toString("UTF-8"));
+  }
+
+  @Test
+  public void testUsage() throws Exception {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    Assert.assertEquals(2, RedactionServer.run(new String[]{"--port=1"},
+        new java.io.PrintStream(err, true, "UTF-8")));
+    Assert.assertTrue(err.toString("UTF-8").startsWith("Usage"));
+  }
+}
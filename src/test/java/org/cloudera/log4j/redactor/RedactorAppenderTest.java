@@ -18,7 +18,9 @@ import java.util.Properties;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
 import org.apache.log4j.PropertyConfigurator;
+import org.junit.Assert;
 import org.junit.Test;
 
 public class RedactorAppenderTest extends BaseRedactorTest {
@@ -63,6 +65,50 @@ public class RedactorAppenderTest extends BaseRedactorTest {
     });
   }
 
+  /**
+   * Validate that rules scoped to loggers and levels only apply to the
+   * events of those loggers and levels.
+   */
+  @Test
+  public void testScopedRedaction() {
+    Properties logProps = new Properties(defaults);
+    logProps.setProperty(PRE + "redactor.policy.rules",
+            resourcePath + "/scoped-1.json");
+    PropertyConfigurator.configure(logProps);
+
+    Logger.getLogger("org.example.auth.Login").info("password=hunter2");
+    Assert.assertEquals("password=xxxxx", getAndResetLogOutput());
+    Logger.getLogger("org.example.Other").info("password=hunter2 12345678");
+    Assert.assertEquals("password=hunter2 12345678", getAndResetLogOutput());
+    Logger.getLogger("org.example.Other").error("password=hunter2 12345678");
+    Assert.assertEquals("password=hunter2 XXXXXXXX", getAndResetLogOutput());
+  }
+
+  /**
+   * Validate that the policy of an event is chosen by its MDC.
+   */
+  @Test
+  public void testTenantPolicies() {
+    Properties logProps = new Properties(defaults);
+    logProps.setProperty(PRE + "redactor.policy.rules",
+            resourcePath + "/real-1.json");
+    logProps.setProperty(PRE + "redactor.policy.policyDirectory",
+            resourcePath + "/tenants");
+    logProps.setProperty(PRE + "redactor.policy.selectorKey", "tenantId");
+    PropertyConfigurator.configure(logProps);
+    Logger log = Logger.getLogger(RedactorAppenderTest.class);
+
+    try {
+      MDC.put("tenantId", "acme");
+      log.info("secret SSN 123-45-6789");
+      Assert.assertEquals("ACME SSN 123-45-6789", getAndResetLogOutput());
+    } finally {
+      MDC.remove("tenantId");
+    }
+    log.info("secret SSN 123-45-6789");
+    Assert.assertEquals("secret SSN XXX-XX-XXXX", getAndResetLogOutput());
+  }
+
   /**
    * Ensure expected exception behavior with a file that doesn't exist
    */
@@ -20,6 +20,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -27,16 +28,33 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 public class StringRedactorTest {
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   private String resourcePath;
   private static final String MESSAGE = "This string is not redacted";
 
@@ -470,6 +488,1005 @@ public class StringRedactorTest {
     verifyOK(srj, tests);
   }
 
+  @Test
+  public void testKeyRules() throws Exception {
+    final String fileName = resourcePath + "/keys-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    for (StringRedactor sr : new StringRedactor[]{srf, srj}) {
+      Assert.assertTrue(sr.hasKeyRules());
+      Assert.assertEquals("xxxxx", sr.redactValue("password", "hunter2"));
+      Assert.assertEquals("xxxxx", sr.redactValue("Token", "abc"));
+      Assert.assertEquals("XXX-XX-XXXX", sr.redactValue("ssn", "123-45-6789"));
+      // Case sensitive keys
+      Assert.assertEquals("123-45-6789", sr.redactValue("SSN", "123-45-6789"));
+      // Keys no rule names are returned as is, even if a message rule matches
+      String value = "my secret";
+      Assert.assertSame(value, sr.redactValue("user", value));
+      Assert.assertNull(sr.redactValue("password", null));
+      Assert.assertEquals("hunter2", sr.redactValue(null, "hunter2"));
+      // Key rules don't apply to the message itself
+      Assert.assertEquals("password=XXXXXX", sr.redact("password=secret"));
+    }
+
+    StringRedactor noKeys = StringRedactor.createFromJsonFile(
+        resourcePath + "/real-1.json");
+    Assert.assertFalse(noKeys.hasKeyRules());
+    Assert.assertEquals("123-45-6789", noKeys.redactValue("ssn", "123-45-6789"));
+  }
+
+  @Test
+  public void testEmptyKeys() throws Exception {
+    final String fileName = resourcePath + "/empty-keys.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("keys cannot be empty");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testJsonRedaction() throws Exception {
+    final String fileName = resourcePath + "/json-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    List<String[]> tests = new ArrayList<String[]>();
+    // tests are a list of {"input", "expected"} pairs.
+    tests.add(new String[]{"{\"msg\": \"Hello, world\"}",
+        "{\"msg\": \"Hello, world\"}"});
+    tests.add(new String[]{"{\"user\":\"bob\", \"Password\" : \"x\\\"y\" }\n",
+        "{\"user\":\"bob\", \"Password\" : \"xxxxx\" }\n"});
+    tests.add(new String[]{"{\"passwords\":[\"a\",\"b\"],\"password\":1234}",
+        "{\"passwords\":[\"a\",\"b\"],\"password\":\"xxxxx\"}"});
+    tests.add(new String[]{"{\"session\":{\"token\":\"abc\"},\"token\":\"abc\"}",
+        "{\"session\":{\"token\":\"TOKEN\"},\"token\":\"abc\"}"});
+    // The same field, in and out of the path, in one line
+    tests.add(new String[]{"{\"token\":\"a\",\"session\":{\"token\":\"b\"}," +
+        "\"x\":{\"token\":\"c\"},\"session\":{\"token\":\"d\"}}",
+        "{\"token\":\"a\",\"session\":{\"token\":\"TOKEN\"}," +
+        "\"x\":{\"token\":\"c\"},\"session\":{\"token\":\"TOKEN\"}}"});
+    tests.add(new String[]{"{\"a\":{\"ssn\":[\"1\",\"2\"]},\"ssn\":\"3\"}",
+        "{\"a\":{\"ssn\":[\"TOKEN\",\"TOKEN\"]},\"ssn\":\"3\"}"});
+    tests.add(new String[]{"{\"cc\":1234234534654576,\"s\":\"CC 1234234534654576\"}",
+        "{\"cc\":\"XXXXXXXXXXXXXXXX\",\"s\":\"CC XXXXXXXXXXXXXXXX\"}"});
+    // Replacement text is escaped, the structure is left alone
+    tests.add(new String[]{"{\"it's\":\"it's\"}", "{\"it's\":\"it\\\"s\"}"});
+    // Not JSON, redacted as plain text
+    tests.add(new String[]{"password=1234234534654576 it's",
+        "password=XXXXXXXXXXXXXXXX it\"s"});
+
+    RedactionBuffer out = new RedactionBuffer();
+    for (String[] test : tests) {
+      Assert.assertEquals(test[1], srf.redactJson(test[0]));
+      Assert.assertEquals(test[1], srj.redactJson(test[0]));
+      // As bytes, in the middle of an array
+      byte[] bytes = ("[[" + test[0] + "]]").getBytes(StandardCharsets.UTF_8);
+      String redacted = srf.redactJson(bytes, 2, bytes.length - 4,
+          StandardCharsets.UTF_8, null, null, out)
+          ? new String(out.array(), 0, out.length(), StandardCharsets.UTF_8)
+          : test[0];
+      Assert.assertEquals(test[1], redacted);
+    }
+    String unchanged = "{\"msg\": \"Hello, world\"}";
+    Assert.assertSame(unchanged, srf.redactJson(unchanged));
+    Assert.assertNull(srf.redactJson(null));
+  }
+
+  @Test
+  public void testScopedRules() throws Exception {
+    final String fileName = resourcePath + "/scoped-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    for (StringRedactor sr : new StringRedactor[]{srf, srj}) {
+      // Twice, to go through the cached rule selection as well
+      for (int i = 0; i < 2; i++) {
+        Assert.assertEquals("password=xxxxx", sr.redact("password=secret",
+            "org.example.auth.Login", "INFO"));
+        Assert.assertEquals("password=xxxxx", sr.redact("password=secret",
+            "org.example.Config", "INFO"));
+        Assert.assertEquals("password=XXXXXX", sr.redact("password=secret",
+            "org.example.ConfigLoader", "INFO"));
+        Assert.assertEquals("password=XXXXXX", sr.redact("password=secret",
+            "org.example.authx", "INFO"));
+        Assert.assertEquals("acct 12345678", sr.redact("acct 12345678",
+            "org.example.auth.Login", "INFO"));
+        Assert.assertEquals("acct XXXXXXXX", sr.redact("acct 12345678",
+            "org.example.auth.Login", "ERROR"));
+        Assert.assertEquals("acct XXXXXXXX", sr.redact("acct 12345678",
+            "org.example.Other", "FATAL"));
+      }
+      // Unknown logger and level, or no scope at all: every rule applies
+      Assert.assertEquals("password=xxxxx", sr.redact("password=secret",
+          null, null));
+      Assert.assertEquals("acct XXXXXXXX", sr.redact("acct 12345678"));
+
+      Assert.assertEquals("xxxxx", sr.redactValue("token", "abc",
+          "org.example.auth.Login", "DEBUG"));
+      Assert.assertEquals("abc", sr.redactValue("token", "abc",
+          "org.example.Other", "DEBUG"));
+      Assert.assertEquals("xxxxx", sr.redactValue("token", "abc"));
+    }
+  }
+
+  @Test
+  public void testScopedRulesManyLoggers() throws Exception {
+    StringRedactor scoped = StringRedactor.createFromJsonFile(
+        resourcePath + "/scoped-1.json");
+    StringRedactor groups = StringRedactor.createFromJsonFile(
+        resourcePath + "/group-1.json");
+    // More loggers than the cache of the rules in scope holds
+    for (int i = 0; i < 5000; i++) {
+      scoped.redact("nothing", "org.example.Filler" + i, "INFO");
+      groups.redact("nothing", "org.example.Filler" + i, "INFO");
+    }
+
+    // The loggers that aren't cached have their scope checked rule by rule
+    String[][] tests = {
+        {"password=secret", "org.example.auth.Late", "INFO", "password=xxxxx"},
+        {"password=secret", "org.example.Late", "INFO", "password=XXXXXX"},
+        {"acct 12345678", "org.example.auth.Late", "INFO", "acct 12345678"},
+        {"acct 12345678", "org.example.auth.Late", "ERROR", "acct XXXXXXXX"},
+    };
+    String[][] groupTests = {
+        {"Card 1234-2345-3456-4576 acct 12345678", "org.example.pay.Late",
+            "INFO", "Card XXXX-XXXX-XXXX-XXXX acct XXXXXXXX"},
+        {"card 1234-2345-3456-4576 acct 12345678", "org.example.Late",
+            "INFO", "card 1234-2345-3456-4576 acct 12345678"},
+    };
+    RedactionBuffer out = new RedactionBuffer();
+    for (int i = 0; i < 2; i++) {
+      StringRedactor sr = (i == 0) ? scoped : groups;
+      for (String[] test : (i == 0) ? tests : groupTests) {
+        Assert.assertEquals(test[3], sr.redact(test[0], test[1], test[2]));
+        byte[] bytes = test[0].getBytes(StandardCharsets.UTF_8);
+        String redacted = sr.redact(bytes, 0, bytes.length,
+            StandardCharsets.UTF_8, test[1], test[2], out)
+            ? new String(out.array(), 0, out.length(), StandardCharsets.UTF_8)
+            : test[0];
+        Assert.assertEquals(test[3], redacted);
+      }
+    }
+  }
+
+  @Test
+  public void testGroups() throws Exception {
+    final String fileName = resourcePath + "/group-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    for (StringRedactor sr : new StringRedactor[]{srf, srj}) {
+      // Twice, to go through the cached rule selection as well
+      for (int i = 0; i < 2; i++) {
+        // The rules of a group only run if its trigger matches
+        Assert.assertEquals("jdbc:mysql://db/x?user=xxxxx&password=xxxxx",
+            sr.redact("jdbc:mysql://db/x?user=bob&password=pw", null, null));
+        Assert.assertEquals("user=bob password=pw",
+            sr.redact("user=bob password=pw", null, null));
+        // Rules after a group still run, whether or not it matched
+        Assert.assertEquals("jdbc:x;password=xxxxx;XXXXXX",
+            sr.redact("jdbc:x;password=pw;secret", null, null));
+        Assert.assertEquals("user=bob XXXXXX",
+            sr.redact("user=bob secret", null, null));
+        // Nested groups: the logger scope of the outer group applies to
+        // all its rules, the search of the inner group only to its own
+        Assert.assertEquals("Card XXXX-XXXX-XXXX-XXXX acct XXXXXXXX",
+            sr.redact("Card 1234-2345-3456-4576 acct 12345678",
+                "org.example.pay.Api", "INFO"));
+        Assert.assertEquals("ref 1234-2345-3456-4576 acct XXXXXXXX",
+            sr.redact("ref 1234-2345-3456-4576 acct 12345678",
+                "org.example.pay.Api", "INFO"));
+        Assert.assertEquals("card 1234-2345-3456-4576 acct 12345678",
+            sr.redact("card 1234-2345-3456-4576 acct 12345678",
+                "org.example.Other", "INFO"));
+      }
+      // An unknown logger is in every scope
+      Assert.assertEquals("card XXXX-XXXX-XXXX-XXXX",
+          sr.redact("card 1234-2345-3456-4576"));
+
+      // Groups are listed right before their rules
+      List<StringRedactor.RedactionRule> rules = sr.getRules();
+      Assert.assertEquals(8, rules.size());
+      Assert.assertTrue(rules.get(3).isGroup());
+      Assert.assertEquals("Card numbers", rules.get(5).getDescription());
+      Assert.assertEquals(Arrays.asList(rules.get(3), rules.get(4)),
+          rules.get(5).getGroups());
+      Assert.assertTrue(rules.get(7).getGroups().isEmpty());
+    }
+  }
+
+  @Test
+  public void testEmptyGroup() throws Exception {
+    final String fileName = resourcePath + "/group-empty.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("rules of a group cannot be empty");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testGroupWithReplace() throws Exception {
+    final String fileName = resourcePath + "/group-replace.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("group of rules cannot have a replacement");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testShortCircuit() throws Exception {
+    final String fileName = resourcePath + "/shortcircuit-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    List<String[]> tests = new ArrayList<String[]>();
+    // tests are a list of {"input", "expected"} pairs.
+    tests.add(new String[]{"1234-2345-3456-4576 secret", "CARD secret"});
+    tests.add(new String[]{"1.2.3.4 secret", "IP XXXXXX"});
+    tests.add(new String[]{"1.2.3.4 5.6.7.8 9.9.9.9 secret",
+        "IP IP 9.9.9.9 XXXXXX"});
+    tests.add(new String[]{"nothing to see", "nothing to see"});
+
+    verifyOK(srf, tests);
+    verifyOK(srj, tests);
+  }
+
+  @Test
+  public void testReplaceWholeMessage() throws Exception {
+    final String fileName = resourcePath + "/whole-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    List<String[]> tests = new ArrayList<String[]>();
+    // tests are a list of {"input", "expected"} pairs.
+    tests.add(new String[]{"login password=hunter2", "REDACTED"});
+    tests.add(new String[]{"a secret", "REDACTED"});
+    tests.add(new String[]{"nothing to see", "nothing to see"});
+
+    verifyOK(srf, tests);
+    verifyOK(srj, tests);
+  }
+
+  @Test
+  public void testMaxMatchesBad() throws Exception {
+    final String fileName = resourcePath + "/max-matches-bad.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("maximum number of matches must be positive");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testKeyValueRules() throws Exception {
+    final String fileName = resourcePath + "/keyvalue-1.json";
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+
+    List<String[]> tests = new ArrayList<String[]>();
+    tests.add(new String[]{"user=bob password=hunter2 timeout=30",
+        "user=USER password=xxxxx timeout=30"});
+    tests.add(new String[]{"PASSWORD : 'my pass' next",
+        "PASSWORD : 'xxxxx' next"});
+    tests.add(new String[]{"token:\"a b c\" done", "token:\"xxxxx\" done"});
+    tests.add(new String[]{"jdbc:mysql://db/x?user=al&password=pw&ssl=true",
+        "jdbc:mysql://db/x?user=al&password=xxxxx&ssl=true"});
+    tests.add(new String[]{"url=jdbc:sqlserver://h;password=pw;db=x",
+        "url=jdbc:sqlserver://h;password=xxxxx;db=x"});
+    tests.add(new String[]{"fs.s3a.secret.key=AK/a+b, fs.s3a.endpoint=s3",
+        "fs.s3a.secret.key=xxxxx, fs.s3a.endpoint=s3"});
+    tests.add(new String[]{"Authorization: Basic dXNlcjpwYXNz",
+        "Authorization: REDACTED"});
+    // Keys are whole, and case sensitive unless the rule says otherwise
+    tests.add(new String[]{"authorization: Basic x", "authorization: Basic x"});
+    tests.add(new String[]{"mypassword=x password_old=y",
+        "mypassword=x password_old=y"});
+    tests.add(new String[]{"password=, user=al", "password=, user=al"});
+    tests.add(new String[]{"no pairs here", "no pairs here"});
+    verifyOK(sr, tests);
+  }
+
+  @Test
+  public void testKeyValueBad() throws Exception {
+    final String fileName = resourcePath + "/keyvalue-bad.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("can only have letters");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testSearchWindows() throws Exception {
+    final String fileName = resourcePath + "/window-1.json";
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+
+    List<String[]> tests = new ArrayList<String[]>();
+    tests.add(new String[]{"Card: 1234-5678-9012-3456",
+        "Card: XXXX-XXXX-XXXX-XXXX"});
+    // Starting outside the window
+    tests.add(new String[]{"card on file since 2019, order " +
+        "1234-5678-9012-3456 shipped", "card on file since 2019, order " +
+        "1234-5678-9012-3456 shipped"});
+    tests.add(new String[]{"1234-5678-9012-3456 is the card",
+        "1234-5678-9012-3456 is the card"});
+    // The window runs from the first trigger to the last
+    tests.add(new String[]{"card 1234-5678-9012-3456 and the CARD " +
+        "9876-5432-1098-7654", "card XXXX-XXXX-XXXX-XXXX and the CARD " +
+        "XXXX-XXXX-XXXX-XXXX"});
+    // Starting in the window, the whole match is replaced
+    tests.add(new String[]{"login token=abcdefghijklmnopqrstuvwxyz0123456789",
+        "login token=xxxxx"});
+    tests.add(new String[]{"card number is 1234-5678-9012-3456",
+        "card number is XXXX-XXXX-XXXX-XXXX"});
+    // Boundaries and lookarounds see the text around the window
+    tests.add(new String[]{"mytoken=abc token=def", "mytoken=abc token=xxxxx"});
+    tests.add(new String[]{"GET / Authorization: Bearer abc.def",
+        "GET / Authorization: Bearer xxxxx"});
+    tests.add(new String[]{"GET / Bearer abc.def", "GET / Bearer abc.def"});
+    verifyOK(sr, tests);
+
+    // A window derived from the search: "password=" starts every match
+    String padding = String.format("%10000s", "").replace(' ', 'x');
+    sr = StringRedactor.createFromJsonFile(resourcePath + "/real-1.json");
+    Assert.assertEquals(padding + " password=xxxxx",
+        sr.redact(padding + " password=hunter2"));
+  }
+
+  @Test(timeout = 10000)
+  public void testSearchWindowBounded() throws Exception {
+    // Searched all the way, every position of the blob would scan the rest
+    // of it for an '@': only the window is searched
+    final String fileName = resourcePath + "/window-2.json";
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 200000) {
+      sb.append("QUJDREVGR0hJSktM");
+    }
+    String blob = sb.toString();
+    Assert.assertEquals("user x@x sent " + blob,
+        sr.redact("user bob@example.com sent " + blob));
+    Assert.assertEquals("user " + blob, sr.redact("user " + blob));
+    // A match that starts in the window still goes on past it
+    Assert.assertEquals("user: x@x",
+        sr.redact("user: bob" + blob + "@example.com"));
+  }
+
+  @Test
+  public void testSearchWindowBad() throws Exception {
+    final String fileName = resourcePath + "/window-bad.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("needs a trigger");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    final String fileName = resourcePath + "/warmup-1.json";
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+    Assert.assertTrue(sr.awaitWarmUp(60, TimeUnit.SECONDS));
+    Assert.assertEquals("login by bob, password=xxxxx",
+        sr.redact("login by bob, password=hunter2"));
+    Assert.assertEquals("SSN XXX-XX-XXXX", sr.redact("SSN 123-45-6789"));
+    Assert.assertEquals("xxxxx", sr.redactValue("token", "t0k3n"));
+
+    // No warm up: nothing to wait for
+    sr = StringRedactor.createFromJsonFile(resourcePath + "/real-1.json");
+    Assert.assertTrue(sr.awaitWarmUp(0, TimeUnit.SECONDS));
+
+    // The made up texts the warm up matches rules with
+    Assert.assertEquals("000-00-0000", RegexTree.sample(RegexTree.parse(
+        Pattern.compile("\\d{3}-\\d{2}-\\d{4}"))));
+    Assert.assertEquals("password=a", RegexTree.sample(RegexTree.parse(
+        Pattern.compile("(?:password|pwd)=[^;&]+"))));
+    Assert.assertNull(RegexTree.sample(RegexTree.parse(
+        Pattern.compile("(a)\\1"))));
+  }
+
+  @Test
+  public void testWarmUpBad() throws Exception {
+    final String fileName = resourcePath + "/warmup-bad.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("warm up needs at least one thread");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  /**
+   * Redact until the budget is exceeded.
+   */
+  private static void exceedBudget(StringRedactor sr) throws Exception {
+    for (int i = 0; (i < 100000) && !sr.getBudget().isDegraded(); i++) {
+      sr.redact("password=hunter2 acct 12345678 secret");
+      if (i % 1000 == 999) {
+        Thread.sleep(1);
+      }
+    }
+    Assert.assertTrue(sr.getBudget().isDegraded());
+  }
+
+  @Test
+  public void testBudgetMask() throws Exception {
+    StringRedactor sr = StringRedactor.createFromJsonFile(resourcePath +
+        "/budget-1.json");
+    RedactionBudget budget = sr.getBudget();
+    Assert.assertEquals(5000000, budget.getNanosPerSecond());
+    Assert.assertEquals("password=xxxxx", sr.redact("password=hunter2"));
+    Assert.assertFalse(budget.isDegraded());
+
+    exceedBudget(sr);
+    Assert.assertEquals(1, budget.getDegradations());
+    long degradedMessages = budget.getDegradedMessages();
+    // A rule without a trigger could match anything, so everything is masked
+    Assert.assertEquals("REDACTED", sr.redact("password=hunter2"));
+    Assert.assertEquals("REDACTED", sr.redact("hello"));
+    RedactionBuffer out = new RedactionBuffer();
+    byte[] bytes = "secret".getBytes(StandardCharsets.UTF_8);
+    Assert.assertTrue(sr.redact(bytes, 0, bytes.length,
+        StandardCharsets.UTF_8, null, null, out));
+    Assert.assertEquals("REDACTED",
+        new String(out.array(), 0, out.length(), StandardCharsets.UTF_8));
+    Assert.assertEquals(degradedMessages + 3, budget.getDegradedMessages());
+
+    // A quiet window is back within the budget
+    Thread.sleep(300);
+    Assert.assertEquals("password=xxxxx", sr.redact("password=hunter2"));
+    Assert.assertFalse(budget.isDegraded());
+    Assert.assertEquals(1, budget.getRecoveries());
+  }
+
+  @Test
+  public void testBudgetTriggersOnly() throws Exception {
+    StringRedactor sr = StringRedactor.createFromJsonFile(resourcePath +
+        "/budget-2.json");
+    exceedBudget(sr);
+    // The account number rule has no trigger, and is skipped
+    Assert.assertEquals("password=xxxxx acct 12345678 XXXXXX",
+        sr.redact("password=hunter2 acct 12345678 secret"));
+  }
+
+  @Test
+  public void testBudgetDropBelow() throws Exception {
+    StringRedactor sr = StringRedactor.createFromJsonFile(resourcePath +
+        "/budget-3.json");
+    exceedBudget(sr);
+    Assert.assertEquals("REDACTED", sr.redact("acct 12345678", null, "INFO"));
+    Assert.assertEquals("acct XXXXXXXX", sr.redact("acct 12345678", null,
+        "WARN"));
+    Assert.assertEquals("acct XXXXXXXX", sr.redact("acct 12345678", null,
+        null));
+  }
+
+  @Test
+  public void testBudgetWarmUp() throws Exception {
+    StringRedactor sr = StringRedactor.createFromJsonFile(resourcePath +
+        "/budget-warmup.json");
+    // The warm up runs far over the budget, but isn't charged to it
+    Assert.assertEquals("password=xxxxx", sr.redact("password=hunter2"));
+    Assert.assertTrue(sr.awaitWarmUp(60, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    Assert.assertEquals("acct XXXXXXXX", sr.redact("acct 12345678"));
+    Assert.assertEquals("password=xxxxx", sr.redact("password=hunter2"));
+    Assert.assertFalse(sr.getBudget().isDegraded());
+    Assert.assertEquals(0, sr.getBudget().getDegradations());
+  }
+
+  @Test
+  public void testBudgetBad() throws Exception {
+    final String fileName = resourcePath + "/budget-bad.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("budget needs either");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testPolicyCache() throws Exception {
+    StringRedactor defaultRedactor = StringRedactor.createFromJsonFile(
+        resourcePath + "/real-1.json");
+    PolicyCache cache = new PolicyCache(resourcePath + "/tenants", 2,
+        defaultRedactor);
+
+    StringRedactor acme = cache.get("acme");
+    Assert.assertEquals("ACME", acme.redact("secret"));
+    Assert.assertSame(acme, cache.get("acme"));
+    // Unknown tenants, names that aren't file names and broken policies
+    // get the default policy
+    Assert.assertSame(defaultRedactor, cache.get(null));
+    Assert.assertSame(defaultRedactor, cache.get("nobody"));
+    Assert.assertSame(defaultRedactor, cache.get("../tenants/acme"));
+    Assert.assertSame(defaultRedactor, cache.get(".hidden"));
+    Assert.assertSame(defaultRedactor, cache.get("broken"));
+
+    // The cache stays within its bounds, and evicted policies come back
+    for (String tenant : new String[]{"acme", "globex", "initech", "acme"}) {
+      Assert.assertEquals(tenant.toUpperCase(Locale.ROOT),
+          cache.get(tenant).redact("secret"));
+      Assert.assertTrue(cache.size() <= 2);
+    }
+
+    // Tenants without a policy don't evict the loaded policies
+    StringRedactor initech = cache.get("initech");
+    acme = cache.get("acme");
+    for (int i = 0; i < 100; i++) {
+      Assert.assertSame(defaultRedactor, cache.get("nobody" + i));
+    }
+    Assert.assertSame(acme, cache.get("acme"));
+    Assert.assertSame(initech, cache.get("initech"));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testPolicyCacheEviction() throws Exception {
+    StringRedactor defaultRedactor = StringRedactor.createFromJsonFile(
+        resourcePath + "/real-1.json");
+    PolicyCache cache = new PolicyCache(resourcePath + "/tenants", 3,
+        defaultRedactor);
+    for (int round = 0; round < 2; round++) {
+      for (String tenant : new String[]{"acme", "globex", "broken"}) {
+        cache.get(tenant);
+      }
+    }
+    // All of them used since the hand last went by: one insert still
+    // evicts only one
+    Assert.assertEquals("INITECH", cache.get("initech").redact("secret"));
+    Assert.assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void testPolicyCacheRetry() throws Exception {
+    StringRedactor defaultRedactor = StringRedactor.createFromJsonFile(
+        resourcePath + "/real-1.json");
+    File directory = folder.getRoot();
+    String policy = readFile(resourcePath + "/tenants/acme.json");
+
+    // Missing and broken policies are looked at again after the interval
+    PolicyCache cache = new PolicyCache(directory.getPath(), 10,
+        defaultRedactor, 0);
+    Assert.assertSame(defaultRedactor, cache.get("late"));
+    Assert.assertSame(defaultRedactor, cache.get("fixed"));
+    Files.write(new File(directory, "fixed.json").toPath(),
+        "not json".getBytes(StandardCharsets.UTF_8));
+    Assert.assertSame(defaultRedactor, cache.get("fixed"));
+    Files.write(new File(directory, "late.json").toPath(),
+        policy.getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(directory, "fixed.json").toPath(),
+        policy.getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals("ACME", cache.get("late").redact("secret"));
+    Assert.assertEquals("ACME", cache.get("fixed").redact("secret"));
+
+    // Not before
+    cache = new PolicyCache(directory.getPath(), 10, defaultRedactor);
+    Assert.assertSame(defaultRedactor, cache.get("later"));
+    Files.write(new File(directory, "later.json").toPath(),
+        policy.getBytes(StandardCharsets.UTF_8));
+    Assert.assertSame(defaultRedactor, cache.get("later"));
+  }
+
+  /**
+   * The same policy, with the optimizer turned off.
+   */
+  private StringRedactor unoptimized(String fileName) throws Exception {
+    String json = readFile(fileName);
+    return StringRedactor.createFromJsonString(
+        json.replaceFirst("\\{", "{ \"optimize\": false,"));
+  }
+
+  /**
+   * Random messages made of the given pieces, redacted as Strings and as
+   * bytes, must come out the same with and without the optimizer.
+   */
+  private static void verifySameResults(StringRedactor optimized,
+                                        StringRedactor plain, String[] pieces,
+                                        int rounds) throws Exception {
+    String[] loggers = {null, "org.example.Foo", "com.other.Bar"};
+    String[] levels = {null, "ERROR", "INFO"};
+    RedactionBuffer out = new RedactionBuffer();
+    Random r = new Random(43);
+    for (int round = 0; round < rounds; round++) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = r.nextInt(12); i > 0; i--) {
+        sb.append(pieces[r.nextInt(pieces.length)]);
+      }
+      String msg = sb.toString();
+      String logger = loggers[r.nextInt(loggers.length)];
+      String level = levels[r.nextInt(levels.length)];
+      String expected = plain.redact(msg, logger, level);
+      Assert.assertEquals(msg, expected, optimized.redact(msg, logger, level));
+      byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+      boolean changed = optimized.redact(bytes, 0, bytes.length,
+          StandardCharsets.UTF_8, logger, level, out);
+      Assert.assertEquals(msg, !expected.equals(msg), changed);
+      if (changed) {
+        Assert.assertEquals(msg, expected,
+            new String(out.array(), 0, out.length(), StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void testOptimizer() throws Exception {
+    final String fileName = resourcePath + "/optimize-1.json";
+    StringRedactor optimized = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor plain = unoptimized(fileName);
+    // The second card rule is dropped, and the literals fused as far as
+    // they can be
+    Assert.assertEquals(plain.getMessageRules().size(),
+        optimized.getMessageRules().size() + 7);
+    Assert.assertEquals(plain.getRules().size(), optimized.getRules().size());
+
+    List<String[]> tests = new ArrayList<String[]>();
+    tests.add(new String[]{"1234-5678 abcde", "CARD Q1de"});
+    tests.add(new String[]{"xabc bcd.e", "xQ1 ZD"});
+    tests.add(new String[]{"Q1y abab zzz", "W aa bz"});
+    tests.add(new String[]{"grp foo bar", "grp F B"});
+    tests.add(new String[]{"foo bar", "foo bar"});
+    verifyOK(optimized, tests);
+
+    String[] pieces = {"a", "b", "c", "d", "e", "x", "y", "z", "Q", "1",
+        "-", ".", " ", "1234", "5678", "abc", "cde", "pwd", "dab", "grp",
+        "foo", "bar", "\u00e9"};
+    verifySameResults(optimized, plain, pieces, 50000);
+  }
+
+  @Test
+  public void testCompiledPolicy() throws Exception {
+    final String fileName = resourcePath + "/real-1.json";
+    StringRedactor plain = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor compiled = StringRedactor.createFromJsonString(
+        readFile(fileName).replaceFirst("\\{", "{ \"compile\": true,"));
+    // The fixed length searches of the card and social security numbers
+    int count = 0;
+    for (StringRedactor.RedactionRule rule : compiled.getRules()) {
+      count += rule.isCompiled() ? 1 : 0;
+    }
+    Assert.assertEquals(4, count);
+
+    List<String[]> tests = new ArrayList<String[]>();
+    tests.add(new String[]{"cc 1234-5678-9012-3456 ssn 123-45-6789",
+        "cc XXXX-XXXX-XXXX-XXXX ssn XXX-XX-XXXX"});
+    tests.add(new String[]{"ids 1234567890123456 and 123456789",
+        "ids XXXXXXXXXXXXXXXX and XXXXXXXXX"});
+    // The Pattern takes over, and its '.' matches the whole code point
+    tests.add(new String[]{"cc 1234\uD83D\uDE005678-9012-3456",
+        "cc XXXX-XXXX-XXXX-XXXX"});
+    tests.add(new String[]{"\uD83D\uDE00 ssn 123-45-6789",
+        "\uD83D\uDE00 ssn XXX-XX-XXXX"});
+    verifyOK(compiled, tests);
+
+    String[] pieces = {"1", "23", "456", "7890", "-", ".", " ", "a",
+        "\u0661", "\uD83D\uDE00", "password=", "x.example.com"};
+    verifySameResults(compiled, plain, pieces, 50000);
+  }
+
+  @Test
+  public void testOptimizerHugeRules() throws Exception {
+    final String fileName = resourcePath + "/huge-1.json";
+    StringRedactor optimized = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor plain = unoptimized(fileName);
+    Assert.assertTrue(optimized.getMessageRules().size() * 3 <
+        plain.getMessageRules().size());
+
+    // Pieces of the literals, so that they overlap in every possible way
+    List<String> pieces = new ArrayList<String>();
+    for (StringRedactor.RedactionRule rule : plain.getMessageRules()) {
+      String search = rule.getSearch();
+      pieces.add(search);
+      pieces.add(search.substring(0, 2));
+      pieces.add(search.substring(2));
+    }
+    pieces.add(" ");
+    verifySameResults(optimized, plain, pieces.toArray(new String[0]), 20000);
+  }
+
+  @Test
+  public void testCaseInsensitiveTrigger() throws Exception {
+    final String fileName = resourcePath + "/trigger-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    StringBuilder padding = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      padding.append((char) ('a' + (i % 26)));
+    }
+    List<String[]> tests = new ArrayList<String[]>();
+    // tests are a list of {"input", "expected"} pairs.
+    tests.add(new String[]{"300 degrees", "300 degrees"});
+    tests.add(new String[]{"300 kELVIN", "N kELVIN"});
+    // The Kelvin sign is a case insensitive match for 'k'
+    tests.add(new String[]{"300 \u212Aelvin", "N \u212Aelvin"});
+    tests.add(new String[]{padding + " 300 kelvi", padding + " 300 kelvi"});
+    tests.add(new String[]{padding + " 300 KELVIN", padding + " N KELVIN"});
+    tests.add(new String[]{"\u00e9" + padding + "kelvin 1", "\u00e9" + padding + "kelvin N"});
+
+    verifyOK(srf, tests);
+    verifyOK(srj, tests);
+  }
+
+  /**
+   * Redacting encoded text must give the same result as redacting the
+   * String, whether or not the bytes can be matched directly.
+   */
+  @Test
+  public void testByteRedaction() throws Exception {
+    String[] policies = {"/real-1.json", "/replace-1.json", "/case-1.json",
+        "/ordering-1.json", "/scoped-1.json", "/group-1.json",
+        "/shortcircuit-1.json", "/whole-1.json", "/keyvalue-1.json",
+        "/group-2.json"};
+    String[] messages = {"jdbc:x;user=bob;password=pw secret",
+        "1.2.3.4 5.6.7.8 9.9.9.9", "Hello, world", "CC 1234-2345-3456-4576 and more",
+        "SSN 123-45-6789 password=Hello123", "Ping 192.168.0.1",
+        "Words www.gmail.com is cool", "Magic word", "Say aAa! aaa! AAAAAA!",
+        "This one is a nice one", "HappY abc", "Trigger fFf gGg",
+        "Caf\u00e9 1234-2345-3456-4576", "\u00fcber password=gehe1m",
+        "acct 12345678 secret", "user=bob Password=\"x y\" Authorization: a b",
+        "caf\u00e9=1 token=\u00fcber", "secret key=abc123", ""};
+    Charset[] charsets = {StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1,
+        StandardCharsets.UTF_16BE};
+    // Past the first rule of a group, its trigger is not checked again
+    Assert.assertEquals("hidden key=\u00e9\u00e9\u00e9",
+        StringRedactor.createFromJsonFile(resourcePath + "/group-2.json")
+            .redact("secret key=abc123"));
+    RedactionBuffer out = new RedactionBuffer();
+    for (String policy : policies) {
+      StringRedactor sr = StringRedactor.createFromJsonFile(resourcePath + policy);
+      for (String message : messages) {
+        for (Charset charset : charsets) {
+          String expected = sr.redact(message, "org.example.auth.Login", "ERROR");
+          byte[] padded = ("xx" + message + "yy").getBytes(charset);
+          byte[] bytes = message.getBytes(charset);
+          int offset = padded.length - bytes.length - "yy".getBytes(charset).length;
+          boolean changed = sr.redact(padded, offset, bytes.length, charset,
+              "org.example.auth.Login", "ERROR", out);
+          Assert.assertEquals("Redacting " + message + " from " + policy +
+              " in " + charset, !expected.equals(message), changed);
+          if (changed) {
+            Assert.assertEquals(expected,
+                new String(out.array(), 0, out.length(), charset));
+            Assert.assertEquals(expected,
+                new String(out.toByteArray(), charset));
+          }
+        }
+      }
+    }
+  }
+
+  private static String hmacToken(String key, String text, int length)
+      throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    StringBuilder hex = new StringBuilder();
+    for (byte b : mac.doFinal(text.getBytes(StandardCharsets.UTF_8))) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.substring(0, length);
+  }
+
+  @Test
+  public void testPseudonymize() throws Exception {
+    final String fileName = resourcePath + "/pseudo-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    String bob = hmacToken("not-a-real-secret", "bob", 8);
+    String alice = hmacToken("not-a-real-secret", "alice", 8);
+    String mail = hmacToken("not-a-real-secret", "bob@example.com", 16);
+    List<String[]> tests = new ArrayList<String[]>();
+    // tests are a list of {"input", "expected"} pairs.
+    tests.add(new String[]{"Hello, world", "Hello, world"});
+    tests.add(new String[]{"login failed user=bob", "login failed user=" + bob});
+    tests.add(new String[]{"user=bob user=alice user=bob",
+        "user=" + bob + " user=" + alice + " user=" + bob});
+    tests.add(new String[]{"mail bob@example.com", "mail email:" + mail});
+
+    // Several rounds, so tokens also come out of the cache
+    for (int i = 0; i < 3; i++) {
+      verifyOK(srf, tests);
+      verifyOK(srj, tests);
+    }
+    Assert.assertFalse(bob.equals(alice));
+  }
+
+  @Test
+  public void testPseudonymizeNoKey() throws Exception {
+    final String fileName = resourcePath + "/pseudo-nokey.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("pseudonymKey");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  @Test
+  public void testMasking() throws Exception {
+    final String fileName = resourcePath + "/mask-1.json";
+    final String json = readFile(fileName);
+    StringRedactor srf = StringRedactor.createFromJsonFile(fileName);
+    StringRedactor srj = StringRedactor.createFromJsonString(json);
+
+    String sid = hmacToken("not-a-real-secret", "abc123", 16);
+    List<String[]> tests = new ArrayList<String[]>();
+    // tests are a list of {"input", "expected"} pairs.
+    tests.add(new String[]{"Hello, world", "Hello, world"});
+    tests.add(new String[]{"card 1234-2345-3456-4576 ok",
+        "card XXXXXXXXXXXXXXX4576 ok"});
+    tests.add(new String[]{"call tel:555-123-4567", "call tel:555*********"});
+    tests.add(new String[]{"password=hunter2 user=bob",
+        "password=XXXXXXX user=bob"});
+    tests.add(new String[]{"password=p\u00e4\ud83d\ude00ss",
+        "password=XXXXX"});
+    tests.add(new String[]{"session sid-abc123", "session sid-[" + sid + "]"});
+
+    verifyOK(srf, tests);
+    verifyOK(srj, tests);
+
+    // The byte path must agree with the String path
+    RedactionBuffer out = new RedactionBuffer();
+    for (String[] test : tests) {
+      byte[] in = test[0].getBytes(StandardCharsets.UTF_8);
+      if (srf.redact(in, 0, in.length, StandardCharsets.UTF_8, null, null, out)) {
+        Assert.assertEquals(test[1],
+            new String(out.array(), 0, out.length(), StandardCharsets.UTF_8));
+      } else {
+        Assert.assertEquals(test[1], test[0]);
+      }
+    }
+  }
+
+  @Test
+  public void testMaskBadGroup() throws Exception {
+    final String fileName = resourcePath + "/mask-bad.json";
+    thrown.expect(RedactionPolicyParseException.class);
+    thrown.expectMessage("replacement");
+    thrown.expectMessage("invalid");
+    StringRedactor sr = StringRedactor.createFromJsonFile(fileName);
+  }
+
+  private static String impliedTrigger(String search, boolean caseSensitive)
+      throws Exception {
+    String json = "{\"version\": 1, \"rules\": [{\"search\": " +
+        "\"" + search.replace("\\", "\\\\") + "\", \"caseSensitive\": " +
+        caseSensitive + ", \"replace\": \"x\"}]}";
+    return StringRedactor.createFromJsonString(json).getRules().get(0)
+        .getImpliedTrigger();
+  }
+
+  @Test
+  public void testImpliedTriggers() throws Exception {
+    Assert.assertEquals("password=", impliedTrigger("password=.*", true));
+    Assert.assertEquals("password=", impliedTrigger("password=.*", false));
+    Assert.assertEquals("@", impliedTrigger("\\b([A-Za-z0-9]|[A-Za-z0-9]" +
+        "[A-Za-z0-9\\-\\._]*[A-Za-z0-9])@(([A-Za-z0-9]|[A-Za-z][A-Za-z0-9" +
+        "\\-]*[A-Za-z0-9])\\.)+([A-Za-z0-9]|[A-Za-z0-9][A-Za-z0-9\\-]*" +
+        "[A-Za-z0-9])\\b", true));
+    Assert.assertEquals("foo", impliedTrigger("(foo|foobar)x", true));
+    Assert.assertEquals("abcabc", impliedTrigger("(abc){2}", true));
+    Assert.assertEquals("a.b", impliedTrigger("\\Qa.b\\E+", true));
+    Assert.assertEquals("key=", impliedTrigger("\\bkey=(\\w+)\\b", true));
+    Assert.assertEquals(null, impliedTrigger("\\d{16}", true));
+    Assert.assertEquals(null, impliedTrigger("x*", true));
+    Assert.assertEquals(null, impliedTrigger("a|b", true));
+    Assert.assertEquals(null, impliedTrigger("(?<=user=)\\w+", true));
+    // Case insensitive literals can't be a case sensitive trigger
+    Assert.assertEquals(null, impliedTrigger("(?i)secret", true));
+    Assert.assertEquals("user", impliedTrigger("(?i:secret)user", true));
+
+    // An explicit trigger wins
+    String json = "{\"version\": 1, \"rules\": [{\"trigger\": \"pass\", " +
+        "\"search\": \"password=.*\", \"replace\": \"x\"}]}";
+    Assert.assertEquals(null, StringRedactor.createFromJsonString(json)
+        .getRules().get(0).getImpliedTrigger());
+  }
+
+  /**
+   * Syntax the parser doesn't follow must not give a trigger: the rule has
+   * to redact as the regular expression does.
+   */
+  @Test
+  public void testImpliedTriggersUnknownSyntax() throws Exception {
+    // The search, a message it matches and the trigger
+    String[][] tests = {
+        // Escapes of Java 9 and later
+        {"id\\N{DIGIT ONE}23", "id123", null},
+        {"\\b{g}key=\\w+", "a key=v", "key="},
+        // Unicode classes and case folding
+        {"(?U)user=\\w+", "user=J\u00fcrgen", null},
+        {"(?iu)stra\u00dfe=\\d", "STRA\u00dfE=1", null},
+        {"(?iu)id=\\d", "\u0131d=1", null},
+        // '.' matches '\r' in UNIX_LINES mode
+        {"(?d)a.b", "a\rb", "a"}};
+    for (String[] test : tests) {
+      Pattern pattern;
+      try {
+        pattern = Pattern.compile(test[0]);
+      } catch (java.util.regex.PatternSyntaxException e) {
+        // Not in this JDK
+        continue;
+      }
+      String expected = pattern.matcher(test[1]).replaceAll("x");
+      Assert.assertNotEquals(test[0], test[1], expected);
+      String json = "{\"version\": 1, \"rules\": [{\"search\": \"" +
+          test[0].replace("\\", "\\\\") + "\", \"replace\": \"x\"}]}";
+      StringRedactor sr = StringRedactor.createFromJsonString(json);
+      Assert.assertEquals(test[0], test[2],
+          sr.getRules().get(0).getImpliedTrigger());
+      Assert.assertEquals(test[0], expected, sr.redact(test[1]));
+    }
+  }
+
+  @Test
+  public void testImpliedTriggersDontChangeResults() throws Exception {
+    String[] searches = {"pa?s+=\\w+", "(ab|ba)+=", "s(?:w|@)+\\.", "\\bP=",
+        "(?i)ws@", "a{2,}b", "x(p|s)\\1"};
+    StringBuilder json = new StringBuilder("{\"version\": 1, \"rules\": [");
+    for (int i = 0; i < searches.length; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"search\": \"")
+          .append(searches[i].replace("\\", "\\\\"))
+          .append("\", \"caseSensitive\": ").append(i % 2 == 0)
+          .append(", \"replace\": \"<").append(i).append(">\"}");
+    }
+    StringRedactor sr = StringRedactor.createFromJsonString(
+        json.append("]}").toString());
+    Pattern[] patterns = new Pattern[searches.length];
+    for (int i = 0; i < searches.length; i++) {
+      patterns[i] = Pattern.compile(searches[i],
+          (i % 2 == 0) ? 0 : Pattern.CASE_INSENSITIVE);
+    }
+
+    final String alphabet = "abpPsSwW=@.x \u212a";
+    Random r = new Random(7);
+    for (int round = 0; round < 20000; round++) {
+      char[] msg = new char[r.nextInt(24)];
+      for (int i = 0; i < msg.length; i++) {
+        msg[i] = alphabet.charAt(r.nextInt(alphabet.length()));
+      }
+      String expected = new String(msg);
+      for (int i = 0; i < patterns.length; i++) {
+        expected = patterns[i].matcher(expected).replaceAll("<" + i + ">");
+      }
+      Assert.assertEquals(new String(msg), expected, sr.redact(new String(msg)));
+    }
+  }
+
+  @Test
+  public void testStripedPool() throws Exception {
+    final AtomicInteger created = new AtomicInteger();
+    final StripedPool<Object> pool = new StripedPool<Object>(
+        new StripedPool.Factory<Object>() {
+          @Override
+          public Object create() {
+            created.incrementAndGet();
+            return new Object();
+          }
+        });
+
+    // Sequential use keeps reusing the same object
+    for (int i = 0; i < 100; i++) {
+      pool.release(pool.acquire());
+    }
+    Assert.assertEquals(1, created.get());
+
+    // However many threads come and go, the pool keeps at most its capacity
+    final Set<Object> seen = Collections.newSetFromMap(
+        new IdentityHashMap<Object, Boolean>());
+    Thread[] threads = new Thread[500];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        public void run() {
+          Object item = pool.acquire();
+          synchronized (seen) {
+            seen.add(item);
+          }
+          pool.release(item);
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(created.get(), seen.size());
+    Assert.assertTrue(pool.size() >= 1);
+    Assert.assertTrue(pool.size() <= pool.capacity());
+  }
+
   private int multithreadedErrors;
 
   @Test
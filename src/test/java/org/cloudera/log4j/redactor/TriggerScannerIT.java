@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2026, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package org.cloudera.log4j.redactor;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Differential test of the vectorized trigger lookup against the scalar
+ * one. It runs in the multi-release profile, against the jar (so that the
+ * Java 17 classes are the ones loaded) on a JVM with the Vector API.
+ */
+public class TriggerScannerIT {
+
+  // Characters that fold to each other in every way, including the
+  // non-ASCII ones that fold to ASCII ones (the Kelvin sign and long s)
+  private static final String ALPHABET = "aAkKsS\u212a\u017f\u00e9\u00c9 -=";
+  // The chunk of the message the vectorized scanner compares at a time
+  private static final int CHUNK = 1024;
+
+  private static String randomText(Random r, int length) {
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      sb.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  private static String randomTrigger(Random r) {
+    // The vectorized scanner takes triggers with an ASCII first character
+    String trigger;
+    do {
+      trigger = randomText(r, 1 + r.nextInt(4));
+    } while (trigger.charAt(0) >= 128);
+    return trigger;
+  }
+
+  private static void check(String msg, String trigger, int from) {
+    Assert.assertEquals("Looking for " + trigger + " from " + from +
+            " in a message of " + msg.length(),
+        ScalarScanner.indexOf(msg, trigger, false, from),
+        TriggerScanner.indexOf(msg, trigger, false, from));
+  }
+
+  @Test
+  public void testVectorized() throws Exception {
+    Assert.assertTrue("The Java 17 TriggerScanner isn't loaded, or the " +
+        "JVM runs without the Vector API", TriggerScanner.isVectorized());
+  }
+
+  @Test
+  public void testRandomMessages() throws Exception {
+    Random r = new Random(29);
+    for (int round = 0; round < 20000; round++) {
+      String msg = randomText(r, r.nextInt(r.nextBoolean() ? 200 : 3000));
+      String trigger = randomTrigger(r);
+      check(msg, trigger, 0);
+      check(msg, trigger, r.nextInt(msg.length() + 1));
+    }
+  }
+
+  @Test
+  public void testChunkBoundaries() throws Exception {
+    Random r = new Random(31);
+    String filler = "the quick brown fox jumps over the lazy dog ";
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 3 * CHUNK + 100) {
+      sb.append(filler);
+    }
+    String background = sb.toString().replace('k', '_').replace('K', '_');
+    for (int round = 0; round < 2000; round++) {
+      String trigger = "k" + randomText(r, r.nextInt(4));
+      int from = r.nextInt(100);
+      // Around the ends of the chunks, and of the message
+      int length = from + CHUNK * (1 + r.nextInt(2)) + r.nextInt(80) - 40;
+      int at = (r.nextBoolean() ? from + CHUNK : length - trigger.length()) +
+          r.nextInt(5) - 2;
+      at = Math.max(from, Math.min(at, length - trigger.length()));
+      StringBuilder msg = new StringBuilder(background.substring(0, length));
+      String text = r.nextBoolean() ? trigger.toUpperCase() : trigger;
+      msg.replace(at, at + trigger.length(), text);
+      check(msg.toString(), trigger, from);
+      Assert.assertEquals(at,
+          TriggerScanner.indexOf(msg.toString(), trigger, false, from));
+    }
+  }
+}